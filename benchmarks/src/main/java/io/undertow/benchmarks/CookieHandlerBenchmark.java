@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.Cookie;
+import io.undertow.server.handlers.CookieHandler;
+import io.undertow.util.Headers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for request cookie parsing in {@link CookieHandler}.
+ * <p/>
+ * Each operation includes the creation of an empty exchange, which is measured on its own by
+ * {@link #createExchange()} so it can be subtracted from the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CookieHandlerBenchmark {
+
+    private static final String SINGLE_COOKIE = "JSESSIONID=3A7F1D2B0C9E8F7A6B5C4D3E2F1A0B9C";
+
+    private static final String MULTIPLE_COOKIES = "JSESSIONID=3A7F1D2B0C9E8F7A6B5C4D3E2F1A0B9C; theme=dark; " +
+            "lang=en-US; __utma=111872281.1374981237.1375262823.1375262823.1375262823.1; tracking=\"quoted value\"";
+
+    private static final HttpHandler NO_OP = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        }
+    };
+
+    private CookieHandler handler;
+
+    @Setup
+    public void setup() {
+        handler = new CookieHandler(NO_OP);
+    }
+
+    @Benchmark
+    public HttpServerExchange createExchange() {
+        return new HttpServerExchange(null, null, null);
+    }
+
+    @Benchmark
+    public Map<String, Cookie> parseSingleCookie() throws Exception {
+        return parse(SINGLE_COOKIE);
+    }
+
+    @Benchmark
+    public Map<String, Cookie> parseMultipleCookies() throws Exception {
+        return parse(MULTIPLE_COOKIES);
+    }
+
+    private Map<String, Cookie> parse(final String cookieHeader) throws Exception {
+        final HttpServerExchange exchange = new HttpServerExchange(null, null, null);
+        exchange.getRequestHeaders().add(Headers.COOKIE, cookieHeader);
+        handler.handleRequest(exchange);
+        return exchange.getAttachment(Cookie.REQUEST_COOKIES);
+    }
+}
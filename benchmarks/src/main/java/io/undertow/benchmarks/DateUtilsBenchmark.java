@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.DateUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link DateUtils}.
+ * <p/>
+ * A date is parsed for every conditional request, and formatted for every response that
+ * carries a Date, Expires or Last-Modified header.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DateUtilsBenchmark {
+
+    private static final String RFC1123_DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+    private static final String RFC1036_DATE = "Sunday, 06-Nov-94 08:49:37 GMT";
+    private static final String ASCTIME_DATE = "Sun Nov  6 08:49:37 1994";
+
+    private Date date;
+
+    @Setup
+    public void setup() {
+        date = new Date(784111777000L);
+    }
+
+    @Benchmark
+    public String toDateString() {
+        return DateUtils.toDateString(date);
+    }
+
+    @Benchmark
+    public String currentDateTime() {
+        return DateUtils.getCurrentDateTime();
+    }
+
+    @Benchmark
+    public Date parseRfc1123() {
+        return DateUtils.parseDate(RFC1123_DATE);
+    }
+
+    @Benchmark
+    public Date parseRfc1036() {
+        return DateUtils.parseDate(RFC1036_DATE);
+    }
+
+    @Benchmark
+    public Date parseAsctime() {
+        return DateUtils.parseDate(ASCTIME_DATE);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link HeaderMap}.
+ * <p/>
+ * The add benchmarks populate a new map with a typical set of request headers, which mirrors
+ * what the parser does for every request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HeaderMapBenchmark {
+
+    private static final HttpString CUSTOM_HEADER = new HttpString("X-Custom-Header");
+
+    private HeaderMap populated;
+
+    @Setup
+    public void setup() {
+        populated = populate(new HeaderMap());
+    }
+
+    @Benchmark
+    public HeaderMap add() {
+        return populate(new HeaderMap());
+    }
+
+    @Benchmark
+    public void getFirst(final Blackhole blackhole) {
+        final HeaderMap map = populated;
+        blackhole.consume(map.getFirst(Headers.HOST));
+        blackhole.consume(map.getFirst(Headers.CONTENT_TYPE));
+        blackhole.consume(map.getFirst(Headers.COOKIE));
+        blackhole.consume(map.getFirst(CUSTOM_HEADER));
+        blackhole.consume(map.getFirst(Headers.IF_MODIFIED_SINCE));
+    }
+
+    @Benchmark
+    public void iterate(final Blackhole blackhole) {
+        for (HttpString name : populated) {
+            for (String value : populated.get(name)) {
+                blackhole.consume(value);
+            }
+        }
+    }
+
+    @Benchmark
+    public void iterateCursor(final Blackhole blackhole) {
+        final HeaderMap map = populated;
+        for (int i = map.firstHeader(); i != -1; i = map.nextHeader(i)) {
+            blackhole.consume(map.getHeaderName(i));
+            final int count = map.getValueCount(i);
+            for (int j = 0; j < count; ++j) {
+                blackhole.consume(map.getValue(i, j));
+            }
+        }
+    }
+
+    private static HeaderMap populate(final HeaderMap map) {
+        map.add(Headers.HOST, "www.somehost.net");
+        map.add(Headers.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64; rv:22.0) Gecko/20100101 Firefox/22.0");
+        map.add(Headers.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        map.add(Headers.ACCEPT_LANGUAGE, "en-US,en;q=0.5");
+        map.add(Headers.ACCEPT_ENCODING, "gzip, deflate");
+        map.add(Headers.CONNECTION, "keep-alive");
+        map.add(Headers.CONTENT_TYPE, "application/json");
+        map.add(Headers.COOKIE, "JSESSIONID=3A7F1D2B0C9E8F7A6B5C4D3E2F1A0B9C");
+        map.add(Headers.COOKIE, "theme=dark");
+        map.add(CUSTOM_HEADER, "some custom value");
+        return map;
+    }
+}
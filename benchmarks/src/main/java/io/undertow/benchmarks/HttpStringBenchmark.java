@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link HttpString} construction and comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HttpStringBenchmark {
+
+    private byte[] headerBytes;
+    private HttpString sameCase;
+    private HttpString differentCase;
+    private HttpString different;
+
+    @Setup
+    public void setup() {
+        headerBytes = "Content-Type".getBytes();
+        sameCase = new HttpString("Content-Type");
+        differentCase = new HttpString("content-type");
+        different = new HttpString("Content-Length");
+    }
+
+    @Benchmark
+    public HttpString constructFromString() {
+        return new HttpString("X-Custom-Header");
+    }
+
+    @Benchmark
+    public HttpString constructFromBytes() {
+        return new HttpString(headerBytes);
+    }
+
+    @Benchmark
+    public boolean equalsIdentical() {
+        return Headers.CONTENT_TYPE.equals(Headers.CONTENT_TYPE);
+    }
+
+    @Benchmark
+    public boolean equalsSameCase() {
+        return Headers.CONTENT_TYPE.equals(sameCase);
+    }
+
+    @Benchmark
+    public boolean equalsDifferentCase() {
+        return Headers.CONTENT_TYPE.equals(differentCase);
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        return Headers.CONTENT_TYPE.equals(different);
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return Headers.CONTENT_TYPE.compareTo(differentCase);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the request parser.
+ * <p/>
+ * Each operation parses a complete request, so the per operation allocation reported by the
+ * gc profiler is the allocation cost of parsing a single request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HttpParserBenchmark {
+
+    private static final byte[] SIMPLE_REQUEST = ("GET /hello HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "\r\n").getBytes();
+
+    private static final byte[] BROWSER_REQUEST = ("GET /some/path/to/a/resource.html?param1=value1&param2=value2 HTTP/1.1\r\n" +
+            "Host: www.somehost.net\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:22.0) Gecko/20100101 Firefox/22.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Referer: http://www.somehost.net/index.html\r\n" +
+            "Cookie: JSESSIONID=3A7F1D2B0C9E8F7A6B5C4D3E2F1A0B9C; theme=dark\r\n" +
+            "Connection: keep-alive\r\n" +
+            "X-Custom-Header: some custom value\r\n" +
+            "\r\n").getBytes();
+
+    private ByteBuffer simpleRequest;
+    private ByteBuffer browserRequest;
+
+    @Setup
+    public void setup() {
+        simpleRequest = ByteBuffer.allocateDirect(SIMPLE_REQUEST.length);
+        simpleRequest.put(SIMPLE_REQUEST).flip();
+        browserRequest = ByteBuffer.allocateDirect(BROWSER_REQUEST.length);
+        browserRequest.put(BROWSER_REQUEST).flip();
+    }
+
+    @Benchmark
+    public HttpServerExchange parseSimpleRequest() {
+        return parse(simpleRequest);
+    }
+
+    @Benchmark
+    public HttpServerExchange parseBrowserRequest() {
+        return parse(browserRequest);
+    }
+
+    private static HttpServerExchange parse(final ByteBuffer request) {
+        request.clear();
+        final ParseState state = new ParseState();
+        final HttpServerExchange exchange = new HttpServerExchange(null, null, null);
+        HttpParser.INSTANCE.handle(request, state, exchange);
+        if (!state.isComplete()) {
+            throw new IllegalStateException("request was not fully parsed");
+        }
+        return exchange;
+    }
+}
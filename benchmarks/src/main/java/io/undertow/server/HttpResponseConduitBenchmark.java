@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.Pool;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * Benchmarks for response header serialisation.
+ * <p/>
+ * Each operation writes the status line and headers for a single response into a sink
+ * that discards the data, so only the cost of the serialisation itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HttpResponseConduitBenchmark {
+
+    private final Pool<ByteBuffer> pool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, 8192, 8192 * 20);
+    private final DiscardingStreamSinkConduit sink = new DiscardingStreamSinkConduit();
+
+    private final ByteBuffer[] body = {ByteBuffer.allocateDirect(512), ByteBuffer.allocateDirect(512)};
+
+    private HttpServerExchange minimalExchange;
+    private HttpServerExchange typicalExchange;
+
+    @Setup
+    public void setup() {
+        minimalExchange = new HttpServerExchange(null, null, null);
+        minimalExchange.setProtocol(Protocols.HTTP_1_1);
+        minimalExchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, "11");
+
+        typicalExchange = new HttpServerExchange(null, null, null);
+        typicalExchange.setProtocol(Protocols.HTTP_1_1);
+        typicalExchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, "1024");
+        typicalExchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json; charset=UTF-8");
+        typicalExchange.getResponseHeaders().put(Headers.DATE, "Thu, 01 Aug 2013 12:00:00 GMT");
+        typicalExchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-cache");
+        typicalExchange.getResponseHeaders().put(Headers.CONNECTION, "keep-alive");
+        typicalExchange.getResponseHeaders().add(Headers.SET_COOKIE, "JSESSIONID=3A7F1D2B0C9E8F7A6B5C4D3E2F1A0B9C; path=/");
+        typicalExchange.getResponseHeaders().add(Headers.SET_COOKIE, "theme=dark; path=/");
+        typicalExchange.getResponseHeaders().put(new HttpString("X-Request-Id"), "b8a9c7e6-5d4f-3e2d-1c0b-a9b8c7d6e5f4");
+    }
+
+    @Benchmark
+    public long writeMinimalHeaders() throws IOException {
+        return writeHeaders(minimalExchange);
+    }
+
+    @Benchmark
+    public long writeTypicalHeaders() throws IOException {
+        return writeHeaders(typicalExchange);
+    }
+
+    /**
+     * Writes the headers together with a body made up of two buffers, which should result in a single
+     * gathering write to the underlying conduit.
+     */
+    @Benchmark
+    public long writeTypicalHeadersAndBody() throws IOException {
+        sink.written = 0;
+        for (ByteBuffer buffer : body) {
+            buffer.clear();
+        }
+        final HttpResponseConduit conduit = new HttpResponseConduit(sink, pool, typicalExchange);
+        conduit.write(body, 0, body.length);
+        if (!conduit.flush()) {
+            throw new IllegalStateException("headers were not fully written");
+        }
+        return sink.written;
+    }
+
+    private long writeHeaders(final HttpServerExchange exchange) throws IOException {
+        sink.written = 0;
+        final HttpResponseConduit conduit = new HttpResponseConduit(sink, pool, exchange);
+        if (!conduit.flush()) {
+            throw new IllegalStateException("headers were not fully written");
+        }
+        return sink.written;
+    }
+
+    /**
+     * A sink conduit that simply counts and discards everything written to it.
+     */
+    private static final class DiscardingStreamSinkConduit implements StreamSinkConduit {
+
+        long written;
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            written += count;
+            return count;
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            throughBuffer.clear().limit(0);
+            return 0;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int remaining = src.remaining();
+            src.position(src.limit());
+            written += remaining;
+            return remaining;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+            long total = 0;
+            for (int i = offs; i < offs + len; ++i) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+        }
+
+        @Override
+        public boolean isWriteShutdown() {
+            return false;
+        }
+
+        @Override
+        public void resumeWrites() {
+        }
+
+        @Override
+        public void suspendWrites() {
+        }
+
+        @Override
+        public void wakeupWrites() {
+        }
+
+        @Override
+        public boolean isWriteResumed() {
+            return false;
+        }
+
+        @Override
+        public void awaitWritable() throws IOException {
+        }
+
+        @Override
+        public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        }
+
+        @Override
+        public XnioIoThread getWriteThread() {
+            return null;
+        }
+
+        @Override
+        public void setWriteReadyHandler(final WriteReadyHandler handler) {
+        }
+
+        @Override
+        public void truncateWrites() throws IOException {
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            return true;
+        }
+
+        @Override
+        public XnioWorker getWorker() {
+            return null;
+        }
+    }
+}
@@ -7,6 +7,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
 import io.undertow.ajp.AjpOpenListener;
 import io.undertow.security.api.AuthenticationMechanism;
@@ -32,14 +36,15 @@ import io.undertow.server.handlers.cache.CachedHttpRequest;
 import io.undertow.server.handlers.cache.DirectBufferCache;
 import io.undertow.server.handlers.error.SimpleErrorPageHandler;
 import io.undertow.server.handlers.form.FormEncodedDataHandler;
+import io.undertow.util.ThreadCachingByteBufferPool;
 import io.undertow.websockets.api.WebSocketSessionHandler;
 import io.undertow.websockets.core.handler.WebSocketProtocolHandshakeHandler;
 import io.undertow.websockets.impl.WebSocketSessionConnectionCallback;
 import org.xnio.BufferAllocator;
-import org.xnio.ByteBufferSlicePool;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
+import org.xnio.Option;
 import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.Pool;
@@ -47,6 +52,8 @@ import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 import org.xnio.channels.AcceptingChannel;
 import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.ssl.JsseXnioSsl;
+import org.xnio.ssl.XnioSsl;
 
 /**
  * Convenience class used to build an Undertow server.
@@ -63,6 +70,10 @@ public class Undertow {
     private final int workerThreads;
     private final int cacheSize;
     private final boolean directBuffers;
+    private final int sslSessionCacheSize;
+    private final int sslSessionTimeout;
+    private final OptionMap socketOptions;
+    private final Executor dispatchExecutor;
     private final List<ListenerConfig> listeners = new ArrayList<ListenerConfig>();
     private final List<VirtualHost> hosts = new ArrayList<VirtualHost>();
 
@@ -77,6 +88,10 @@ public class Undertow {
         this.workerThreads = builder.workerThreads;
         this.cacheSize = builder.cacheSize;
         this.directBuffers = builder.directBuffers;
+        this.sslSessionCacheSize = builder.sslSessionCacheSize;
+        this.sslSessionTimeout = builder.sslSessionTimeout;
+        this.socketOptions = builder.socketOptions.getMap();
+        this.dispatchExecutor = builder.dispatchExecutor;
         this.listeners.addAll(builder.listeners);
         this.hosts.addAll(builder.hosts);
     }
@@ -128,9 +143,11 @@ public class Undertow {
                     .set(Options.WORKER_ACCEPT_THREADS, ioThreads)
                     .set(Options.TCP_NODELAY, true)
                     .set(Options.REUSE_ADDRESSES, true)
+                    .set(Options.BACKLOG, 1000)
+                    .addAll(socketOptions)
                     .getMap();
 
-            Pool<ByteBuffer> buffers = new ByteBufferSlicePool(directBuffers ? BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR : BufferAllocator.BYTE_BUFFER_ALLOCATOR, bufferSize, bufferSize * buffersPerRegion);
+            Pool<ByteBuffer> buffers = new ThreadCachingByteBufferPool(directBuffers ? BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR : BufferAllocator.BYTE_BUFFER_ALLOCATOR, bufferSize, bufferSize * buffersPerRegion);
 
             HttpHandler rootHandler = buildHandlerChain();
 
@@ -138,6 +155,7 @@ public class Undertow {
                 if (listener.type == ListenerType.AJP) {
                     AjpOpenListener openListener = new AjpOpenListener(buffers, bufferSize);
                     openListener.setRootHandler(rootHandler);
+                    openListener.setDispatchExecutor(dispatchExecutor);
                     ChannelListener<AcceptingChannel<ConnectedStreamChannel>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
                     AcceptingChannel<? extends ConnectedStreamChannel> server = worker.createStreamServer(new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, serverOptions);
                     server.resumeAccepts();
@@ -145,12 +163,22 @@ public class Undertow {
                 } else if (listener.type == ListenerType.HTTP) {
                     HttpOpenListener openListener = new HttpOpenListener(buffers, OptionMap.create(UndertowOptions.BUFFER_PIPELINED_DATA, true), bufferSize);
                     openListener.setRootHandler(rootHandler);
+                    openListener.setDispatchExecutor(dispatchExecutor);
                     ChannelListener<AcceptingChannel<ConnectedStreamChannel>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
                     AcceptingChannel<? extends ConnectedStreamChannel> server = worker.createStreamServer(new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, serverOptions);
                     server.resumeAccepts();
                     channels.add(server);
+                } else if (listener.type == ListenerType.HTTPS) {
+                    HttpOpenListener openListener = new HttpOpenListener(buffers, OptionMap.create(UndertowOptions.BUFFER_PIPELINED_DATA, true), bufferSize);
+                    openListener.setRootHandler(rootHandler);
+                    openListener.setDispatchExecutor(dispatchExecutor);
+                    ChannelListener<AcceptingChannel<ConnectedStreamChannel>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
+                    configureSessionCache(listener.sslContext);
+                    XnioSsl xnioSsl = new JsseXnioSsl(xnio, serverOptions, listener.sslContext);
+                    AcceptingChannel<? extends ConnectedStreamChannel> server = xnioSsl.createSslTcpServer(worker, new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, serverOptions);
+                    server.resumeAccepts();
+                    channels.add(server);
                 }
-                //TODO: https
             }
 
         } catch (Exception e) {
@@ -168,6 +196,23 @@ public class Undertow {
         xnio = null;
     }
 
+    /**
+     * Applies the TLS session cache settings that were set on the builder to the server side session context.
+     * Settings that were not set are left as they are configured on the SSL context.
+     */
+    private void configureSessionCache(final SSLContext sslContext) {
+        final SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        if (sessionContext == null) {
+            return;
+        }
+        if (sslSessionCacheSize >= 0) {
+            sessionContext.setSessionCacheSize(sslSessionCacheSize);
+        }
+        if (sslSessionTimeout >= 0) {
+            sessionContext.setSessionTimeout(sslSessionTimeout);
+        }
+    }
+
     private HttpHandler buildHandlerChain() {
         final NameVirtualHostHandler virtualHostHandler = new NameVirtualHostHandler();
         for (VirtualHost host : hosts) {
@@ -197,7 +242,8 @@ public class Undertow {
         //TODO: multipart
 
         if (cacheSize > 0) {
-            root = new CacheHandler(new DirectBufferCache<CachedHttpRequest>(1024, cacheSize * 1024 * 1024), root);
+            //cache maintenance runs in the worker, so it never holds up an IO thread
+            root = new CacheHandler(new DirectBufferCache<CachedHttpRequest>(1024, cacheSize * 1024 * 1024, BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, worker), root);
         }
 
         return root;
@@ -237,11 +283,13 @@ public class Undertow {
         final ListenerType type;
         final int port;
         final String host;
+        final SSLContext sslContext;
 
-        private ListenerConfig(final ListenerType type, final int port, final String host) {
+        private ListenerConfig(final ListenerType type, final int port, final String host, final SSLContext sslContext) {
             this.type = type;
             this.port = port;
             this.host = host;
+            this.sslContext = sslContext;
         }
     }
 
@@ -367,6 +415,13 @@ public class Undertow {
         }
     }
 
+    /**
+     * Builder for an Undertow server.
+     * <p/>
+     * Listening sockets are created with a listen backlog of 1000 by default, rather than the much smaller
+     * default of the platform. This can be changed with {@link #setSocketOption(Option, Object)}, using
+     * {@link Options#BACKLOG}.
+     */
     public static final class Builder implements Host<Builder> {
 
         private int bufferSize;
@@ -375,6 +430,10 @@ public class Undertow {
         private int workerThreads;
         private boolean directBuffers;
         private int cacheSize;
+        private int sslSessionCacheSize = -1;
+        private int sslSessionTimeout = -1;
+        private final OptionMap.Builder socketOptions = OptionMap.builder();
+        private Executor dispatchExecutor;
         private final List<ListenerConfig> listeners = new ArrayList<ListenerConfig>();
         private final List<VirtualHost> hosts = new ArrayList<VirtualHost>();
         private final VirtualHost defaultHost = new VirtualHost(true);
@@ -419,7 +478,49 @@ public class Undertow {
         }
 
         public Builder addListener(int port, String host) {
-            listeners.add(new ListenerConfig(ListenerType.HTTP, port, host));
+            listeners.add(new ListenerConfig(ListenerType.HTTP, port, host, null));
+            return this;
+        }
+
+        /**
+         * Adds a HTTPS listener.
+         *
+         * @param port       The port to listen on
+         * @param host       The host address to bind to
+         * @param sslContext The SSL context that is used to create the SSL engines for new connections
+         */
+        public Builder addHttpsListener(int port, String host, SSLContext sslContext) {
+            if (sslContext == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("sslContext");
+            }
+            listeners.add(new ListenerConfig(ListenerType.HTTPS, port, host, sslContext));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of TLS sessions that are cached for resumption by HTTPS listeners. Bounding the
+         * cache lets clients that reconnect resume their session with an abbreviated handshake, without the cache
+         * growing without limit.
+         * <p/>
+         * The setting is applied to the server session context of each listener's {@link SSLContext}, so it also
+         * affects anything else that shares the context. If it is not set the context's own setting is used.
+         *
+         * @param sslSessionCacheSize The maximum number of cached sessions, or 0 for no limit
+         */
+        public Builder setSslSessionCacheSize(final int sslSessionCacheSize) {
+            this.sslSessionCacheSize = sslSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets how long cached TLS sessions can be resumed for by HTTPS listeners. Like
+         * {@link #setSslSessionCacheSize(int)} this is applied to the listener's {@link SSLContext}, and if it is
+         * not set the context's own setting is used.
+         *
+         * @param sslSessionTimeout The timeout in seconds, or 0 for no limit
+         */
+        public Builder setSslSessionTimeout(final int sslSessionTimeout) {
+            this.sslSessionTimeout = sslSessionTimeout;
             return this;
         }
 
@@ -448,6 +549,35 @@ public class Undertow {
             return this;
         }
 
+        /**
+         * Sets the executor that requests are dispatched to when they leave the IO thread, for example to run
+         * blocking code. By default the XNIO worker thread pool, which is sized by {@link #setWorkerThreads(int)},
+         * is used. An executor that does not tie up a platform thread per blocked task can be used to let blocking
+         * handlers scale past the size of the worker pool.
+         * <p/>
+         * The executor is the default for every connection, so it is used by each dispatch of an exchange that does
+         * not name an executor, not just the first one.
+         *
+         * @param dispatchExecutor The executor, or {@code null} to use the worker thread pool
+         */
+        public Builder setDispatchExecutor(final Executor dispatchExecutor) {
+            this.dispatchExecutor = dispatchExecutor;
+            return this;
+        }
+
+        /**
+         * Sets an option on the listening sockets, overriding the default if there is one. The defaults use one
+         * accept thread per IO thread and a listen backlog of 1000, so bursts of new connections are queued by the
+         * kernel rather than dropped.
+         *
+         * @param option The option
+         * @param value  The option value
+         */
+        public <T> Builder setSocketOption(final Option<T> option, final T value) {
+            socketOptions.set(option, value);
+            return this;
+        }
+
         public Builder addVirtualHost(final String hostName) {
             VirtualHost host = new VirtualHost(false);
             host.addHostName(hostName);
@@ -79,4 +79,8 @@ public interface UndertowLogger extends BasicLogger {
     @Message(id = 5010, value = "Verification of authentication tokens for user '%s' has failed using mechanism '%s'.")
     void authenticationFailed(final String userName, final String mechanism);
 
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5011, value = "Exchange %s was used after it was completed. Handlers must not keep references to an exchange once it has ended when exchange recycling is enabled.")
+    void exchangeUsedAfterCompletion(final Object exchange, @Cause Throwable stackTrace);
+
 }
@@ -145,4 +145,7 @@ public interface UndertowMessages {
 
     @Message(id = 40, value = "To many headers, cannot have more than %s header")
     RuntimeException tooManyHeaders(int noParams);
+
+    @Message(id = 41, value = "Invalid path template %s")
+    IllegalArgumentException invalidPathTemplate(String template);
 }
@@ -51,11 +51,39 @@ public class UndertowOptions {
      */
     public static final Option<Boolean> BUFFER_PIPELINED_DATA = Option.simple(UndertowOptions.class, "BUFFER_PIPELINED_DATA", Boolean.class);
 
+    /**
+     * If pipelined requests that are already in the read buffer should be processed back to back in the IO thread,
+     * rather than each one being scheduled as a new task once the previous request completes. The responses are
+     * buffered and flushed together once there are no more pipelined requests to process, so this implies
+     * {@link #BUFFER_PIPELINED_DATA}. Defaults to false.
+     */
+    public static final Option<Boolean> PIPELINED_BATCHING = Option.simple(UndertowOptions.class, "PIPELINED_BATCHING", Boolean.class);
+
+    /**
+     * If a persistent connection should reuse the exchange, header maps and parser state of a completed request
+     * for the next request, rather than allocating new ones. Handlers must not keep references to the exchange, or
+     * to its header maps, once the exchange has ended. Objects are only reused if the exchange completed in the IO
+     * thread and no task was dispatched for it, otherwise a new exchange is allocated. Defaults to false.
+     */
+    public static final Option<Boolean> RECYCLE_EXCHANGES = Option.simple(UndertowOptions.class, "RECYCLE_EXCHANGES", Boolean.class);
+
+    /**
+     * Debug mode for {@link #RECYCLE_EXCHANGES}. Rather than being reused, completed exchanges are marked as recycled,
+     * and a warning is logged if a handler uses one afterwards. Defaults to false.
+     */
+    public static final Option<Boolean> DETECT_EXCHANGE_LEAKS = Option.simple(UndertowOptions.class, "DETECT_EXCHANGE_LEAKS", Boolean.class);
+
     /*
      * The idle timeout in milliseconds after which the channel will be closed.
      */
     public static final Option<Integer> IDLE_TIMEOUT = Option.simple(UndertowOptions.class, "IDLE_TIMEOUT", Integer.class);
 
+    /**
+     * If the server should add a HTTP <code>Date</code> header to all responses that do not already have one.
+     * The date is cached, and only regenerated once a second. Defaults to true.
+     */
+    public static final Option<Boolean> ALWAYS_SET_DATE = Option.simple(UndertowOptions.class, "ALWAYS_SET_DATE", Boolean.class);
+
     private UndertowOptions() {
 
     }
@@ -1,6 +1,7 @@
 package io.undertow.ajp;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
@@ -31,6 +32,8 @@ public class AjpOpenListener implements OpenListener {
 
     private volatile OptionMap undertowOptions;
 
+    private volatile Executor dispatchExecutor;
+
     public AjpOpenListener(final Pool<ByteBuffer> pool, final int bufferSize) {
         this(pool, OptionMap.EMPTY, bufferSize);
     }
@@ -61,7 +64,7 @@ public class AjpOpenListener implements OpenListener {
             assembledChannel = new AssembledConnectedStreamChannel(channel, readChannel, writeChannel);
         }
 
-        HttpServerConnection connection = new HttpServerConnection(assembledChannel, bufferPool, rootHandler, undertowOptions, bufferSize);
+        HttpServerConnection connection = new HttpServerConnection(assembledChannel, bufferPool, rootHandler, undertowOptions, bufferSize, dispatchExecutor);
         AjpReadListener readListener = new AjpReadListener(writeChannel, readChannel, connection);
         readChannel.getReadSetter().set(readListener);
         readListener.handleEvent(readChannel);
@@ -85,4 +88,12 @@ public class AjpOpenListener implements OpenListener {
         }
         this.undertowOptions = undertowOptions;
     }
+
+    public Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    public void setDispatchExecutor(final Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
 }
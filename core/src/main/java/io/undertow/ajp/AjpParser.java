@@ -234,7 +234,7 @@ public class AjpParser {
                 }
             }
             case AjpParseState.READING_HEADERS: {
-                int readHeaders = exchange.getRequestHeaders().getHeaderNames().size();
+                int readHeaders = exchange.getRequestHeaders().size();
                 while (readHeaders < state.numHeaders) {
                     if (state.currentHeader == null) {
                         StringHolder result = parseString(buf, state, true);
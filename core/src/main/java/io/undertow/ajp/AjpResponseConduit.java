@@ -30,6 +30,7 @@ import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
@@ -171,16 +172,23 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
             buffer.put((byte) 4);
             putInt(buffer, exchange.getResponseCode());
             putString(buffer, StatusCodes.getReason(exchange.getResponseCode()));
-            putInt(buffer, exchange.getResponseHeaders().getHeaderNames().size());
-            for (final HttpString header : exchange.getResponseHeaders()) {
-                for (String headerValue : exchange.getResponseHeaders().get(header)) {
-                    Integer headerCode = HEADER_MAP.get(header);
+            final HeaderMap responseHeaders = exchange.getResponseHeaders();
+            int headerCount = 0;
+            for (int i = responseHeaders.firstHeader(); i != -1; i = responseHeaders.nextHeader(i)) {
+                headerCount += responseHeaders.getValueCount(i);
+            }
+            putInt(buffer, headerCount);
+            for (int i = responseHeaders.firstHeader(); i != -1; i = responseHeaders.nextHeader(i)) {
+                final HttpString header = responseHeaders.getHeaderName(i);
+                final Integer headerCode = HEADER_MAP.get(header);
+                final int valueCount = responseHeaders.getValueCount(i);
+                for (int j = 0; j < valueCount; ++j) {
                     if (headerCode != null) {
                         putInt(buffer, headerCode);
                     } else {
                         putString(buffer, header.toString());
                     }
-                    putString(buffer, headerValue);
+                    putString(buffer, responseHeaders.getValue(i, j));
                 }
             }
 
@@ -20,4 +20,8 @@ class AndPredicate<T> implements Predicate<T>{
         }
         return true;
     }
+
+    Predicate<T>[] getPredicates() {
+        return predicates;
+    }
 }
@@ -0,0 +1,462 @@
+package io.undertow.predicate;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A predicate tree that has been flattened into a specialised evaluator.
+ * <p/>
+ * When a tree is compiled:
+ * <ul>
+ * <li>Nested and / or predicates are flattened, and constant sub trees are folded away</li>
+ * <li>The path, prefix and suffix predicates under an or are merged into a single trie match</li>
+ * <li>Sub predicates that appear more than once in the tree are only evaluated once per call to {@link #resolve(HttpServerExchange)}</li>
+ * </ul>
+ * <p/>
+ * Results are not cached between calls, as the relative path and response headers that predicates
+ * look at can change as the exchange moves through the handler chain.
+ *
+ * @see Predicates#compile(Predicate)
+ */
+final class CompiledPredicate implements Predicate<HttpServerExchange> {
+
+    private final Evaluator root;
+    private final int cacheSlots;
+
+    private CompiledPredicate(final Evaluator root, final int cacheSlots) {
+        this.root = root;
+        this.cacheSlots = cacheSlots;
+    }
+
+    static Predicate<HttpServerExchange> compile(final Predicate<HttpServerExchange> predicate) {
+        if (predicate == null || predicate instanceof CompiledPredicate) {
+            return predicate;
+        }
+        final Compiler compiler = new Compiler();
+        compiler.count(predicate);
+        final Evaluator root = compiler.compile(predicate);
+        if (root == Constant.TRUE) {
+            return TruePredicate.instance();
+        } else if (root == Constant.FALSE) {
+            return FalsePredicate.instance();
+        }
+        return new CompiledPredicate(root, compiler.cacheSlots);
+    }
+
+    @Override
+    public boolean resolve(final HttpServerExchange value) {
+        return root.resolve(value, cacheSlots == 0 ? null : new byte[cacheSlots]);
+    }
+
+    private static final class Compiler {
+
+        /**
+         * The number of times each predicate is referenced from the tree
+         */
+        private final Map<Predicate<?>, Integer> references = new IdentityHashMap<Predicate<?>, Integer>();
+        private final Map<Predicate<?>, Evaluator> compiled = new IdentityHashMap<Predicate<?>, Evaluator>();
+        private int cacheSlots;
+
+        void count(final Predicate<?> predicate) {
+            final Integer count = references.get(predicate);
+            references.put(predicate, count == null ? 1 : count + 1);
+            if (count != null) {
+                return;
+            }
+            if (predicate instanceof AndPredicate) {
+                for (Predicate<?> child : ((AndPredicate<?>) predicate).getPredicates()) {
+                    count(child);
+                }
+            } else if (predicate instanceof OrPredicate) {
+                for (Predicate<?> child : ((OrPredicate<?>) predicate).getPredicates()) {
+                    count(child);
+                }
+            } else if (predicate instanceof NotPredicate) {
+                count(((NotPredicate<?>) predicate).getPredicate());
+            }
+        }
+
+        private boolean shared(final Predicate<?> predicate) {
+            final Integer count = references.get(predicate);
+            return count != null && count > 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        Evaluator compile(final Predicate<HttpServerExchange> predicate) {
+            Evaluator result = compiled.get(predicate);
+            if (result != null) {
+                return result;
+            }
+            if (predicate instanceof TruePredicate) {
+                result = Constant.TRUE;
+            } else if (predicate instanceof FalsePredicate) {
+                result = Constant.FALSE;
+            } else if (predicate instanceof AndPredicate) {
+                result = compileAnd((AndPredicate<HttpServerExchange>) predicate);
+            } else if (predicate instanceof OrPredicate) {
+                result = compileOr((OrPredicate<HttpServerExchange>) predicate);
+            } else if (predicate instanceof NotPredicate) {
+                final Evaluator child = compile(((NotPredicate<HttpServerExchange>) predicate).getPredicate());
+                if (child instanceof Constant) {
+                    result = child == Constant.TRUE ? Constant.FALSE : Constant.TRUE;
+                } else if (child instanceof Not) {
+                    result = ((Not) child).evaluator;
+                } else {
+                    result = new Not(child);
+                }
+            } else {
+                result = new Leaf(predicate);
+            }
+            if (shared(predicate) && !(result instanceof Constant) && !(result instanceof Cached)) {
+                result = new Cached(result, cacheSlots++);
+            }
+            compiled.put(predicate, result);
+            return result;
+        }
+
+        private Evaluator compileAnd(final AndPredicate<HttpServerExchange> predicate) {
+            final List<Predicate<HttpServerExchange>> children = new ArrayList<Predicate<HttpServerExchange>>();
+            flattenAnd(predicate, children);
+            final List<Evaluator> evaluators = new ArrayList<Evaluator>();
+            for (Predicate<HttpServerExchange> child : children) {
+                final Evaluator evaluator = compile(child);
+                if (evaluator == Constant.FALSE) {
+                    return Constant.FALSE;
+                } else if (evaluator != Constant.TRUE) {
+                    evaluators.add(evaluator);
+                }
+            }
+            if (evaluators.isEmpty()) {
+                return Constant.TRUE;
+            } else if (evaluators.size() == 1) {
+                return evaluators.get(0);
+            }
+            return new And(evaluators.toArray(new Evaluator[evaluators.size()]));
+        }
+
+        private Evaluator compileOr(final OrPredicate<HttpServerExchange> predicate) {
+            final List<Predicate<HttpServerExchange>> children = new ArrayList<Predicate<HttpServerExchange>>();
+            flattenOr(predicate, children);
+            int pathPredicates = 0;
+            for (Predicate<HttpServerExchange> child : children) {
+                if (isPathPredicate(child)) {
+                    ++pathPredicates;
+                }
+            }
+            final List<Evaluator> evaluators = new ArrayList<Evaluator>();
+            PathTrie trie = null;
+            for (Predicate<HttpServerExchange> child : children) {
+                if (pathPredicates > 1 && isPathPredicate(child)) {
+                    //all the path predicates are merged into one trie, which is evaluated where the first one was
+                    if (trie == null) {
+                        trie = new PathTrie(children);
+                        evaluators.add(trie);
+                    }
+                    continue;
+                }
+                final Evaluator evaluator = compile(child);
+                if (evaluator == Constant.TRUE) {
+                    return Constant.TRUE;
+                } else if (evaluator != Constant.FALSE) {
+                    evaluators.add(evaluator);
+                }
+            }
+            if (evaluators.isEmpty()) {
+                return Constant.FALSE;
+            } else if (evaluators.size() == 1) {
+                return evaluators.get(0);
+            }
+            return new Or(evaluators.toArray(new Evaluator[evaluators.size()]));
+        }
+
+        /**
+         * Collects the children of nested and predicates. Shared predicates are not flattened so
+         * that their result can still be cached.
+         */
+        private void flattenAnd(final AndPredicate<HttpServerExchange> predicate, final List<Predicate<HttpServerExchange>> result) {
+            for (Predicate<HttpServerExchange> child : predicate.getPredicates()) {
+                if (child instanceof AndPredicate && !shared(child)) {
+                    flattenAnd((AndPredicate<HttpServerExchange>) child, result);
+                } else {
+                    result.add(child);
+                }
+            }
+        }
+
+        private void flattenOr(final OrPredicate<HttpServerExchange> predicate, final List<Predicate<HttpServerExchange>> result) {
+            for (Predicate<HttpServerExchange> child : predicate.getPredicates()) {
+                if (child instanceof OrPredicate && !shared(child)) {
+                    flattenOr((OrPredicate<HttpServerExchange>) child, result);
+                } else {
+                    result.add(child);
+                }
+            }
+        }
+
+        private static boolean isPathPredicate(final Predicate<?> predicate) {
+            return predicate instanceof PathMatchPredicate
+                    || predicate instanceof PrefixMatchPredicate
+                    || predicate instanceof SuffixMatchPredicate;
+        }
+    }
+
+    private abstract static class Evaluator {
+
+        /**
+         * @param exchange The exchange
+         * @param cache    The results of shared sub predicates, or null if there are none
+         */
+        abstract boolean resolve(HttpServerExchange exchange, byte[] cache);
+    }
+
+    private static final class Constant extends Evaluator {
+
+        static final Constant TRUE = new Constant(true);
+        static final Constant FALSE = new Constant(false);
+
+        private final boolean value;
+
+        private Constant(final boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            return value;
+        }
+    }
+
+    private static final class Leaf extends Evaluator {
+
+        private final Predicate<HttpServerExchange> predicate;
+
+        private Leaf(final Predicate<HttpServerExchange> predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            return predicate.resolve(exchange);
+        }
+    }
+
+    private static final class Not extends Evaluator {
+
+        private final Evaluator evaluator;
+
+        private Not(final Evaluator evaluator) {
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            return !evaluator.resolve(exchange, cache);
+        }
+    }
+
+    private static final class And extends Evaluator {
+
+        private final Evaluator[] evaluators;
+
+        private And(final Evaluator[] evaluators) {
+            this.evaluators = evaluators;
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            for (Evaluator evaluator : evaluators) {
+                if (!evaluator.resolve(exchange, cache)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or extends Evaluator {
+
+        private final Evaluator[] evaluators;
+
+        private Or(final Evaluator[] evaluators) {
+            this.evaluators = evaluators;
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            for (Evaluator evaluator : evaluators) {
+                if (evaluator.resolve(exchange, cache)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Remembers the result of a shared sub predicate for the rest of the evaluation.
+     */
+    private static final class Cached extends Evaluator {
+
+        private static final byte FALSE = 1;
+        private static final byte TRUE = 2;
+
+        private final Evaluator evaluator;
+        private final int slot;
+
+        private Cached(final Evaluator evaluator, final int slot) {
+            this.evaluator = evaluator;
+            this.slot = slot;
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            final byte cached = cache[slot];
+            if (cached != 0) {
+                return cached == TRUE;
+            }
+            final boolean result = evaluator.resolve(exchange, cache);
+            cache[slot] = result ? TRUE : FALSE;
+            return result;
+        }
+    }
+
+    /**
+     * Matches any number of exact path, prefix and suffix predicates with a single pass over the path.
+     * <p/>
+     * Exact and prefix matches share a trie that is walked forwards over the relative path, and suffix
+     * matches use a trie of the reversed suffixes that is walked backwards over the canonical path. As with
+     * {@link PathMatchPredicate} and {@link PrefixMatchPredicate} a relative path that does not start
+     * with a / is matched as if it did.
+     */
+    private static final class PathTrie extends Evaluator {
+
+        private final TrieNode paths;
+        private final TrieNode suffixes;
+
+        private PathTrie(final List<Predicate<HttpServerExchange>> predicates) {
+            final TrieBuilder paths = new TrieBuilder();
+            final TrieBuilder suffixes = new TrieBuilder();
+            for (Predicate<HttpServerExchange> predicate : predicates) {
+                if (predicate instanceof PathMatchPredicate) {
+                    paths.add(((PathMatchPredicate) predicate).getSlashPath(), false).exact = true;
+                } else if (predicate instanceof PrefixMatchPredicate) {
+                    paths.add(((PrefixMatchPredicate) predicate).getSlashPath(), false).prefix = true;
+                } else if (predicate instanceof SuffixMatchPredicate) {
+                    suffixes.add(((SuffixMatchPredicate) predicate).getSuffix(), true).prefix = true;
+                }
+            }
+            this.paths = paths.build();
+            this.suffixes = suffixes.build();
+        }
+
+        @Override
+        boolean resolve(final HttpServerExchange exchange, final byte[] cache) {
+            return matchPath(exchange.getRelativePath()) || matchSuffix(exchange.getCanonicalPath());
+        }
+
+        private boolean matchPath(final String path) {
+            TrieNode node = paths;
+            int pos = 0;
+            final int length = path.length();
+            if (length == 0 || path.charAt(0) != '/') {
+                node = node.child('/');
+            }
+            while (node != null) {
+                if (node.prefix) {
+                    return true;
+                }
+                if (pos == length) {
+                    return node.exact;
+                }
+                node = node.child(path.charAt(pos++));
+            }
+            return false;
+        }
+
+        private boolean matchSuffix(final String path) {
+            if (path == null) {
+                return false;
+            }
+            TrieNode node = suffixes;
+            int pos = path.length();
+            while (node != null) {
+                if (node.prefix) {
+                    return true;
+                }
+                if (pos == 0) {
+                    return false;
+                }
+                node = node.child(path.charAt(--pos));
+            }
+            return false;
+        }
+    }
+
+    private static final class TrieNode {
+        private final char[] keys;
+        private final TrieNode[] children;
+        private final boolean exact;
+        private final boolean prefix;
+
+        private TrieNode(final char[] keys, final TrieNode[] children, final boolean exact, final boolean prefix) {
+            this.keys = keys;
+            this.children = children;
+            this.exact = exact;
+            this.prefix = prefix;
+        }
+
+        TrieNode child(final char c) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final char key = keys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class TrieBuilder {
+        private final Map<Character, TrieBuilder> children = new TreeMap<Character, TrieBuilder>();
+        private boolean exact;
+        private boolean prefix;
+
+        TrieBuilder add(final String value, final boolean reverse) {
+            TrieBuilder node = this;
+            final int length = value.length();
+            for (int i = 0; i < length; ++i) {
+                final char c = value.charAt(reverse ? length - 1 - i : i);
+                TrieBuilder child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieBuilder();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        TrieNode build() {
+            final char[] keys = new char[children.size()];
+            final TrieNode[] nodes = new TrieNode[keys.length];
+            int i = 0;
+            for (Map.Entry<Character, TrieBuilder> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i++] = entry.getValue().build();
+            }
+            return new TrieNode(keys, nodes, exact, prefix);
+        }
+    }
+}
@@ -15,4 +15,8 @@ class NotPredicate<T> implements Predicate<T>{
     public boolean resolve(final T value) {
         return !predicate.resolve(value);
     }
+
+    Predicate<T> getPredicate() {
+        return predicate;
+    }
 }
@@ -20,4 +20,8 @@ class OrPredicate<T> implements Predicate<T> {
         }
         return false;
     }
+
+    Predicate<T>[] getPredicates() {
+        return predicates;
+    }
 }
@@ -29,4 +29,8 @@ class PathMatchPredicate implements Predicate<HttpServerExchange> {
             return relativePath.equals(path);
         }
     }
+
+    String getSlashPath() {
+        return slashPath;
+    }
 }
@@ -117,6 +117,18 @@ public class Predicates {
         return FalsePredicate.instance();
     }
 
+    /**
+     * Compiles a predicate tree into an evaluator that is equivalent, but cheaper to resolve.
+     * <p/>
+     * Nested and / or predicates are flattened and constant sub trees are folded away, path, prefix and suffix
+     * predicates under an or are merged into a single trie match, and sub predicates that appear in the tree more
+     * than once are only resolved once per evaluation. Compiling a predicate that has already been compiled
+     * returns it unchanged.
+     */
+    public static Predicate<HttpServerExchange> compile(final Predicate<HttpServerExchange> predicate) {
+        return CompiledPredicate.compile(predicate);
+    }
+
     private Predicates() {
 
     }
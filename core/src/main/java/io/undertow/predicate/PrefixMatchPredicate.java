@@ -29,4 +29,8 @@ class PrefixMatchPredicate implements Predicate<HttpServerExchange> {
             return relativePath.startsWith(path);
         }
     }
+
+    String getSlashPath() {
+        return slashPath;
+    }
 }
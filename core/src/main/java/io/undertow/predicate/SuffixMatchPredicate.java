@@ -17,4 +17,8 @@ class SuffixMatchPredicate implements Predicate<HttpServerExchange> {
     public boolean resolve(final HttpServerExchange value) {
         return value.getCanonicalPath().endsWith(suffix);
     }
+
+    String getSuffix() {
+        return suffix;
+    }
 }
@@ -57,7 +57,7 @@ public final class HttpHandlers {
                 Executor executor = exchange.getAttachment(HttpServerExchange.DISPATCH_EXECUTOR);
                 exchange.unDispatch();
                 if (dispatchTask != null) {
-                    executor = executor == null ? exchange.getConnection().getWorker() : executor;
+                    executor = executor == null ? exchange.getConnection().getDispatchExecutor() : executor;
                     executor.execute(dispatchTask);
                 }
             } else {
@@ -19,6 +19,7 @@
 package io.undertow.server;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
@@ -50,6 +51,8 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
 
     private volatile OptionMap undertowOptions;
 
+    private volatile Executor dispatchExecutor;
+
     public HttpOpenListener(final Pool<ByteBuffer> pool, final int bufferSize) {
         this(pool, OptionMap.EMPTY, bufferSize);
     }
@@ -81,7 +84,7 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
             assembledChannel = new AssembledConnectedStreamChannel(channel, readChannel, writeChannel);
         }
 
-        HttpServerConnection connection = new HttpServerConnection(assembledChannel, bufferPool, rootHandler, undertowOptions, bufferSize);
+        HttpServerConnection connection = new HttpServerConnection(assembledChannel, bufferPool, rootHandler, undertowOptions, bufferSize, dispatchExecutor);
         HttpReadListener readListener = new HttpReadListener(writeChannel, readChannel, connection);
         readChannel.getReadSetter().set(readListener);
         readListener.handleEvent(readChannel);
@@ -109,4 +112,14 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
         }
         this.undertowOptions = undertowOptions;
     }
+
+    @Override
+    public Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    @Override
+    public void setDispatchExecutor(final Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
 }
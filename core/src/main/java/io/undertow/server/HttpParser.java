@@ -343,8 +343,17 @@ public abstract class HttpParser {
     private static final int LINE_END = 3;
     private static final int AWAIT_DATA_END = 4;
 
+    /**
+     * The initial size of the per request array that header values are copied into
+     */
+    private static final int INITIAL_ARENA_SIZE = 512;
+
     /**
      * Parses a header value. This is called from the generated  bytecode.
+     * <p/>
+     * Rather than creating a String for every header value the raw bytes are copied into
+     * {@link ParseState#headerValues}, and the header map just records the range. The value
+     * is only converted into a String if it is actually read.
      *
      * @param buffer  The buffer
      * @param state   The current state
@@ -353,9 +362,14 @@ public abstract class HttpParser {
      */
     @SuppressWarnings("unused")
     final void handleHeaderValue(ByteBuffer buffer, ParseState state, HttpServerExchange builder) {
-        StringBuilder stringBuilder = state.stringBuilder;
-        if (stringBuilder == null) {
-            stringBuilder = new StringBuilder();
+        byte[] arena = state.headerValues;
+        int arenaPos = state.headerValuesPos;
+        int valueStart = state.headerValueStart;
+        if (arena == null) {
+            state.headerValues = arena = new byte[INITIAL_ARENA_SIZE];
+        }
+        if (valueStart == -1) {
+            valueStart = arenaPos;
             state.parseState = 0;
 
             if (state.mapCount++ > 1000) {
@@ -375,7 +389,12 @@ public abstract class HttpParser {
             } else if (next == ' ' || next == '\t') {
                 parseState = WHITESPACE;
             } else {
-                stringBuilder.append((char) next);
+                if (arenaPos == arena.length) {
+                    arena = growArena(state, arena, valueStart, arenaPos);
+                    arenaPos -= valueStart;
+                    valueStart = 0;
+                }
+                arena[arenaPos++] = next;
             }
         }
 
@@ -390,7 +409,12 @@ public abstract class HttpParser {
                     } else if (next == ' ' || next == '\t') {
                         parseState = WHITESPACE;
                     } else {
-                        stringBuilder.append((char) next);
+                        if (arenaPos == arena.length) {
+                            arena = growArena(state, arena, valueStart, arenaPos);
+                            arenaPos -= valueStart;
+                            valueStart = 0;
+                        }
+                        arena[arenaPos++] = next;
                     }
                     break;
                 }
@@ -401,10 +425,15 @@ public abstract class HttpParser {
                         parseState = LINE_END;
                     } else if (next == ' ' || next == '\t') {
                     } else {
-                        if (stringBuilder.length() > 0) {
-                            stringBuilder.append(' ');
+                        if (arenaPos + 2 > arena.length) {
+                            arena = growArena(state, arena, valueStart, arenaPos);
+                            arenaPos -= valueStart;
+                            valueStart = 0;
                         }
-                        stringBuilder.append((char) next);
+                        if (arenaPos > valueStart) {
+                            arena[arenaPos++] = ' ';
+                        }
+                        arena[arenaPos++] = next;
                         parseState = NORMAL;
                     }
                     break;
@@ -420,20 +449,21 @@ public abstract class HttpParser {
                     } else {
                         //we have a header
                         HttpString nextStandardHeader = state.nextHeader;
-                        String headerValue = stringBuilder.toString();
 
                         //TODO: we need to decode this according to RFC-2047 if we have seen a =? symbol
-                        builder.getRequestHeaders().add(nextStandardHeader, headerValue);
+                        builder.getRequestHeaders().add(nextStandardHeader, arena, valueStart, arenaPos - valueStart);
 
                         state.nextHeader = null;
 
                         state.leftOver = next;
-                        state.stringBuilder = null;
                         if (next == '\r') {
                             parseState = AWAIT_DATA_END;
+                            valueStart = arenaPos;
                         } else {
                             state.state = ParseState.HEADER;
                             state.parseState = 0;
+                            state.headerValuesPos = arenaPos;
+                            state.headerValueStart = -1;
                             return;
                         }
                     }
@@ -441,16 +471,33 @@ public abstract class HttpParser {
                 }
                 case AWAIT_DATA_END: {
                     state.state = ParseState.PARSE_COMPLETE;
+                    state.headerValuesPos = arenaPos;
+                    state.headerValueStart = -1;
                     return;
                 }
             }
         }
         //we only write to the state if we did not finish parsing
         state.parseState = parseState;
-        state.stringBuilder = stringBuilder;
+        state.headerValuesPos = arenaPos;
+        state.headerValueStart = valueStart;
         return;
     }
 
+    /**
+     * Replaces the header value array with a larger one. Only the value that is currently being parsed
+     * is copied, values that have already been added to the header map keep referencing the old array.
+     *
+     * @return The new array, the value currently being parsed starts at position 0
+     */
+    private static byte[] growArena(final ParseState state, final byte[] arena, final int valueStart, final int arenaPos) {
+        final int length = arenaPos - valueStart;
+        final byte[] newArena = new byte[Math.max(INITIAL_ARENA_SIZE, length * 2)];
+        System.arraycopy(arena, valueStart, newArena, 0, length);
+        state.headerValues = newArena;
+        return newArena;
+    }
+
     protected void handleAfterVersion(ByteBuffer buffer, ParseState state, HttpServerExchange builder) {
         boolean newLine = state.leftOver == '\n';
         while (buffer.hasRemaining()) {
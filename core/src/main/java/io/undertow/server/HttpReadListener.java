@@ -27,6 +27,7 @@ import io.undertow.UndertowOptions;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
+import org.xnio.OptionMap;
 import org.xnio.Pooled;
 import org.xnio.channels.StreamSinkChannel;
 import org.xnio.channels.StreamSourceChannel;
@@ -41,24 +42,76 @@ import static org.xnio.IoUtils.safeClose;
 final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
 
     private final StreamSinkChannel responseChannel;
+    private final StreamSourceChannel requestChannel;
 
-    private ParseState state = new ParseState();
+    private ParseState state;
     private HttpServerExchange httpServerExchange;
 
+    /**
+     * The exchange of the previous request on this connection, if it can be recycled. It is only reset once this
+     * listener starts reading, as the thread that completed it may still be unwinding until then.
+     */
+    private HttpServerExchange previousExchange;
+
     private final HttpServerConnection connection;
 
     private int read = 0;
     private final int maxRequestSize;
+    private final boolean pipelinedBatching;
+    private final boolean recycleExchanges;
+    private final boolean detectExchangeLeaks;
 
     HttpReadListener(final StreamSinkChannel responseChannel, final StreamSourceChannel requestChannel, final HttpServerConnection connection) {
+        this(responseChannel, requestChannel, connection, null, null);
+    }
+
+    HttpReadListener(final StreamSinkChannel responseChannel, final StreamSourceChannel requestChannel, final HttpServerConnection connection, final HttpServerExchange previousExchange, final ParseState previousState) {
         this.responseChannel = responseChannel;
+        this.requestChannel = requestChannel;
         this.connection = connection;
-        maxRequestSize = connection.getUndertowOptions().get(UndertowOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE);
-        httpServerExchange = new HttpServerExchange(connection, requestChannel, this.responseChannel);
-        httpServerExchange.addExchangeCompleteListener(new StartNextRequestAction(requestChannel, responseChannel));
+        final OptionMap undertowOptions = connection.getUndertowOptions();
+        maxRequestSize = undertowOptions.get(UndertowOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE);
+        pipelinedBatching = undertowOptions.get(UndertowOptions.PIPELINED_BATCHING, false);
+        detectExchangeLeaks = undertowOptions.get(UndertowOptions.DETECT_EXCHANGE_LEAKS, false);
+        recycleExchanges = detectExchangeLeaks || undertowOptions.get(UndertowOptions.RECYCLE_EXCHANGES, false);
+        if (previousExchange == null) {
+            state = new ParseState();
+            httpServerExchange = createExchange();
+        } else {
+            this.previousExchange = previousExchange;
+            this.state = previousState;
+        }
+    }
+
+    private HttpServerExchange createExchange() {
+        final HttpServerExchange exchange = new HttpServerExchange(connection, requestChannel, responseChannel);
+        exchange.addExchangeCompleteListener(new StartNextRequestAction(requestChannel, responseChannel, state, pipelinedBatching, recycleExchanges));
+        return exchange;
+    }
+
+    /**
+     * Sets up the exchange and parse state for this request from the ones used by the previous request.
+     */
+    private void recyclePreviousExchange() {
+        final HttpServerExchange previous = previousExchange;
+        previousExchange = null;
+        if (detectExchangeLeaks) {
+            //the previous exchange is left intact, so leaked references to it can be detected
+            previous.markRecycled();
+            state = new ParseState();
+            httpServerExchange = createExchange();
+        } else {
+            previous.recycle();
+            state.reset();
+            previous.addExchangeCompleteListener(new StartNextRequestAction(requestChannel, responseChannel, state, pipelinedBatching, recycleExchanges));
+            httpServerExchange = previous;
+        }
     }
 
     public void handleEvent(final StreamSourceChannel channel) {
+        if (previousExchange != null) {
+            recyclePreviousExchange();
+        }
 
         Pooled<ByteBuffer> existing = connection.getExtraBytes();
 
@@ -144,8 +197,11 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
                 httpServerExchange.setRequestScheme(connection.getSslSession() != null ? "https" : "http"); //todo: determine if this is https
                 state = null;
                 this.httpServerExchange = null;
-                this.httpServerExchange = null;
-                HttpTransferEncoding.handleRequest(httpServerExchange, connection.getRootHandler());
+                if (pipelinedBatching && !connection.isInPipelinedBatch()) {
+                    runPipelinedBatch(channel, httpServerExchange);
+                } else {
+                    HttpTransferEncoding.handleRequest(httpServerExchange, connection.getRootHandler());
+                }
 
             } catch (Throwable t) {
                 //TODO: we should attempt to return a 500 status code in this situation
@@ -162,6 +218,27 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
     }
 
 
+    /**
+     * Handles the request, and then any pipelined requests that are already in the read buffer. If a request
+     * completes before its handler returns the next request is run by this loop directly, so the whole batch
+     * is handled without scheduling a task per request and without growing the stack. The responses are buffered
+     * by the {@link io.undertow.conduits.PipelingBufferingStreamSinkConduit}, which flushes them together once
+     * the read buffer is empty.
+     */
+    private void runPipelinedBatch(final StreamSourceChannel channel, final HttpServerExchange exchange) {
+        connection.setInPipelinedBatch(true);
+        try {
+            HttpTransferEncoding.handleRequest(exchange, connection.getRootHandler());
+            HttpReadListener next;
+            while ((next = connection.getNextPipelinedRequest()) != null) {
+                connection.setNextPipelinedRequest(null);
+                next.handleEvent(channel);
+            }
+        } finally {
+            connection.setInPipelinedBatch(false);
+        }
+    }
+
     /**
      * Action that starts the next request
      */
@@ -169,18 +246,31 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
 
         private StreamSourceChannel requestChannel;
         private StreamSinkChannel responseChannel;
+        private ParseState parseState;
+        private final boolean pipelinedBatching;
+        private final boolean recycleExchanges;
 
 
-        public StartNextRequestAction(final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel) {
+        public StartNextRequestAction(final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel, final ParseState parseState, final boolean pipelinedBatching, final boolean recycleExchanges) {
             this.requestChannel = requestChannel;
             this.responseChannel = responseChannel;
+            this.parseState = parseState;
+            this.pipelinedBatching = pipelinedBatching;
+            this.recycleExchanges = recycleExchanges;
         }
 
         @Override
         public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
             if (exchange.isPersistent() && !exchange.isUpgrade()) {
                 final StreamSourceChannel channel = this.requestChannel;
-                final HttpReadListener listener = new HttpReadListener(responseChannel, channel, exchange.getConnection());
+                final HttpReadListener listener;
+                if (recycleExchanges && exchange.isRecyclable() && exchange.isInIoThread() && Thread.currentThread() == channel.getIoThread()) {
+                    //the exchange completed in the IO thread and was never dispatched, so nothing else can be using it
+                    //once the next request starts
+                    listener = new HttpReadListener(responseChannel, channel, exchange.getConnection(), exchange, parseState);
+                } else {
+                    listener = new HttpReadListener(responseChannel, channel, exchange.getConnection());
+                }
                 if (exchange.getConnection().getExtraBytes() == null) {
                     //if we are not pipelining we just register a listener
                     channel.getReadSetter().set(listener);
@@ -189,18 +279,23 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
                     if(channel.isReadResumed()) {
                         channel.suspendReads();
                     }
-                    if (exchange.isInIoThread()) {
+                    final HttpServerConnection connection = exchange.getConnection();
+                    if (pipelinedBatching && exchange.isInIoThread() && connection.isInPipelinedBatch()) {
+                        //the batch loop will pick this up once the current handler returns
+                        connection.setNextPipelinedRequest(listener);
+                    } else if (exchange.isInIoThread()) {
                         channel.getIoThread().execute(new DoNextRequestRead(listener, channel));
                     } else {
                         Executor executor = exchange.getDispatchExecutor();
                         if(executor == null) {
-                            executor = exchange.getConnection().getWorker();
+                            executor = exchange.getConnection().getDispatchExecutor();
                         }
                         executor.execute(new DoNextRequestRead(listener, channel));
                     }
                 }
                 responseChannel = null;
                 this.requestChannel = null;
+                this.parseState = null;
             }
             nextListener.proceed();
         }
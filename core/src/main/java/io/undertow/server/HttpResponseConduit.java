@@ -22,12 +22,16 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
-import java.util.Iterator;
 
+import io.undertow.UndertowOptions;
 import io.undertow.util.ConduitFactory;
+import io.undertow.util.DateUtils;
 import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.Protocols;
 import io.undertow.util.StatusCodes;
+import org.xnio.Buffers;
 import org.xnio.Pool;
 import org.xnio.Pooled;
 import org.xnio.XnioWorker;
@@ -47,13 +51,20 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
 
     private int state = STATE_START;
 
-    private Iterator<HttpString> nameIterator;
+    /**
+     * The {@link HeaderMap} cursor of the header that is currently being written
+     */
+    private int nameCursor;
+    /**
+     * The index of the next value of the current header to be written
+     */
+    private int valueIndex;
     private String string;
     private HttpString headerName;
-    private Iterator<String> valueIterator;
     private int charIndex;
     private Pooled<ByteBuffer> pooledBuffer;
     private final HttpServerExchange exchange;
+    private final boolean alwaysSetDate;
 
     private static final int STATE_BODY = 0; // Message body, normal pass-through operation
     private static final int STATE_START = 1; // No headers written yet
@@ -67,6 +78,23 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
     private static final int STATE_HDR_FINAL_LF = 9; // Final LF
     private static final int STATE_BUF_FLUSH = 10; // flush the buffer and go to writing body
 
+    /**
+     * Pre-encoded status lines for HTTP/1.1 and HTTP/1.0, indexed by status code - 100
+     */
+    private static final byte[][] HTTP_1_1_STATUS_LINES = encodeStatusLines(Protocols.HTTP_1_1);
+    private static final byte[][] HTTP_1_0_STATUS_LINES = encodeStatusLines(Protocols.HTTP_1_0);
+
+    /**
+     * Scratch space used to copy header values into direct buffers. It grows to fit the longest value
+     * that has been written by the thread.
+     */
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[128];
+        }
+    };
+
     private static final int MASK_STATE         = 0x0000000F;
     private static final int FLAG_SHUTDOWN      = 0x00000010;
 
@@ -74,303 +102,322 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         @Override
         public StreamSinkConduit wrap(ConduitFactory<StreamSinkConduit> factory, HttpServerExchange exchange) {
             final StreamSinkConduit channel = factory.create();
-            return new HttpResponseConduit(channel, exchange.getConnection().getBufferPool(), exchange);
+            final HttpServerConnection connection = exchange.getConnection();
+            final boolean alwaysSetDate = connection.getUndertowOptions().get(UndertowOptions.ALWAYS_SET_DATE, true);
+            return new HttpResponseConduit(channel, connection.getBufferPool(), exchange, alwaysSetDate);
         }
     };
 
     HttpResponseConduit(final StreamSinkConduit next, final Pool<ByteBuffer> pool, final HttpServerExchange exchange) {
+        this(next, pool, exchange, false);
+    }
+
+    HttpResponseConduit(final StreamSinkConduit next, final Pool<ByteBuffer> pool, final HttpServerExchange exchange, final boolean alwaysSetDate) {
         super(next);
         this.pool = pool;
         this.exchange = exchange;
+        this.alwaysSetDate = alwaysSetDate;
     }
 
     /**
-     * Handles writing out the header data. It can also take a byte buffer of user
-     * data, to enable both user data and headers to be written out in a single operation,
-     * which has a noticable performance impact.
+     * Handles writing out the header data. It can also take user data, to enable both user data
+     * and headers to be written out in a single gathering write, which has a noticable performance impact.
      *
-     * It is up to the caller to note the current position of this buffer before and after they
+     * It is up to the caller to note the remaining user data before and after they
      * call this method, and use this to figure out how many bytes (if any) have been written.
+     *
      * @param state
-     * @param userData
+     * @param userData The user data, the first element is reserved for the header buffer and is overwritten.
+     *                 If this is null only the headers are written.
      * @return
      * @throws IOException
      */
-    private int processWrite(int state, final ByteBuffer userData) throws IOException {
+    private int processWrite(int state, final ByteBuffer[] userData) throws IOException {
         if (state == STATE_START) {
             pooledBuffer = pool.allocate();
         }
         ByteBuffer buffer = pooledBuffer.getResource();
-        Iterator<HttpString> nameIterator = this.nameIterator;
-        Iterator<String> valueIterator = this.valueIterator;
+        final HeaderMap headers = exchange.getResponseHeaders();
+        int nameCursor = this.nameCursor;
+        int valueIndex = this.valueIndex;
         int charIndex = this.charIndex;
         int length;
         String string = this.string;
         HttpString headerName = this.headerName;
         int res;
-        // BUFFER IS FLIPPED COMING IN
-        if (state != STATE_START && buffer.hasRemaining()) {
-            do {
-                res = next.write(buffer);
-                if (res == 0) {
-                    return state;
-                }
-            } while (buffer.hasRemaining());
-        }
-        buffer.clear();
-        // BUFFER IS NOW EMPTY FOR FILLING
-        for (;;) {
-            switch (state) {
-                case STATE_BODY: {
-                    // shouldn't be possible, but might as well do the right thing anyway
-                    return state;
-                }
-                case STATE_START: {
-                    // we assume that our buffer has enough space for the initial response line plus one more CR+LF
-                    assert buffer.remaining() >= 0x100;
-                    exchange.getProtocol().appendTo(buffer);
-                    buffer.put((byte) ' ');
-                    int code = exchange.getResponseCode();
-                    assert 999 >= code && code >= 100;
-                    buffer.put((byte) (code / 100 + '0'));
-                    buffer.put((byte) (code / 10 % 10 + '0'));
-                    buffer.put((byte) (code % 10 + '0'));
-                    buffer.put((byte) ' ');
-                    string = StatusCodes.getReason(code);
-                    length = string.length();
-                    for (charIndex = 0; charIndex < length; charIndex ++) {
-                        buffer.put((byte) string.charAt(charIndex));
+        try {
+            // BUFFER IS FLIPPED COMING IN
+            if (state != STATE_START && buffer.hasRemaining()) {
+                do {
+                    res = next.write(buffer);
+                    if (res == 0) {
+                        return state;
                     }
-                    buffer.put((byte) '\r').put((byte) '\n');
-                    HeaderMap headers = exchange.getResponseHeaders();
-                    nameIterator = headers.iterator();
-                    if (! nameIterator.hasNext()) {
-                        buffer.put((byte) '\r').put((byte) '\n');
-                        buffer.flip();
-                        while (buffer.hasRemaining()) {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                return STATE_BUF_FLUSH;
-                            }
-                        }
-                        pooledBuffer.free();
-                        pooledBuffer = null;
-                        return STATE_BODY;
+                } while (buffer.hasRemaining());
+            }
+            buffer.clear();
+            // BUFFER IS NOW EMPTY FOR FILLING
+            for (;;) {
+                switch (state) {
+                    case STATE_BODY: {
+                        // shouldn't be possible, but might as well do the right thing anyway
+                        return state;
                     }
-                    headerName = nameIterator.next();
-                    charIndex = 0;
-                    // fall thru
-                }
-                case STATE_HDR_NAME: {
-                    length = headerName.length();
-                    while (charIndex < length) {
-                        if (buffer.hasRemaining()) {
-                            buffer.put(headerName.byteAt(charIndex++));
+                    case STATE_START: {
+                        // we assume that our buffer has enough space for the initial response line plus one more CR+LF
+                        assert buffer.remaining() >= 0x100;
+                        final byte[] statusLine = statusLine(exchange.getProtocol(), exchange.getResponseCode());
+                        if (statusLine != null) {
+                            buffer.put(statusLine);
                         } else {
+                            exchange.getProtocol().appendTo(buffer);
+                            buffer.put((byte) ' ');
+                            int code = exchange.getResponseCode();
+                            assert 999 >= code && code >= 100;
+                            buffer.put((byte) (code / 100 + '0'));
+                            buffer.put((byte) (code / 10 % 10 + '0'));
+                            buffer.put((byte) (code % 10 + '0'));
+                            buffer.put((byte) ' ');
+                            string = StatusCodes.getReason(code);
+                            length = string.length();
+                            for (charIndex = 0; charIndex < length; charIndex ++) {
+                                buffer.put((byte) string.charAt(charIndex));
+                            }
+                            buffer.put((byte) '\r').put((byte) '\n');
+                        }
+                        if (alwaysSetDate && !headers.contains(Headers.DATE)) {
+                            //the cached date is copied straight into the buffer, rather than going through the header map
+                            Headers.DATE.appendTo(buffer);
+                            buffer.put((byte) ':').put((byte) ' ');
+                            DateUtils.putCurrentDateTime(buffer);
+                            buffer.put((byte) '\r').put((byte) '\n');
+                        }
+                        nameCursor = headers.firstHeader();
+                        if (nameCursor == -1) {
+                            string = null;
+                            buffer.put((byte) '\r').put((byte) '\n');
                             buffer.flip();
-                            do {
+                            while (buffer.hasRemaining()) {
                                 res = next.write(buffer);
                                 if (res == 0) {
-                                    this.string = string;
-                                    this.headerName = headerName;
-                                    this.charIndex = charIndex;
-                                    this.valueIterator = valueIterator;
-                                    this.nameIterator = nameIterator;
-                                    return STATE_HDR_NAME;
+                                    return STATE_BUF_FLUSH;
                                 }
-                            } while (buffer.hasRemaining());
-                            buffer.clear();
+                            }
+                            pooledBuffer.free();
+                            pooledBuffer = null;
+                            return STATE_BODY;
                         }
+                        if (headerBlockLength(headers) <= buffer.remaining()) {
+                            //fast path, the whole header block fits in the buffer so it can be copied in without
+                            //having to check for space as we go
+                            writeHeaderBlock(headers, buffer);
+                            nameCursor = -1;
+                            string = null;
+                            state = STATE_HDR_FINAL_LF;
+                            break;
+                        }
+                        headerName = headers.getHeaderName(nameCursor);
+                        valueIndex = 0;
+                        charIndex = 0;
+                        // fall thru
                     }
-                    // fall thru
-                }
-                case STATE_HDR_D: {
-                    if (! buffer.hasRemaining()) {
-                        buffer.flip();
-                        do {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                this.string = string;
-                                this.headerName = headerName;
-                                this.charIndex = charIndex;
-                                this.valueIterator = valueIterator;
-                                this.nameIterator = nameIterator;
-                                return STATE_HDR_D;
+                    case STATE_HDR_NAME: {
+                        length = headerName.length();
+                        while (charIndex < length) {
+                            if (buffer.hasRemaining()) {
+                                buffer.put(headerName.byteAt(charIndex++));
+                            } else {
+                                if (flushHeaderBuffer(buffer)) return STATE_HDR_NAME;
                             }
-                        } while (buffer.hasRemaining());
-                        buffer.clear();
+                        }
+                        // fall thru
                     }
-                    buffer.put((byte) ':');
-                    // fall thru
-                }
-                case STATE_HDR_DS: {
-                    if (! buffer.hasRemaining()) {
-                        buffer.flip();
-                        do {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                this.string = string;
-                                this.headerName = headerName;
-                                this.charIndex = charIndex;
-                                this.valueIterator = valueIterator;
-                                this.nameIterator = nameIterator;
-                                return STATE_HDR_DS;
-                            }
-                        } while (buffer.hasRemaining());
-                        buffer.clear();
+                    case STATE_HDR_D: {
+                        if (! buffer.hasRemaining()) {
+                            if (flushHeaderBuffer(buffer)) return STATE_HDR_D;
+                        }
+                        buffer.put((byte) ':');
+                        // fall thru
                     }
-                    buffer.put((byte) ' ');
-                    if(valueIterator == null) {
-                        valueIterator = exchange.getResponseHeaders().get(headerName).iterator();
+                    case STATE_HDR_DS: {
+                        if (! buffer.hasRemaining()) {
+                            if (flushHeaderBuffer(buffer)) return STATE_HDR_DS;
+                        }
+                        buffer.put((byte) ' ');
+                        string = headers.getValue(nameCursor, valueIndex++);
+                        charIndex = 0;
+                        // fall thru
                     }
-                    assert valueIterator.hasNext();
-                    string = valueIterator.next();
-                    charIndex = 0;
-                    // fall thru
-                }
-                case STATE_HDR_VAL: {
-                    length = string.length();
-                    while (charIndex < length) {
-                        if (buffer.hasRemaining()) {
-                            buffer.put((byte) string.charAt(charIndex++));
-                        } else {
-                            buffer.flip();
-                            do {
-                                res = next.write(buffer);
-                                if (res == 0) {
-                                    this.string = string;
-                                    this.headerName = headerName;
-                                    this.charIndex = charIndex;
-                                    this.valueIterator = valueIterator;
-                                    this.nameIterator = nameIterator;
-                                    return STATE_HDR_VAL;
-                                }
-                            } while (buffer.hasRemaining());
-                            buffer.clear();
+                    case STATE_HDR_VAL: {
+                        length = string.length();
+                        while (charIndex < length) {
+                            if (buffer.hasRemaining()) {
+                                buffer.put((byte) string.charAt(charIndex++));
+                            } else {
+                                if (flushHeaderBuffer(buffer)) return STATE_HDR_VAL;
+                            }
                         }
+                        charIndex = 0;
+                        // fall thru
                     }
-                    charIndex = 0;
-                    if (! valueIterator.hasNext()) {
+                    // Clean-up states
+                    case STATE_HDR_EOL_CR: {
                         if (! buffer.hasRemaining()) {
                             if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_CR;
                         }
                         buffer.put((byte) 13); // CR
+                    }
+                    case STATE_HDR_EOL_LF: {
                         if (! buffer.hasRemaining()) {
                             if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_LF;
                         }
                         buffer.put((byte) 10); // LF
-                        if (nameIterator.hasNext()) {
-                            headerName = nameIterator.next();
-                            valueIterator = null;
+                        if (valueIndex < headers.getValueCount(nameCursor)) {
                             state = STATE_HDR_NAME;
                             break;
-                        } else {
-                            if (! buffer.hasRemaining()) {
-                                if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_CR;
-                            }
-                            buffer.put((byte) 13); // CR
-                            if (! buffer.hasRemaining()) {
-                                if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_LF;
-                            }
-                            buffer.put((byte) 10); // LF
-                            this.nameIterator = null;
-                            this.valueIterator = null;
-                            this.string = null;
-                            buffer.flip();
-                            //for performance reasons we use a gather write if there is user data
-                            if(userData == null) {
-                                do {
-                                    res = next.write(buffer);
-                                    if (res == 0) {
-                                        return STATE_BUF_FLUSH;
-                                    }
-                                } while (buffer.hasRemaining());
-                            } else {
-                                ByteBuffer[] b = {buffer, userData};
-                                do {
-                                    long r = next.write(b, 0, b.length);
-                                    if (r == 0 && buffer.hasRemaining()) {
-                                        return STATE_BUF_FLUSH;
-                                    }
-                                } while (buffer.hasRemaining());
-                            }
-                            pooledBuffer.free();
-                            pooledBuffer = null;
-                            return STATE_BODY;
                         }
-                        // not reached
-                    }
-                    // fall thru
-                }
-                // Clean-up states
-                case STATE_HDR_EOL_CR: {
-                    if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_CR;
-                    }
-                    buffer.put((byte) 13); // CR
-                }
-                case STATE_HDR_EOL_LF: {
-                    if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_LF;
+                        nameCursor = headers.nextHeader(nameCursor);
+                        if (nameCursor != -1) {
+                            headerName = headers.getHeaderName(nameCursor);
+                            valueIndex = 0;
+                            state = STATE_HDR_NAME;
+                            break;
+                        }
+                        // fall thru
                     }
-                    buffer.put((byte) 10); // LF
-                    if(valueIterator.hasNext()) {
-                        state = STATE_HDR_NAME;
-                        break;
-                    } else if (nameIterator.hasNext()) {
-                        headerName = nameIterator.next();
-                        valueIterator = null;
-                        state = STATE_HDR_NAME;
-                        break;
+                    case STATE_HDR_FINAL_CR: {
+                        if (! buffer.hasRemaining()) {
+                            if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_CR;
+                        }
+                        buffer.put((byte) 13); // CR
+                        // fall thru
                     }
-                    // fall thru
-                }
-                case STATE_HDR_FINAL_CR: {
-                    if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_CR;
+                    case STATE_HDR_FINAL_LF: {
+                        if (! buffer.hasRemaining()) {
+                            if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_LF;
+                        }
+                        buffer.put((byte) 10); // LF
+                        headerName = null;
+                        string = null;
+                        buffer.flip();
+                        //for performance reasons we use a gather write if there is user data
+                        if(userData == null) {
+                            do {
+                                res = next.write(buffer);
+                                if (res == 0) {
+                                    return STATE_BUF_FLUSH;
+                                }
+                            } while (buffer.hasRemaining());
+                        } else {
+                            userData[0] = buffer;
+                            do {
+                                long r = next.write(userData, 0, userData.length);
+                                if (r == 0 && buffer.hasRemaining()) {
+                                    return STATE_BUF_FLUSH;
+                                }
+                            } while (buffer.hasRemaining());
+                        }
+                        // fall thru
                     }
-                    buffer.put((byte) 13); // CR
-                    // fall thru
-                }
-                case STATE_HDR_FINAL_LF: {
-                    if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_LF;
+                    case STATE_BUF_FLUSH: {
+                        // buffer was successfully flushed above
+                        pooledBuffer.free();
+                        pooledBuffer = null;
+                        return STATE_BODY;
                     }
-                    buffer.put((byte) 10); // LF
-                    this.nameIterator = null;
-                    this.valueIterator = null;
-                    this.string = null;
-                    buffer.flip();
-                    //for performance reasons we use a gather write if there is user data
-                    if(userData == null) {
-                        do {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                return STATE_BUF_FLUSH;
-                            }
-                        } while (buffer.hasRemaining());
-                    } else {
-                        ByteBuffer[] b = {buffer, userData};
-                        do {
-                            long r = next.write(b, 0, b.length);
-                            if (r == 0) {
-                                return STATE_BUF_FLUSH;
-                            }
-                        } while (buffer.hasRemaining());
+                    default: {
+                        throw new IllegalStateException();
                     }
-                    // fall thru
-                }
-                case STATE_BUF_FLUSH: {
-                    // buffer was successfully flushed above
-                    pooledBuffer.free();
-                    pooledBuffer = null;
-                    return STATE_BODY;
-                }
-                default: {
-                    throw new IllegalStateException();
                 }
             }
+        } finally {
+            this.nameCursor = nameCursor;
+            this.valueIndex = valueIndex;
+            this.charIndex = charIndex;
+            this.string = string;
+            this.headerName = headerName;
+        }
+    }
+
+    /**
+     * Returns the number of bytes required to write out all the headers, including the final CRLF.
+     */
+    private static int headerBlockLength(final HeaderMap headers) {
+        int length = 2;
+        for (int i = headers.firstHeader(); i != -1; i = headers.nextHeader(i)) {
+            final int nameLength = headers.getHeaderName(i).length() + 4;
+            final int count = headers.getValueCount(i);
+            for (int j = 0; j < count; ++j) {
+                length += nameLength + headers.getValue(i, j).length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes all the headers, and the CR of the final CRLF. The caller must have checked that there
+     * is enough space in the buffer using {@link #headerBlockLength(HeaderMap)}.
+     */
+    private static void writeHeaderBlock(final HeaderMap headers, final ByteBuffer buffer) {
+        for (int i = headers.firstHeader(); i != -1; i = headers.nextHeader(i)) {
+            final HttpString name = headers.getHeaderName(i);
+            final int count = headers.getValueCount(i);
+            for (int j = 0; j < count; ++j) {
+                name.appendTo(buffer);
+                buffer.put((byte) ':').put((byte) ' ');
+                putString(buffer, headers.getValue(i, j));
+                buffer.put((byte) '\r').put((byte) '\n');
+            }
         }
+        buffer.put((byte) '\r');
+    }
+
+    /**
+     * Copies a string into the buffer, discarding the high byte of each char. Heap buffers are written in
+     * bulk directly into the backing array, while direct buffers are written in bulk from a per thread
+     * scratch array.
+     */
+    @SuppressWarnings("deprecation")
+    private static void putString(final ByteBuffer buffer, final String string) {
+        final int length = string.length();
+        if (buffer.hasArray()) {
+            final int pos = buffer.position();
+            string.getBytes(0, length, buffer.array(), buffer.arrayOffset() + pos);
+            buffer.position(pos + length);
+        } else {
+            byte[] scratch = SCRATCH.get();
+            if (scratch.length < length) {
+                scratch = new byte[length];
+                SCRATCH.set(scratch);
+            }
+            string.getBytes(0, length, scratch, 0);
+            buffer.put(scratch, 0, length);
+        }
+    }
+
+    private static byte[] statusLine(final HttpString protocol, final int code) {
+        if (code < 100 || code > 599) {
+            return null;
+        }
+        if (protocol == Protocols.HTTP_1_1 || protocol.equals(Protocols.HTTP_1_1)) {
+            return HTTP_1_1_STATUS_LINES[code - 100];
+        } else if (protocol == Protocols.HTTP_1_0 || protocol.equals(Protocols.HTTP_1_0)) {
+            return HTTP_1_0_STATUS_LINES[code - 100];
+        }
+        return null;
+    }
+
+    private static byte[][] encodeStatusLines(final HttpString protocol) {
+        final byte[][] lines = new byte[500][];
+        for (int code = 100; code < 600; ++code) {
+            final String line = protocol.toString() + ' ' + code + ' ' + StatusCodes.getReason(code) + "\r\n";
+            final byte[] bytes = new byte[line.length()];
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[i] = (byte) line.charAt(i);
+            }
+            lines[code - 100] = bytes;
+        }
+        return lines;
     }
 
     private boolean flushHeaderBuffer(ByteBuffer buffer) throws IOException {
@@ -394,7 +441,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         try {
             if (state != 0) {
                 originalRemaining = src.remaining();
-                state = processWrite(state, src);
+                state = processWrite(state, new ByteBuffer[] {null, src});
                 if (state != 0) {
                     return 0;
                 }
@@ -425,15 +472,23 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         int state = oldVal & MASK_STATE;
         try {
             if (state != 0) {
-                //todo: use gathering write here
-                state = processWrite(state, null);
+                //gather the header buffer and the user data into a single write
+                final ByteBuffer[] userData = new ByteBuffer[length + 1];
+                System.arraycopy(srcs, offset, userData, 1, length);
+                final long originalRemaining = Buffers.remaining(srcs, offset, length);
+                state = processWrite(state, userData);
                 if (state != 0) {
                     return 0;
                 }
+                final long alreadyWritten = originalRemaining - Buffers.remaining(srcs, offset, length);
                 if (allAreSet(oldVal, FLAG_SHUTDOWN)) {
                     next.terminateWrites();
                     throw new ClosedChannelException();
                 }
+                if (alreadyWritten == originalRemaining) {
+                    return alreadyWritten;
+                }
+                return (length == 1 ? next.write(srcs[offset]) : next.write(srcs, offset, length)) + alreadyWritten;
             }
             return length == 1 ? next.write(srcs[offset]) : next.write(srcs, offset, length);
         } finally {
@@ -21,6 +21,7 @@ package io.undertow.server;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 import javax.net.ssl.SSLSession;
 
@@ -49,18 +50,36 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
     private final HttpHandler rootHandler;
     private final OptionMap undertowOptions;
     private final int bufferSize;
+    private final Executor dispatchExecutor;
     /**
      * Any extra bytes that were read from the channel. This could be data for this requests, or the next response.
      *
      */
     private Pooled<ByteBuffer> extraBytes;
 
+    /**
+     * If a batch of pipelined requests is currently being processed in the IO thread
+     */
+    private boolean inPipelinedBatch;
+
+    /**
+     * The read listener for the next pipelined request. This is set if an exchange completes while a batch
+     * of pipelined requests is being processed, and is picked up by the batch loop rather than being run
+     * as a new task.
+     */
+    private HttpReadListener nextPipelinedRequest;
+
     public HttpServerConnection(ConnectedStreamChannel channel, final Pool<ByteBuffer> bufferPool, final HttpHandler rootHandler, final OptionMap undertowOptions, final int bufferSize) {
+        this(channel, bufferPool, rootHandler, undertowOptions, bufferSize, null);
+    }
+
+    public HttpServerConnection(ConnectedStreamChannel channel, final Pool<ByteBuffer> bufferPool, final HttpHandler rootHandler, final OptionMap undertowOptions, final int bufferSize, final Executor dispatchExecutor) {
         this.channel = channel;
         this.bufferPool = bufferPool;
         this.rootHandler = rootHandler;
         this.undertowOptions = undertowOptions;
         this.bufferSize = bufferSize;
+        this.dispatchExecutor = dispatchExecutor;
         closeSetter = ChannelListeners.getDelegatingSetter(channel.getCloseSetter(), this);
     }
 
@@ -99,6 +118,17 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
         return channel.getWorker();
     }
 
+    /**
+     * Gets the executor that exchanges on this connection are dispatched to if they do not specify one. Unlike
+     * the exchange's dispatch executor this applies to every dispatch for the life of the connection.
+     *
+     * @return The default dispatch executor, which is the XNIO worker unless another executor was configured
+     */
+    public Executor getDispatchExecutor() {
+        final Executor dispatchExecutor = this.dispatchExecutor;
+        return dispatchExecutor == null ? channel.getWorker() : dispatchExecutor;
+    }
+
     @Override
     public XnioIoThread getIoThread() {
         return channel.getIoThread();
@@ -167,4 +197,20 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
     public void setExtraBytes(final Pooled<ByteBuffer> extraBytes) {
         this.extraBytes = extraBytes;
     }
+
+    boolean isInPipelinedBatch() {
+        return inPipelinedBatch;
+    }
+
+    void setInPipelinedBatch(final boolean inPipelinedBatch) {
+        this.inPipelinedBatch = inPipelinedBatch;
+    }
+
+    HttpReadListener getNextPipelinedRequest() {
+        return nextPipelinedRequest;
+    }
+
+    void setNextPipelinedRequest(final HttpReadListener nextPipelinedRequest) {
+        this.nextPipelinedRequest = nextPipelinedRequest;
+    }
 }
@@ -178,6 +178,18 @@ public final class HttpServerExchange extends AbstractAttachable {
      */
     private static final int FLAG_IN_CALL = 1 << 17;
 
+    /**
+     * If this flag is set then the exchange has ended and the connection has moved on to the next request.
+     * This is only used when exchange leak detection is enabled.
+     */
+    private static final int FLAG_RECYCLED = 1 << 18;
+
+    /**
+     * If this flag is set then a task has been dispatched for this exchange, so another thread may still be
+     * using it after it has completed. Such exchanges are never reused for the next request.
+     */
+    private static final int FLAG_DISPATCHED_TASK = 1 << 19;
+
     public HttpServerExchange(final HttpServerConnection connection, final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel) {
         this.connection = connection;
         this.underlyingRequestChannel = requestChannel;
@@ -449,7 +461,8 @@ public final class HttpServerExchange extends AbstractAttachable {
     }
 
     /**
-     * Dispatches this request to the XNIO worker thread pool. Once the call stack returns
+     * Dispatches this request to the connection's dispatch executor, which is the XNIO worker
+     * thread pool unless another executor has been configured. Once the call stack returns
      * the given runnable will be submitted to the executor.
      * <p/>
      * In general handlers should first check the value of {@link #isInIoThread()} before
@@ -475,6 +488,8 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @throws IllegalStateException If this exchange has already been dispatched
      */
     public void dispatch(final Executor executor, final Runnable runnable) {
+        checkNotRecycled();
+        state |= FLAG_DISPATCHED_TASK;
         if (isInCall()) {
             state |= FLAG_DISPATCHED;
             if (executor != null) {
@@ -483,7 +498,7 @@ public final class HttpServerExchange extends AbstractAttachable {
             putAttachment(DISPATCH_TASK, runnable);
         } else {
             if (executor == null) {
-                getConnection().getWorker().execute(runnable);
+                getConnection().getDispatchExecutor().execute(runnable);
             } else {
                 executor.execute(runnable);
             }
@@ -601,6 +616,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the request headers
      */
     public HeaderMap getRequestHeaders() {
+        checkNotRecycled();
         return requestHeaders;
     }
 
@@ -610,6 +626,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the response headers
      */
     public HeaderMap getResponseHeaders() {
+        checkNotRecycled();
         return responseHeaders;
     }
 
@@ -652,6 +669,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the channel for the inbound request, or {@code null} if another party already acquired the channel
      */
     public StreamSourceChannel getRequestChannel() {
+        checkNotRecycled();
         final List<ConduitWrapper<StreamSourceConduit>> wrappers = this.requestWrappers;
         this.requestWrappers = null;
         if (wrappers == null) {
@@ -780,6 +798,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the response channel, or {@code null} if another party already acquired the channel
      */
     public StreamSinkChannel getResponseChannel() {
+        checkNotRecycled();
         final List<ConduitWrapper<StreamSinkConduit>> wrappers = responseWrappers;
         this.responseWrappers = null;
         if (wrappers == null) {
@@ -832,6 +851,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @throws IllegalStateException if a response or upgrade was already sent
      */
     public void setResponseCode(final int responseCode) {
+        checkNotRecycled();
         if (responseCode < 0 || responseCode > 999) {
             throw new IllegalArgumentException("Invalid response code");
         }
@@ -952,6 +972,68 @@ public final class HttpServerExchange extends AbstractAttachable {
         }
     }
 
+    /**
+     * An exchange can only be reused if no task was dispatched for it. Once a task has been handed to another
+     * thread there is no way to know when that thread is done with the exchange, even if the exchange itself
+     * completes in the IO thread.
+     *
+     * @return <code>true</code> if this exchange can be reused for the next request once it has completed
+     */
+    boolean isRecyclable() {
+        return !anyAreSet(state, FLAG_DISPATCHED_TASK);
+    }
+
+    /**
+     * Resets this exchange so it can be used for the next request on the same connection. This must only
+     * be called once the exchange has completed and nothing else holds a reference to it.
+     */
+    void recycle() {
+        clearAttachments();
+        requestHeaders.clear();
+        responseHeaders.clear();
+        exchangeCompleteListeners.clear();
+        defaultResponseListeners.clear();
+        if (queryParameters != null) {
+            queryParameters.clear();
+        }
+        responseChannel = null;
+        requestChannel = null;
+        blockingHttpExchange = null;
+        protocol = null;
+        state = 200;
+        requestMethod = null;
+        requestScheme = null;
+        requestURI = null;
+        requestPath = null;
+        canonicalPath = null;
+        relativePath = null;
+        resolvedPath = "";
+        queryString = null;
+        if (requestWrappers == null) {
+            requestWrappers = new ArrayList<ConduitWrapper<StreamSourceConduit>>(3);
+        } else {
+            requestWrappers.clear();
+        }
+        if (responseWrappers == null) {
+            responseWrappers = new ArrayList<ConduitWrapper<StreamSinkConduit>>(3);
+        } else {
+            responseWrappers.clear();
+        }
+    }
+
+    /**
+     * Marks this exchange as recycled, so that any further use of it is logged
+     */
+    void markRecycled() {
+        state |= FLAG_RECYCLED;
+    }
+
+    private void checkNotRecycled() {
+        if (anyAreSet(state, FLAG_RECYCLED)) {
+            UndertowLogger.REQUEST_LOGGER.exchangeUsedAfterCompletion(this, new IllegalStateException());
+        }
+    }
+
     /**
      * Ends the exchange by fully draining the request channel, and flushing the response channel.
      * <p/>
@@ -961,6 +1043,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * If the exchange is already complete this method is a noop
      */
     public void endExchange() {
+        checkNotRecycled();
         final int state = this.state;
         if(allAreSet(state, FLAG_REQUEST_TERMINATED | FLAG_RESPONSE_TERMINATED)) {
             return;
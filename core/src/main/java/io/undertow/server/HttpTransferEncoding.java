@@ -36,6 +36,7 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
 import org.jboss.logging.Logger;
+import org.xnio.OptionMap;
 import org.xnio.XnioExecutor;
 import org.xnio.conduits.EmptyStreamSourceConduit;
 import org.xnio.conduits.StreamSinkChannelWrappingConduit;
@@ -81,7 +82,7 @@ public class HttpTransferEncoding {
             if(persistentConnection
                     && connection.getExtraBytes() != null
                     && pipeliningBuffer == null
-                    && connection.getUndertowOptions().get(UndertowOptions.BUFFER_PIPELINED_DATA, false)) {
+                    && bufferPipelinedData(connection)) {
                 pipeliningBuffer = new PipelingBufferingStreamSinkConduit(new StreamSinkChannelWrappingConduit(connection.getChannel()), connection.getBufferPool());
                 connection.putAttachment(PipelingBufferingStreamSinkConduit.ATTACHMENT_KEY, pipeliningBuffer);
                 exchange.addResponseWrapper(pipeliningBuffer.getChannelWrapper());
@@ -132,7 +133,7 @@ public class HttpTransferEncoding {
             //performance
             if (connection.getExtraBytes() != null
                     && pipeliningBuffer == null
-                    && connection.getUndertowOptions().get(UndertowOptions.BUFFER_PIPELINED_DATA, false)) {
+                    && bufferPipelinedData(connection)) {
                 pipeliningBuffer = new PipelingBufferingStreamSinkConduit(new StreamSinkChannelWrappingConduit(connection.getChannel()), connection.getBufferPool());
                 connection.putAttachment(PipelingBufferingStreamSinkConduit.ATTACHMENT_KEY, pipeliningBuffer);
                 exchange.addResponseWrapper(pipeliningBuffer.getChannelWrapper());
@@ -150,6 +151,11 @@ public class HttpTransferEncoding {
         return persistentConnection;
     }
 
+    private static boolean bufferPipelinedData(final HttpServerConnection connection) {
+        final OptionMap options = connection.getUndertowOptions();
+        return options.get(UndertowOptions.BUFFER_PIPELINED_DATA, false) || options.get(UndertowOptions.PIPELINED_BATCHING, false);
+    }
+
     private static boolean persistentConnection(HttpServerExchange exchange, String connectionHeader) {
         if (exchange.isHttp11()) {
             return !(connectionHeader != null && new HttpString(connectionHeader).equals(Headers.CLOSE));
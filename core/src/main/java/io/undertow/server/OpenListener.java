@@ -1,5 +1,7 @@
 package io.undertow.server;
 
+import java.util.concurrent.Executor;
+
 import org.xnio.ChannelListener;
 import org.xnio.OptionMap;
 import org.xnio.channels.ConnectedStreamChannel;
@@ -15,4 +17,16 @@ public interface OpenListener extends ChannelListener<ConnectedStreamChannel> {
     OptionMap getUndertowOptions();
 
     void setUndertowOptions(OptionMap undertowOptions);
+
+    /**
+     * @return The executor that exchanges are dispatched to if they do not specify one, or null for the XNIO worker
+     */
+    Executor getDispatchExecutor();
+
+    /**
+     * Sets the executor that exchanges on new connections are dispatched to if they do not specify one.
+     *
+     * @param dispatchExecutor The executor, or null to use the XNIO worker
+     */
+    void setDispatchExecutor(Executor dispatchExecutor);
 }
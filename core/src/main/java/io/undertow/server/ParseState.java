@@ -98,11 +98,49 @@ class ParseState {
 
     int mapCount;
 
+    /**
+     * The array that header values are copied into as they are parsed. The request header map references
+     * ranges of this array, so once a value has been added the bytes it covers must not be modified.
+     */
+    byte[] headerValues;
+
+    /**
+     * The next free position in {@link #headerValues}
+     */
+    int headerValuesPos;
+
+    /**
+     * The position in {@link #headerValues} where the header value currently being parsed starts, or -1
+     * if no header value is being parsed.
+     */
+    int headerValueStart = -1;
+
     public ParseState() {
         this.parseState = 0;
         this.pos = 0;
     }
 
+    /**
+     * Resets this state so it can be used to parse another request. The header value array is kept,
+     * so this must only be called once nothing references the header values of the previous request.
+     */
+    void reset() {
+        state = 0;
+        parseState = 0;
+        current = null;
+        currentBytes = null;
+        pos = 0;
+        queryParamPos = 0;
+        requestEnd = 0;
+        stringBuilder = null;
+        leftOver = 0;
+        nextHeader = null;
+        nextQueryParam = null;
+        mapCount = 0;
+        headerValuesPos = 0;
+        headerValueStart = -1;
+    }
+
     public boolean isComplete() {
         return state == PARSE_COMPLETE;
     }
@@ -18,6 +18,10 @@
 
 package io.undertow.server.handlers;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import io.undertow.server.HttpHandler;
@@ -29,26 +33,33 @@ import io.undertow.util.Headers;
 /**
  * A {@link HttpHandler} that implements virtual hosts based on the <code>Host:</code> http header
  * header.
+ * <p/>
+ * Host names are matched case insensitively, and any port in the header is ignored. A host registered
+ * as <code>*.example.com</code> matches any host that ends with <code>.example.com</code>. If more than
+ * one wildcard matches the longest one wins, and an exact match always takes precedence over a wildcard.
+ * <p/>
+ * The registered hosts are compiled into a hash table when they are added or removed, and the header is
+ * looked up in place, without creating any intermediate strings.
  *
  * @author Stuart Douglas
  */
 public class NameVirtualHostHandler implements HttpHandler {
 
+    private static final String WILDCARD = "*.";
+
     private volatile HttpHandler defaultHandler = ResponseCodeHandler.HANDLE_404;
     private final Map<String, HttpHandler> hosts = new CopyOnWriteMap<String, HttpHandler>();
 
+    /**
+     * The exact host names in the first slot, and the wildcard host names in the second
+     */
+    private volatile HostTable[] tables = {HostTable.EMPTY, HostTable.EMPTY};
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
         final String hostHeader = exchange.getRequestHeaders().getFirst(Headers.HOST);
         if (hostHeader != null) {
-            String host;
-            if (hostHeader.contains(":")) { //header can be in host:port format
-                host = hostHeader.substring(0, hostHeader.indexOf(":"));
-            } else {
-                host = hostHeader;
-            }
-            final HttpHandler handler = hosts.get(host);
+            final HttpHandler handler = findHandler(hostHeader);
             if (handler != null) {
                 HttpHandlers.executeHandler(handler, exchange);
                 return;
@@ -57,12 +68,69 @@ public class NameVirtualHostHandler implements HttpHandler {
         HttpHandlers.executeHandler(defaultHandler, exchange);
     }
 
+    /**
+     * Walks the host name backwards a single time. The hash of every suffix that starts with a . is checked
+     * against the wildcard table as it is passed, and the hash of the complete name against the exact table.
+     */
+    private HttpHandler findHandler(final String hostHeader) {
+        int end;
+        if (hostHeader.startsWith("[")) {
+            //IPv6 literal, the port comes after the closing bracket
+            end = hostHeader.indexOf(']') + 1;
+            if (end == 0) {
+                end = hostHeader.length();
+            }
+        } else {
+            end = hostHeader.indexOf(':');
+            if (end == -1) {
+                end = hostHeader.length();
+            }
+        }
+        if (end > 0 && hostHeader.charAt(end - 1) == '.') {
+            //fully qualified name with a trailing dot
+            --end;
+        }
+        final HostTable[] tables = this.tables;
+        final HostTable wildcardHosts = tables[1];
+        final boolean wildcards = wildcardHosts.size > 0;
+        HttpHandler wildcard = null;
+        int hash = 0;
+        for (int i = end - 1; i >= 0; --i) {
+            final char c = hostHeader.charAt(i);
+            hash = 31 * hash + toLowerCase(c);
+            if (c == '.' && wildcards && i > 0) {
+                final HttpHandler handler = wildcardHosts.get(hash, hostHeader, i, end);
+                if (handler != null) {
+                    wildcard = handler;
+                }
+            }
+        }
+        final HttpHandler exact = tables[0].get(hash, hostHeader, 0, end);
+        return exact != null ? exact : wildcard;
+    }
+
+    private static char toLowerCase(final char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * The hash of a host name, computed from the last character to the first so that the hash of each suffix
+     * is available while the name is walked backwards.
+     */
+    private static int hash(final String host) {
+        int hash = 0;
+        for (int i = host.length() - 1; i >= 0; --i) {
+            hash = 31 * hash + toLowerCase(host.charAt(i));
+        }
+        return hash;
+    }
+
     public HttpHandler getDefaultHandler() {
         return defaultHandler;
     }
 
     public Map<String, HttpHandler> getHosts() {
-        return hosts;
+        return Collections.unmodifiableMap(hosts);
     }
 
     public NameVirtualHostHandler setDefaultHandler(final HttpHandler defaultHandler) {
@@ -71,14 +139,107 @@ public class NameVirtualHostHandler implements HttpHandler {
         return this;
     }
 
+    /**
+     * Adds a host. The host name may start with <code>*.</code> to match all sub domains of a domain.
+     *
+     * @param host    The host name
+     * @param handler The handler
+     */
     public synchronized NameVirtualHostHandler addHost(final String host, final HttpHandler handler) {
         HttpHandlers.handlerNotNull(handler);
         hosts.put(host, handler);
+        buildTables();
         return this;
     }
 
     public synchronized NameVirtualHostHandler removeHost(final String host) {
         hosts.remove(host);
+        buildTables();
         return this;
     }
+
+    private void buildTables() {
+        final List<String> exactNames = new ArrayList<String>();
+        final List<HttpHandler> exactHandlers = new ArrayList<HttpHandler>();
+        final List<String> wildcardNames = new ArrayList<String>();
+        final List<HttpHandler> wildcardHandlers = new ArrayList<HttpHandler>();
+        for (Map.Entry<String, HttpHandler> entry : hosts.entrySet()) {
+            final String host = entry.getKey().toLowerCase(Locale.ENGLISH);
+            if (host.startsWith(WILDCARD)) {
+                //stored with the leading . so it lines up with the suffix of the request host
+                wildcardNames.add(host.substring(1));
+                wildcardHandlers.add(entry.getValue());
+            } else {
+                exactNames.add(host);
+                exactHandlers.add(entry.getValue());
+            }
+        }
+        tables = new HostTable[]{new HostTable(exactNames, exactHandlers), new HostTable(wildcardNames, wildcardHandlers)};
+    }
+
+    /**
+     * An open addressing hash table of lower case host names, that can be queried with a region of a string.
+     */
+    private static final class HostTable {
+
+        static final HostTable EMPTY = new HostTable(Collections.<String>emptyList(), Collections.<HttpHandler>emptyList());
+
+        private final String[] names;
+        private final int[] hashes;
+        private final HttpHandler[] handlers;
+        private final int mask;
+        private final int size;
+
+        HostTable(final List<String> names, final List<HttpHandler> handlers) {
+            int capacity = 2;
+            while (capacity < names.size() * 2) {
+                capacity <<= 1;
+            }
+            this.names = new String[capacity];
+            this.hashes = new int[capacity];
+            this.handlers = new HttpHandler[capacity];
+            this.mask = capacity - 1;
+            this.size = names.size();
+            for (int i = 0; i < names.size(); ++i) {
+                final String name = names.get(i);
+                final int hash = hash(name);
+                int index = spread(hash) & mask;
+                while (this.names[index] != null && !this.names[index].equals(name)) {
+                    index = (index + 1) & mask;
+                }
+                this.names[index] = name;
+                this.hashes[index] = hash;
+                this.handlers[index] = handlers.get(i);
+            }
+        }
+
+        HttpHandler get(final int hash, final String host, final int start, final int end) {
+            int index = spread(hash) & mask;
+            String name;
+            while ((name = names[index]) != null) {
+                if (hashes[index] == hash && matches(name, host, start, end)) {
+                    return handlers[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean matches(final String name, final String host, final int start, final int end) {
+            final int length = name.length();
+            if (length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (name.charAt(i) != toLowerCase(host.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(final int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
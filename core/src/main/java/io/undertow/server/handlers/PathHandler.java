@@ -20,6 +20,7 @@ package io.undertow.server.handlers;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentMap;
 
 import io.undertow.UndertowMessages;
@@ -31,10 +32,11 @@ import io.undertow.util.CopyOnWriteMap;
 /**
  * Handler that dispatches to a given handler based of a prefix match of the path.
  * <p/>
- * This only matches a single level of a request, e.g if you have a request that takes the form:
- * <p/>
- * /foo/bar
+ * The longest registered prefix that matches whole path segments wins, so a handler registered
+ * under /foo will match /foo and /foo/bar, but not /foobar.
  * <p/>
+ * The registered paths are compiled into a tree keyed on path segments, which is rebuilt whenever a path is added
+ * or removed. Matching walks the request path once from the start, comparing segments in place.
  *
  * @author Stuart Douglas
  */
@@ -42,39 +44,40 @@ public class PathHandler implements HttpHandler {
 
     private volatile HttpHandler defaultHandler = ResponseCodeHandler.HANDLE_404;
     private final ConcurrentMap<String, HttpHandler> paths = new CopyOnWriteMap<String, HttpHandler>();
-    /**
-     * internal tracker of the largest path we have.
-     */
-    private volatile int maxPathLength = 0;
+
+    private volatile Node root = new Node(null, null);
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         final String path = exchange.getRelativePath();
-        int length = path.length();
-        int pos = length > maxPathLength ? maxPathLength : length;
-        String part = path.substring(0, pos);
-        HttpHandler next = paths.get(part);
-        if (next != null) {
-            exchange.setRelativePath(path.substring(pos));
-            exchange.setResolvedPath(exchange.getResolvedPath() + part);
-            HttpHandlers.executeHandler(next, exchange);
-            return;
-        }
-
-        while (pos > 1) {
-            --pos;
-            if (path.charAt(pos) == '/') {
-                part = path.substring(0, pos);
-                next = paths.get(part);
-                if (next != null) {
-                    exchange.setRelativePath(path.substring(pos));
-                    exchange.setResolvedPath(exchange.getResolvedPath() + part);
-                    HttpHandlers.executeHandler(next, exchange);
-                    return;
-                }
+        final int length = path.length();
+        Node node = root;
+        Node match = node.handler == null ? null : node;
+        int matchEnd = 0;
+        int pos = 0;
+        while (pos < length && node.segments.length > 0 && path.charAt(pos) == '/') {
+            final int start = pos + 1;
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+            node = node.find(path, start, end);
+            if (node == null) {
+                break;
             }
+            if (node.handler != null) {
+                match = node;
+                matchEnd = end;
+            }
+            pos = end;
         }
-        HttpHandlers.executeHandler(defaultHandler, exchange);
+        if (match == null) {
+            HttpHandlers.executeHandler(defaultHandler, exchange);
+            return;
+        }
+        exchange.setRelativePath(matchEnd == 0 ? path : path.substring(matchEnd));
+        exchange.setResolvedPath(exchange.getResolvedPath() + match.prefix);
+        HttpHandlers.executeHandler(match.handler, exchange);
     }
 
     public HttpHandler getDefaultHandler() {
@@ -95,9 +98,6 @@ public class PathHandler implements HttpHandler {
      * @param handler The handler
      */
     public synchronized PathHandler addPath(final String path, final HttpHandler handler) {
-        if(path.length() > maxPathLength) {
-            maxPathLength = path.length();
-        }
         HttpHandlers.handlerNotNull(handler);
         if (path == null || path.isEmpty()) {
             throw UndertowMessages.MESSAGES.pathMustBeSpecified();
@@ -107,6 +107,7 @@ public class PathHandler implements HttpHandler {
         } else {
             paths.put(path, handler);
         }
+        buildTree();
         return this;
     }
 
@@ -119,22 +120,136 @@ public class PathHandler implements HttpHandler {
         } else {
             paths.remove(path);
         }
-        int max = 0;
-        for (Map.Entry<String, HttpHandler> entry : paths.entrySet()) {
-            if(entry.getKey().length() > max) {
-                max = entry.getKey().length();
-            }
-        }
-        this.maxPathLength = max;
+        buildTree();
         return this;
     }
 
     public synchronized PathHandler clearPaths() {
         paths.clear();
+        buildTree();
         return this;
     }
 
     public Map<String, HttpHandler> getPaths() {
         return Collections.unmodifiableMap(paths);
     }
+
+    /**
+     * Compiles the registered paths into a new tree, and then publishes it.
+     */
+    private void buildTree() {
+        final Builder rootBuilder = new Builder();
+        for (Map.Entry<String, HttpHandler> entry : paths.entrySet()) {
+            final String path = entry.getKey();
+            //a trailing slash does not start a new segment
+            final int length = path.length() > 1 && path.charAt(path.length() - 1) == '/' ? path.length() - 1 : path.length();
+            Builder builder = rootBuilder;
+            int pos = 0;
+            while (pos < length) {
+                final int start = pos + 1;
+                int end = path.indexOf('/', start);
+                if (end == -1 || end > length) {
+                    end = length;
+                }
+                if (start <= end && start < length) {
+                    builder = builder.child(path.substring(start, end));
+                }
+                pos = end;
+            }
+            //a handler registered under / matches everything without consuming any of the path
+            builder.prefix = length == 1 ? "" : path.substring(0, length);
+            builder.handler = entry.getValue();
+        }
+        root = rootBuilder.build();
+    }
+
+    /**
+     * A node of the compiled tree. The children are sorted by segment, so they can be binary searched.
+     */
+    private static final class Node {
+        private static final String[] NO_SEGMENTS = new String[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private final String prefix;
+        private final HttpHandler handler;
+        private final String[] segments;
+        private final Node[] children;
+
+        private Node(final String prefix, final HttpHandler handler) {
+            this(prefix, handler, NO_SEGMENTS, NO_CHILDREN);
+        }
+
+        private Node(final String prefix, final HttpHandler handler, final String[] segments, final Node[] children) {
+            this.prefix = prefix;
+            this.handler = handler;
+            this.segments = segments;
+            this.children = children;
+        }
+
+        /**
+         * @return The child for the segment of the path between start and end, or null if there is none
+         */
+        Node find(final String path, final int start, final int end) {
+            int low = 0;
+            int high = segments.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int result = compare(segments[mid], path, start, end);
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares a segment to a region of the path, in the same order as {@link String#compareTo(String)}
+         */
+        private static int compare(final String segment, final String path, final int start, final int end) {
+            final int segmentLength = segment.length();
+            final int regionLength = end - start;
+            final int length = Math.min(segmentLength, regionLength);
+            for (int i = 0; i < length; ++i) {
+                final int diff = segment.charAt(i) - path.charAt(start + i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return segmentLength - regionLength;
+        }
+    }
+
+    /**
+     * Mutable form of a node, used while the tree is compiled
+     */
+    private static final class Builder {
+        private final Map<String, Builder> children = new TreeMap<String, Builder>();
+        private String prefix;
+        private HttpHandler handler;
+
+        Builder child(final String segment) {
+            Builder child = children.get(segment);
+            if (child == null) {
+                child = new Builder();
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        Node build() {
+            if (children.isEmpty()) {
+                return new Node(prefix, handler);
+            }
+            final String[] segments = children.keySet().toArray(new String[children.size()]);
+            final Node[] nodes = new Node[segments.length];
+            for (int i = 0; i < segments.length; ++i) {
+                nodes[i] = children.get(segments[i]).build();
+            }
+            return new Node(prefix, handler, segments, nodes);
+        }
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import io.undertow.util.AttachmentKey;
+
+/**
+ * The result of matching a request against a path template registered with a {@link RoutingHandler}.
+ * <p/>
+ * Parameter values are stored as offsets into the matched path, and are only turned into strings
+ * when they are requested.
+ */
+public final class PathTemplateMatch {
+
+    public static final AttachmentKey<PathTemplateMatch> ATTACHMENT_KEY = AttachmentKey.create(PathTemplateMatch.class);
+
+    private final String template;
+    private final String path;
+    private final String[] names;
+    private final int[] offsets;
+
+    PathTemplateMatch(final String template, final String path, final String[] names, final int[] offsets) {
+        this.template = template;
+        this.path = path;
+        this.names = names;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return The template that matched, e.g. /users/{id}
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return The number of parameters in the template
+     */
+    public int getParameterCount() {
+        return names.length;
+    }
+
+    /**
+     * @param index The parameter index
+     * @return The name of the parameter at the given index
+     */
+    public String getParameterName(final int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index The parameter index
+     * @return The value of the parameter at the given index
+     */
+    public String getParameter(final int index) {
+        if (index < 0 || index >= names.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return path.substring(offsets[index << 1], offsets[(index << 1) + 1]);
+    }
+
+    /**
+     * @param name The parameter name
+     * @return The value of the parameter, or null if the template does not have a parameter with the given name
+     */
+    public String getParameter(final String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) {
+                return getParameter(i);
+            }
+        }
+        return null;
+    }
+}
@@ -1,6 +1,7 @@
 package io.undertow.server.handlers;
 
 import io.undertow.predicate.Predicate;
+import io.undertow.predicate.Predicates;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpHandlers;
 import io.undertow.server.HttpServerExchange;
@@ -15,7 +16,7 @@ public class PredicateHandler implements HttpHandler {
     private volatile HttpHandler falseHandler;
 
     public PredicateHandler(final Predicate<HttpServerExchange> predicate, final HttpHandler trueHandler, final HttpHandler falseHandler) {
-        this.predicate = predicate;
+        this.predicate = Predicates.compile(predicate);
         this.trueHandler = trueHandler;
         this.falseHandler = falseHandler;
     }
@@ -31,7 +32,7 @@ public class PredicateHandler implements HttpHandler {
     }
 
     public PredicateHandler setPredicate(final Predicate<HttpServerExchange> predicate) {
-        this.predicate = predicate;
+        this.predicate = Predicates.compile(predicate);
         return this;
     }
 
@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+
+/**
+ * A handler that limits the rate of requests from each client. Requests over the limit are rejected with a 429
+ * straight away, so this handler should be placed before any handler that dispatches or reads the request body.
+ * <p/>
+ * Clients are identified by their source address, or by the value of a header such as an API key if one has been
+ * set. Each client has a token bucket that allows the given number of requests per second on average, with
+ * bursts of up to the given size. A bucket is a single timestamp (the time at which the bucket will be full again),
+ * that is updated with a compare and set, so checking a request never blocks.
+ * <p/>
+ * The buckets are held in a fixed size table, so memory use is bounded no matter how many clients there are.
+ * A bucket that has refilled holds no state, so its slot is simply reused by another client. If a client hashes to
+ * a set of slots that are all in use, the slot of the client that is closest to being refilled is taken over, which
+ * means that under heavy key pressure a client may be allowed slightly more than its limit.
+ */
+public class RateLimitingHandler implements HttpHandler {
+
+    /**
+     * The number of slots that are searched for a client
+     */
+    private static final int PROBE_LENGTH = 4;
+
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private volatile HttpHandler next;
+    private volatile HttpString keyHeader;
+
+    /**
+     * The time between requests at the average rate, in nanoseconds
+     */
+    private final long interval;
+
+    /**
+     * How far ahead of the current time a bucket can be, this is the time it takes to refill a full burst
+     */
+    private final long burstTime;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final int mask;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param requestsPerSecond the average number of requests per second each client is allowed
+     * @param burst             the number of requests a client can make at once
+     * @param maximumClients    the number of clients that can be tracked at once
+     * @param next              the next handler
+     */
+    public RateLimitingHandler(final int requestsPerSecond, final int burst, final int maximumClients, final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        if (requestsPerSecond < 1) {
+            throw new IllegalArgumentException("Requests per second must be at least 1");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        if (maximumClients < 1) {
+            throw new IllegalArgumentException("Maximum clients must be at least 1");
+        }
+        this.next = next;
+        this.interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        this.burstTime = interval * burst;
+        int capacity = PROBE_LENGTH;
+        while (capacity < maximumClients && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        this.buckets = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final long wait = acquire(key(exchange), System.nanoTime());
+        if (wait > 0) {
+            exchange.setResponseCode(StatusCodes.TOO_MANY_REQUESTS);
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            return;
+        }
+        HttpHandlers.executeHandler(next, exchange);
+    }
+
+    private Object key(final HttpServerExchange exchange) {
+        final HttpString keyHeader = this.keyHeader;
+        if (keyHeader != null) {
+            final String value = exchange.getRequestHeaders().getFirst(keyHeader);
+            if (value != null) {
+                return value;
+            }
+        }
+        final InetSocketAddress address = exchange.getSourceAddress();
+        return address.getAddress() == null ? address.getHostString() : address.getAddress();
+    }
+
+    /**
+     * Takes a token from the bucket of the given client.
+     *
+     * @return 0 if the request is allowed, otherwise the time in nanoseconds until it would be allowed
+     */
+    long acquire(final Object key, final long now) {
+        final int hash = spread(key.hashCode());
+        for (;;) {
+            int victim = -1;
+            Bucket victimBucket = null;
+            for (int i = 0; i < PROBE_LENGTH; ++i) {
+                final int index = (hash + i) & mask;
+                final Bucket bucket = buckets.get(index);
+                if (bucket == null) {
+                    if (victim == -1 || victimBucket != null) {
+                        victim = index;
+                        victimBucket = null;
+                    }
+                } else if (bucket.key.equals(key)) {
+                    return bucket.acquire(now);
+                } else if (victim == -1 || victimBucket != null && bucket.full - victimBucket.full < 0) {
+                    victim = index;
+                    victimBucket = bucket;
+                }
+            }
+            if (buckets.compareAndSet(victim, victimBucket, new Bucket(key, now + interval))) {
+                return 0;
+            }
+        }
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public RateLimitingHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+
+    public HttpString getKeyHeader() {
+        return keyHeader;
+    }
+
+    /**
+     * Identify clients by the value of the given header instead of their address. Requests without the header
+     * are still limited by address.
+     *
+     * @param keyHeader the header, or {@code null} to use the source address
+     */
+    public RateLimitingHandler setKeyHeader(final HttpString keyHeader) {
+        this.keyHeader = keyHeader;
+        return this;
+    }
+
+    private final class Bucket {
+        private final Object key;
+
+        /**
+         * The time at which this bucket will be full again, each request moves it forward by one interval
+         */
+        volatile long full;
+
+        private Bucket(final Object key, final long full) {
+            this.key = key;
+            this.full = full;
+        }
+
+        long acquire(final long now) {
+            long oldFull, newFull;
+            do {
+                oldFull = full;
+                newFull = (oldFull - now > 0 ? oldFull : now) + interval;
+                if (newFull - now > burstTime) {
+                    return newFull - now - burstTime;
+                }
+            } while (!fullUpdater.compareAndSet(this, oldFull, newFull));
+            return 0;
+        }
+    }
+
+    private static final AtomicLongFieldUpdater<Bucket> fullUpdater = AtomicLongFieldUpdater.newUpdater(Bucket.class, "full");
+}
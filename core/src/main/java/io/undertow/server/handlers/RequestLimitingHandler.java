@@ -20,53 +20,66 @@ package io.undertow.server.handlers;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import io.undertow.predicate.Predicate;
 import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpHandlers;
 import io.undertow.server.HttpServerExchange;
+import org.xnio.XnioExecutor;
 
 import static org.xnio.Bits.longBitMask;
 
 /**
  * A handler which limits the maximum number of concurrent requests.  Requests beyond the limit will
- * block until the previous request is complete.
+ * wait in a queue until a previous request is complete.
+ * <p/>
+ * The queue can be bounded, and queued requests can be given a maximum time to wait. Requests that do not fit in
+ * the queue or that wait too long are rejected with a 503. Requests that match the priority predicate are queued
+ * separately, and are always started before other queued requests.
+ * <p/>
+ * The limit can also be adaptive. In this mode the limit is cut by 10% whenever a request takes longer than the
+ * target latency (at most once per target latency interval), and increased by one after a limit's worth of requests
+ * complete within the target latency while the handler is saturated. This keeps the latency of admitted requests
+ * close to the target when a downstream resource slows down, while the queue absorbs short bursts.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class RequestLimitingHandler implements HttpHandler {
     @SuppressWarnings("unused")
     private volatile long state;
+    @SuppressWarnings("unused")
+    private volatile long lastDecrease;
     private volatile HttpHandler nextHandler = ResponseCodeHandler.HANDLE_404;
+    private volatile long maximumQueueTime;
+    private volatile Predicate<HttpServerExchange> priorityPredicate;
+    private volatile AdaptiveLimit adaptiveLimit;
 
     private static final AtomicLongFieldUpdater<RequestLimitingHandler> stateUpdater = AtomicLongFieldUpdater.newUpdater(RequestLimitingHandler.class, "state");
-    private static final AtomicReferenceFieldUpdater<RequestLimitingHandler, HttpHandler> nextHandlerUpdater = AtomicReferenceFieldUpdater.newUpdater(RequestLimitingHandler.class, HttpHandler.class, "nextHandler");
+    private static final AtomicLongFieldUpdater<RequestLimitingHandler> lastDecreaseUpdater = AtomicLongFieldUpdater.newUpdater(RequestLimitingHandler.class, "lastDecrease");
 
     private static final long MASK_MAX = longBitMask(32, 63);
     private static final long MASK_CURRENT = longBitMask(0, 30);
 
-    private final Queue<HttpServerExchange> queue;
+    private final int maximumQueueSize;
+    private final Queue<QueuedExchange> queue;
+    private final Queue<QueuedExchange> priorityQueue;
 
-    private static final Class<Queue> linkedTransferQueue;
+    /**
+     * The number of queued requests. This is incremented before a request is added to a queue, so the bound
+     * can be enforced.
+     */
+    private final AtomicInteger queued = new AtomicInteger();
 
-    private final ExchangeCompletionListener COMPLETION_LISTENER = new ExchangeCompletionListener() {
+    /**
+     * The number of requests that have completed within the target latency since the limit was last changed
+     */
+    private final AtomicInteger successes = new AtomicInteger();
 
-        @Override
-        public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
-            try {
-                final HttpServerExchange task = queue.poll();
-                if (task != null) {
-                    task.dispatch(nextHandler);
-                } else {
-                    decrementRequests();
-                }
-            } finally {
-                nextListener.proceed();
-            }
-        }
-    };
+    private static final Class<Queue> linkedTransferQueue;
 
     static {
         Class<Queue> q;
@@ -86,6 +99,18 @@ public final class RequestLimitingHandler implements HttpHandler {
      * @param nextHandler               the next handler
      */
     public RequestLimitingHandler(int maximumConcurrentRequests, HttpHandler nextHandler) {
+        this(maximumConcurrentRequests, -1, nextHandler);
+    }
+
+    /**
+     * Construct a new instance. The maximum number of concurrent requests must be at least one.  The next handler
+     * must not be {@code null}.
+     *
+     * @param maximumConcurrentRequests the maximum concurrent requests
+     * @param maximumQueueSize          the maximum number of requests that can wait for a slot, or -1 for no limit
+     * @param nextHandler               the next handler
+     */
+    public RequestLimitingHandler(int maximumConcurrentRequests, int maximumQueueSize, HttpHandler nextHandler) {
         if (nextHandler == null) {
             throw new IllegalArgumentException("nextHandler is null");
         }
@@ -94,37 +119,112 @@ public final class RequestLimitingHandler implements HttpHandler {
         }
         state = (maximumConcurrentRequests & 0xFFFFFFFFL) << 32;
         this.nextHandler = nextHandler;
-        Queue<HttpServerExchange> queue;
-        if (linkedTransferQueue == null) {
-            queue = new ConcurrentLinkedQueue<HttpServerExchange>();
-        } else {
+        this.maximumQueueSize = maximumQueueSize;
+        this.queue = createQueue();
+        this.priorityQueue = createQueue();
+    }
+
+    private static Queue<QueuedExchange> createQueue() {
+        if (linkedTransferQueue != null) {
             try {
-                queue = linkedTransferQueue.newInstance();
+                return linkedTransferQueue.newInstance();
             } catch (Throwable t) {
-                queue = new ConcurrentLinkedQueue<HttpServerExchange>();
+                //fall through
             }
         }
-        this.queue = queue;
+        return new ConcurrentLinkedQueue<QueuedExchange>();
     }
 
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        exchange.addExchangeCompleteListener(COMPLETION_LISTENER);
-        long oldVal, newVal;
+        if (tryAcquire()) {
+            exchange.addExchangeCompleteListener(new CompletionListener());
+            HttpHandlers.executeHandler(nextHandler, exchange);
+            return;
+        }
+        final int size = queued.incrementAndGet();
+        if (maximumQueueSize >= 0 && size > maximumQueueSize) {
+            queued.decrementAndGet();
+            exchange.setResponseCode(503);
+            return;
+        }
+        final QueuedExchange entry = new QueuedExchange(exchange);
+        exchange.dispatch();
+        final Predicate<HttpServerExchange> priorityPredicate = this.priorityPredicate;
+        if (priorityPredicate != null && priorityPredicate.resolve(exchange)) {
+            priorityQueue.add(entry);
+        } else {
+            queue.add(entry);
+        }
+        final long maximumQueueTime = this.maximumQueueTime;
+        if (maximumQueueTime > 0) {
+            entry.timeoutKey = exchange.getIoThread().executeAfter(entry, maximumQueueTime, TimeUnit.MILLISECONDS);
+        }
+        //a request may have completed after we failed to acquire a slot
+        drainQueue();
+    }
+
+    private boolean tryAcquire() {
+        long oldVal;
         do {
             oldVal = state;
             final long current = oldVal & MASK_CURRENT;
-            final long max = (oldVal & MASK_MAX) >> 32L;
+            final long max = (oldVal & MASK_MAX) >>> 32L;
             if (current >= max) {
-                queue.add(exchange);
+                return false;
+            }
+        } while (!stateUpdater.compareAndSet(this, oldVal, oldVal + 1));
+        return true;
+    }
+
+    private void release() {
+        stateUpdater.decrementAndGet(this);
+    }
+
+    /**
+     * Starts queued requests while there are free slots
+     */
+    private void drainQueue() {
+        while (queued.get() > 0) {
+            if (!tryAcquire()) {
                 return;
             }
-            newVal = oldVal + 1;
-        } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
-        HttpHandlers.executeHandler(nextHandler, exchange);
+            QueuedExchange entry = priorityQueue.poll();
+            if (entry == null) {
+                entry = queue.poll();
+            }
+            if (entry == null) {
+                //the request that was counted has not been added yet, the thread adding it will drain the queue
+                release();
+                return;
+            }
+            queued.decrementAndGet();
+            entry.cancelTimeout();
+            entry.exchange.addExchangeCompleteListener(new CompletionListener());
+            entry.exchange.dispatch(nextHandler);
+        }
+    }
+
+    private void adjustLimit(final long latency, final boolean saturated) {
+        final AdaptiveLimit adaptiveLimit = this.adaptiveLimit;
+        if (adaptiveLimit == null) {
+            return;
+        }
+        final int limit = getMaximumConcurrentRequests();
+        if (latency > adaptiveLimit.targetLatency) {
+            final long now = System.nanoTime();
+            final long last = lastDecrease;
+            if (now - last >= adaptiveLimit.targetLatency && lastDecreaseUpdater.compareAndSet(this, last, now)) {
+                successes.set(0);
+                setLimit(Math.max(adaptiveLimit.minimum, Math.min(limit - 1, (int) (limit * 0.9))));
+            }
+        } else if (saturated && limit < adaptiveLimit.maximum && successes.incrementAndGet() >= limit) {
+            successes.set(0);
+            setLimit(limit + 1);
+        }
     }
 
     /**
-     * Get the maximum concurrent requests.
+     * Get the maximum concurrent requests. If the limit is adaptive this is the current limit.
      *
      * @return the maximum concurrent requests
      */
@@ -141,29 +241,99 @@ public final class RequestLimitingHandler implements HttpHandler {
         if (newMax < 1) {
             throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
         }
+        return setLimit(newMax);
+    }
+
+    private int setLimit(final int newMax) {
         long oldVal, newVal;
-        int current, oldMax;
         do {
             oldVal = state;
-            current = (int) (oldVal & MASK_CURRENT);
-            oldMax = (int) ((oldVal & MASK_MAX) >> 32L);
-            newVal = current | newMax & 0xFFFFFFFFL << 32L;
+            newVal = (oldVal & MASK_CURRENT) | (newMax & 0xFFFFFFFFL) << 32L;
         } while (!stateUpdater.compareAndSet(this, oldVal, newVal));
-        while (current < newMax) {
-            // more space opened up!  Process queue entries for a while
-            final HttpServerExchange request = queue.poll();
-            if (request != null) {
-                // now bump up the counter by one; this *could* put us over the max if it changed in the meantime but that's OK
-                newVal = stateUpdater.getAndIncrement(this);
-                current = (int) (newVal & MASK_CURRENT);
-                request.dispatch(nextHandler);
-            }
+        // more space may have opened up
+        drainQueue();
+        return (int) ((oldVal & MASK_MAX) >> 32L);
+    }
+
+    /**
+     * @return the number of requests that are currently being processed
+     */
+    public int getActiveRequests() {
+        return (int) (state & MASK_CURRENT);
+    }
+
+    /**
+     * @return the number of requests that are waiting for a slot
+     */
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    /**
+     * @return the maximum number of requests that can wait for a slot, or -1 if there is no limit
+     */
+    public int getMaximumQueueSize() {
+        return maximumQueueSize;
+    }
+
+    /**
+     * Sets how long a request can wait for a slot before it is rejected with a 503. A value of
+     * zero means requests wait indefinitely.
+     *
+     * @param time the maximum time
+     * @param unit the time unit
+     */
+    public RequestLimitingHandler setMaximumQueueTime(final long time, final TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Maximum queue time must not be negative");
         }
-        return oldMax;
+        this.maximumQueueTime = unit.toMillis(time);
+        return this;
     }
 
-    private void decrementRequests() {
-        stateUpdater.decrementAndGet(this);
+    /**
+     * Sets the predicate that selects high priority requests. When a slot becomes free queued high priority
+     * requests are started before any other queued requests.
+     *
+     * @param priorityPredicate the predicate, or {@code null} if all requests have the same priority
+     */
+    public RequestLimitingHandler setPriorityPredicate(final Predicate<HttpServerExchange> priorityPredicate) {
+        this.priorityPredicate = priorityPredicate;
+        return this;
+    }
+
+    /**
+     * Makes the limit adaptive. The current limit is kept between the given bounds, and is lowered when requests
+     * take longer than the target latency.
+     *
+     * @param minimum       the lowest the limit can go, at least one
+     * @param maximum       the highest the limit can go
+     * @param targetLatency the request latency to aim for
+     * @param unit          the time unit of the target latency
+     */
+    public RequestLimitingHandler setAdaptiveLimit(final int minimum, final int maximum, final long targetLatency, final TimeUnit unit) {
+        if (minimum < 1) {
+            throw new IllegalArgumentException("Maximum concurrent requests must be at least 1");
+        }
+        if (maximum < minimum) {
+            throw new IllegalArgumentException("Maximum must be greater than or equal to the minimum");
+        }
+        if (targetLatency <= 0) {
+            throw new IllegalArgumentException("Target latency must be greater than zero");
+        }
+        final AdaptiveLimit adaptiveLimit = new AdaptiveLimit(minimum, maximum, unit.toNanos(targetLatency));
+        lastDecrease = System.nanoTime() - adaptiveLimit.targetLatency;
+        this.adaptiveLimit = adaptiveLimit;
+        setLimit(Math.max(minimum, Math.min(maximum, getMaximumConcurrentRequests())));
+        return this;
+    }
+
+    /**
+     * Removes the adaptive limit, the current limit becomes fixed.
+     */
+    public RequestLimitingHandler clearAdaptiveLimit() {
+        this.adaptiveLimit = null;
+        return this;
     }
 
     /**
@@ -183,8 +353,65 @@ public final class RequestLimitingHandler implements HttpHandler {
      */
     public RequestLimitingHandler setNextHandler(final HttpHandler nextHandler) {
         HttpHandlers.handlerNotNull(nextHandler);
+        this.nextHandler = nextHandler;
         return this;
     }
 
+    private final class CompletionListener implements ExchangeCompletionListener {
+
+        private final long start = System.nanoTime();
+
+        @Override
+        public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+            try {
+                final boolean saturated = getActiveRequests() >= getMaximumConcurrentRequests() || queued.get() > 0;
+                release();
+                adjustLimit(System.nanoTime() - start, saturated);
+                drainQueue();
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
+    /**
+     * A request that is waiting for a slot. When it is run it rejects the request, if it is still in the queue.
+     */
+    private final class QueuedExchange implements Runnable {
+
+        private final HttpServerExchange exchange;
+        private volatile XnioExecutor.Key timeoutKey;
+
+        private QueuedExchange(final HttpServerExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        void cancelTimeout() {
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (queue.remove(this) || priorityQueue.remove(this)) {
+                queued.decrementAndGet();
+                exchange.setResponseCode(503);
+                exchange.endExchange();
+            }
+        }
+    }
+
+    private static final class AdaptiveLimit {
+        private final int minimum;
+        private final int maximum;
+        private final long targetLatency;
 
+        private AdaptiveLimit(final int minimum, final int maximum, final long targetLatency) {
+            this.minimum = minimum;
+            this.maximum = maximum;
+            this.targetLatency = targetLatency;
+        }
+    }
 }
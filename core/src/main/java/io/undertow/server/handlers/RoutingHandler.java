@@ -0,0 +1,398 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+
+/**
+ * Handler that dispatches to a given handler based on the request method and a path template, such as
+ * <code>/users/{id}/orders/{orderId}</code>.
+ * <p/>
+ * The templates are compiled into a tree keyed on path segments, which is rebuilt whenever a route is added.
+ * Literal segments are tried before parameter segments, so <code>/users/me</code> takes precedence over
+ * <code>/users/{id}</code>. Empty path segments are ignored.
+ * <p/>
+ * A template only matches if it has a handler for the request method, so <code>POST /users/me</code> is routed to
+ * <code>POST /users/{id}</code> if there is only a <code>GET</code> handler for <code>/users/me</code>. The parameters
+ * of the matched template are made available through the {@link PathTemplateMatch#ATTACHMENT_KEY} attachment. If
+ * the path matches one or more templates but none of them has a handler for the request method the
+ * <code>Allow</code> header is set to the methods of all of them and the invalid method handler is invoked.
+ */
+public class RoutingHandler implements HttpHandler {
+
+    private static final int[] NO_OFFSETS = new int[0];
+
+    private final Map<String, Map<HttpString, HttpHandler>> routes = new LinkedHashMap<String, Map<HttpString, HttpHandler>>();
+
+    private volatile Node root = new Builder().build();
+    private volatile HttpHandler fallbackHandler = ResponseCodeHandler.HANDLE_404;
+    private volatile HttpHandler invalidMethodHandler = ResponseCodeHandler.HANDLE_405;
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final String path = exchange.getRelativePath();
+        final Node root = this.root;
+        final int[] offsets = root.maxParameters == 0 ? NO_OFFSETS : new int[root.maxParameters << 1];
+        final int start = skipSlashes(path, 0);
+        final Route route = match(root, path, start, exchange.getRequestMethod(), offsets, 0);
+        if (route == null) {
+            final Set<HttpString> allowed = new LinkedHashSet<HttpString>();
+            allowedMethods(root, path, start, allowed);
+            if (allowed.isEmpty()) {
+                HttpHandlers.executeHandler(fallbackHandler, exchange);
+                return;
+            }
+            final StringBuilder allow = new StringBuilder();
+            for (HttpString method : allowed) {
+                if (allow.length() > 0) {
+                    allow.append(", ");
+                }
+                allow.append(method.toString());
+            }
+            exchange.getResponseHeaders().put(Headers.ALLOW, allow.toString());
+            HttpHandlers.executeHandler(invalidMethodHandler, exchange);
+            return;
+        }
+        exchange.putAttachment(PathTemplateMatch.ATTACHMENT_KEY, new PathTemplateMatch(route.template, path, route.names, offsets));
+        HttpHandlers.executeHandler(route.handler, exchange);
+    }
+
+    /**
+     * Matches the remainder of the path starting at pos against the given node, trying literal segments first
+     * and backtracking to the parameter segment if they do not lead to a route for the method.
+     */
+    private static Route match(final Node node, final String path, final int pos, final HttpString method, final int[] offsets, final int depth) {
+        final int length = path.length();
+        if (pos == length) {
+            return node.find(method);
+        }
+        int end = path.indexOf('/', pos);
+        if (end == -1) {
+            end = length;
+        }
+        final int next = skipSlashes(path, end);
+        final Node child = node.find(path, pos, end);
+        if (child != null) {
+            final Route result = match(child, path, next, method, offsets, depth);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (node.parameter != null) {
+            offsets[depth << 1] = pos;
+            offsets[(depth << 1) + 1] = end;
+            return match(node.parameter, path, next, method, offsets, depth + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the methods of every template that matches the remainder of the path to the given set. This is only
+     * used once matching has failed, to work out if the response should be a 404 or a 405.
+     */
+    private static void allowedMethods(final Node node, final String path, final int pos, final Set<HttpString> allowed) {
+        final int length = path.length();
+        if (pos == length) {
+            Collections.addAll(allowed, node.methods);
+            return;
+        }
+        int end = path.indexOf('/', pos);
+        if (end == -1) {
+            end = length;
+        }
+        final int next = skipSlashes(path, end);
+        final Node child = node.find(path, pos, end);
+        if (child != null) {
+            allowedMethods(child, path, next, allowed);
+        }
+        if (node.parameter != null) {
+            allowedMethods(node.parameter, path, next, allowed);
+        }
+    }
+
+    private static int skipSlashes(final String path, int pos) {
+        final int length = path.length();
+        while (pos < length && path.charAt(pos) == '/') {
+            ++pos;
+        }
+        return pos;
+    }
+
+    /**
+     * Adds a route for the given method and path template. If a route already exists for the method
+     * and template it is replaced.
+     *
+     * @param method   The request method
+     * @param template The path template
+     * @param handler  The handler
+     */
+    public synchronized RoutingHandler add(final HttpString method, final String template, final HttpHandler handler) {
+        HttpHandlers.handlerNotNull(handler);
+        if (method == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("method");
+        }
+        if (template == null || template.isEmpty()) {
+            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+        }
+        //validate the template before it is registered
+        parse(template);
+        Map<HttpString, HttpHandler> methods = routes.get(template);
+        if (methods == null) {
+            methods = new LinkedHashMap<HttpString, HttpHandler>();
+            routes.put(template, methods);
+        }
+        methods.put(method, handler);
+        buildTree();
+        return this;
+    }
+
+    public RoutingHandler add(final String method, final String template, final HttpHandler handler) {
+        return add(new HttpString(method), template, handler);
+    }
+
+    public RoutingHandler get(final String template, final HttpHandler handler) {
+        return add(Methods.GET, template, handler);
+    }
+
+    public RoutingHandler post(final String template, final HttpHandler handler) {
+        return add(Methods.POST, template, handler);
+    }
+
+    public RoutingHandler put(final String template, final HttpHandler handler) {
+        return add(Methods.PUT, template, handler);
+    }
+
+    public RoutingHandler delete(final String template, final HttpHandler handler) {
+        return add(Methods.DELETE, template, handler);
+    }
+
+    public HttpHandler getFallbackHandler() {
+        return fallbackHandler;
+    }
+
+    /**
+     * @param fallbackHandler The handler that is invoked if no template matches the request path
+     */
+    public RoutingHandler setFallbackHandler(final HttpHandler fallbackHandler) {
+        HttpHandlers.handlerNotNull(fallbackHandler);
+        this.fallbackHandler = fallbackHandler;
+        return this;
+    }
+
+    public HttpHandler getInvalidMethodHandler() {
+        return invalidMethodHandler;
+    }
+
+    /**
+     * @param invalidMethodHandler The handler that is invoked if a template matches but not the request method
+     */
+    public RoutingHandler setInvalidMethodHandler(final HttpHandler invalidMethodHandler) {
+        HttpHandlers.handlerNotNull(invalidMethodHandler);
+        this.invalidMethodHandler = invalidMethodHandler;
+        return this;
+    }
+
+    /**
+     * Splits a template into its segments. Parameter segments are returned with their braces.
+     */
+    private static List<String> parse(final String template) {
+        final List<String> segments = new ArrayList<String>();
+        final Set<String> names = new HashSet<String>();
+        int pos = skipSlashes(template, 0);
+        while (pos < template.length()) {
+            int end = template.indexOf('/', pos);
+            if (end == -1) {
+                end = template.length();
+            }
+            final String segment = template.substring(pos, end);
+            if (isParameter(segment)) {
+                if (segment.length() == 2 || !names.add(segment)) {
+                    throw UndertowMessages.MESSAGES.invalidPathTemplate(template);
+                }
+            } else if (segment.indexOf('{') != -1 || segment.indexOf('}') != -1) {
+                throw UndertowMessages.MESSAGES.invalidPathTemplate(template);
+            }
+            segments.add(segment);
+            pos = skipSlashes(template, end);
+        }
+        return segments;
+    }
+
+    private static boolean isParameter(final String segment) {
+        return segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+    }
+
+    /**
+     * Compiles the registered routes into a new tree, and then publishes it.
+     */
+    private void buildTree() {
+        final Builder rootBuilder = new Builder();
+        for (Map.Entry<String, Map<HttpString, HttpHandler>> entry : routes.entrySet()) {
+            final String template = entry.getKey();
+            final List<String> names = new ArrayList<String>();
+            Builder builder = rootBuilder;
+            for (String segment : parse(template)) {
+                if (isParameter(segment)) {
+                    names.add(segment.substring(1, segment.length() - 1));
+                    if (builder.parameter == null) {
+                        builder.parameter = new Builder();
+                    }
+                    builder = builder.parameter;
+                } else {
+                    builder = builder.child(segment);
+                }
+            }
+            final String[] parameterNames = names.toArray(new String[names.size()]);
+            for (Map.Entry<HttpString, HttpHandler> method : entry.getValue().entrySet()) {
+                builder.routes.put(method.getKey(), new Route(template, parameterNames, method.getValue()));
+            }
+        }
+        root = rootBuilder.build();
+    }
+
+    private static final class Route {
+        private final String template;
+        private final String[] names;
+        private final HttpHandler handler;
+
+        private Route(final String template, final String[] names, final HttpHandler handler) {
+            this.template = template;
+            this.names = names;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * A node of the compiled tree. The literal children are sorted by segment, so they can be binary searched.
+     */
+    private static final class Node {
+        private final String[] segments;
+        private final Node[] children;
+        private final Node parameter;
+        private final HttpString[] methods;
+        private final Route[] routes;
+        /**
+         * The largest number of parameters in any template below this node
+         */
+        private final int maxParameters;
+
+        private Node(final String[] segments, final Node[] children, final Node parameter, final HttpString[] methods, final Route[] routes) {
+            this.segments = segments;
+            this.children = children;
+            this.parameter = parameter;
+            this.methods = methods;
+            this.routes = routes;
+            int max = 0;
+            for (Node child : children) {
+                max = Math.max(max, child.maxParameters);
+            }
+            if (parameter != null) {
+                max = Math.max(max, parameter.maxParameters + 1);
+            }
+            this.maxParameters = max;
+        }
+
+        Route find(final HttpString method) {
+            for (int i = 0; i < methods.length; ++i) {
+                if (methods[i].equals(method)) {
+                    return routes[i];
+                }
+            }
+            return null;
+        }
+
+        Node find(final String path, final int start, final int end) {
+            int low = 0;
+            int high = segments.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int result = compare(segments[mid], path, start, end);
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares a segment to a region of the path, in the same order as {@link String#compareTo(String)}
+         */
+        private static int compare(final String segment, final String path, final int start, final int end) {
+            final int segmentLength = segment.length();
+            final int regionLength = end - start;
+            final int length = Math.min(segmentLength, regionLength);
+            for (int i = 0; i < length; ++i) {
+                final int diff = segment.charAt(i) - path.charAt(start + i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return segmentLength - regionLength;
+        }
+    }
+
+    /**
+     * Mutable form of a node, used while the tree is compiled
+     */
+    private static final class Builder {
+        private final Map<String, Builder> children = new TreeMap<String, Builder>();
+        private final Map<HttpString, Route> routes = new LinkedHashMap<HttpString, Route>();
+        private Builder parameter;
+
+        Builder child(final String segment) {
+            Builder child = children.get(segment);
+            if (child == null) {
+                child = new Builder();
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        Node build() {
+            final String[] segments = children.keySet().toArray(new String[children.size()]);
+            final Node[] nodes = new Node[segments.length];
+            for (int i = 0; i < segments.length; ++i) {
+                nodes[i] = children.get(segments[i]).build();
+            }
+            final HttpString[] methods = routes.keySet().toArray(new HttpString[routes.size()]);
+            final Route[] handlers = routes.values().toArray(new Route[routes.size()]);
+            return new Node(segments, nodes, parameter == null ? null : parameter.build(), methods, handlers);
+        }
+    }
+}
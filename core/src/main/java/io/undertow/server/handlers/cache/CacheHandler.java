@@ -1,5 +1,8 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
@@ -14,6 +17,20 @@ import static io.undertow.util.Headers.CONTENT_LENGTH;
  *
  * Handler that attaches a cache to the exchange, a handler can query this cache to see if the
  * cache has a cached copy of the content, and if so have the cache serve this content automatically.
+ * <p/>
+ * If this handler wraps an {@link io.undertow.server.handlers.encoding.EncodingHandler} then the
+ * encoded bytes are cached, so cached responses are served without being compressed again.
+ * <p/>
+ * Only responses with a known content length are cached. The compressed length of a response is only
+ * known up front if the whole compressed body fits in a single buffer, larger compressed responses are
+ * sent chunked and are not cached.
+ * <p/>
+ * Concurrent requests for a response that is not cached are coalesced, only the first request runs the
+ * handler chain while the others wait for its response to be cached, for at most the maximum wait time.
+ * <p/>
+ * Responses expire as directed by their <code>Cache-Control</code> header. A response that is within its
+ * <code>stale-while-revalidate</code> window is still served from the cache, while a single request
+ * generates a fresh copy that replaces it once it has been cached.
  *
  *
  * @author Stuart Douglas
@@ -21,49 +38,157 @@ import static io.undertow.util.Headers.CONTENT_LENGTH;
 public class CacheHandler implements HttpHandler {
 
     private final DirectBufferCache<CachedHttpRequest> cache;
+    private final ResponseVariants variants = new ResponseVariants();
+    private final ResponseLoads loads = new ResponseLoads();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
     private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
 
     public CacheHandler(final DirectBufferCache<CachedHttpRequest> cache, final HttpHandler next) {
         this.cache = cache;
         this.next = next;
+        cache.addRemovalListener(variants);
     }
 
     public CacheHandler(final DirectBufferCache<CachedHttpRequest> cache) {
         this.cache = cache;
+        cache.addRemovalListener(variants);
     }
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        final ResponseCache responseCache = new ResponseCache(cache, exchange);
+        final ResponseCache responseCache = new ResponseCache(this, exchange);
         exchange.putAttachment(ResponseCache.ATTACHMENT_KEY, responseCache);
         exchange.addResponseWrapper(new ConduitWrapper<StreamSinkConduit>() {
             @Override
             public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
-                if(!responseCache.isResponseCachable()) {
-                    return factory.create();
-                }
-                String lengthString = exchange.getResponseHeaders().getFirst(CONTENT_LENGTH);
-                if(lengthString == null) {
-                    //we don't cache chunked requests
+                final StreamSinkConduit conduit = cachingConduit(factory, exchange, responseCache);
+                if (conduit == null) {
+                    //the response is not going to be cached, so requests that are waiting for it can go ahead
+                    responseCache.loadComplete();
                     return factory.create();
                 }
-                int length = Integer.parseInt(lengthString);
-                final CachedHttpRequest key = new CachedHttpRequest(exchange);
-                final DirectBufferCache.CacheEntry entry = cache.add(key, length);
+                return conduit;
+            }
+        });
+        HttpHandlers.executeHandler(next, exchange);
+    }
 
-                if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
-                    return factory.create();
-                }
+    /**
+     * @return A conduit that caches the response as it is written, or null if the response is not cached
+     */
+    private StreamSinkConduit cachingConduit(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange, final ResponseCache responseCache) {
+        if(!responseCache.isResponseCachable() || exchange.getResponseCode() != 200) {
+            return null;
+        }
+        String lengthString = exchange.getResponseHeaders().getFirst(CONTENT_LENGTH);
+        if(lengthString == null) {
+            //we don't cache chunked requests, this includes compressed responses that are larger than a buffer
+            return null;
+        }
+        int length = Integer.parseInt(lengthString);
+        //the key is created before any inner conduits, as if a content encoding is applied
+        //after this point the bytes that are cached are not encoded
+        final CachedHttpRequest key = new CachedHttpRequest(exchange);
+        if (!key.isCachable()) {
+            return null;
+        }
+        final DirectBufferCache.CacheEntry<CachedHttpRequest> entry = entryFor(responseCache, key, length);
 
-                if (!entry.reference()) {
-                    entry.disable();
-                    return factory.create();
-                }
+        if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
+            return null;
+        }
+
+        if (!entry.reference()) {
+            entry.disable();
+            return null;
+        }
+        entry.setFreshness(key.getMaxAge(), key.getStaleWhileRevalidate());
+
+        return new ResponseCachingStreamSinkConduit(factory.create(), entry, responseCache, length);
+    }
 
-                return new ResponseCachingStreamSinkConduit(factory.create(), entry, length);
+    /**
+     * @return The entry the response should be cached in, or null if it cannot be cached
+     */
+    private DirectBufferCache.CacheEntry<CachedHttpRequest> entryFor(final ResponseCache responseCache, final CachedHttpRequest key, final int length) {
+        final DirectBufferCache.CacheEntry<CachedHttpRequest> stale = responseCache.getRefreshedEntry();
+        if (stale != null) {
+            if (key.equals(stale.key())) {
+                //the stale entry is served until the replacement is complete. If no space can be found for the
+                //replacement the stale entry is kept, and the next request that finds it stale tries again
+                return cache.replacement(stale, key, length);
             }
-        });
-        HttpHandlers.executeHandler(next, exchange);
+            //the response has changed so that it is a different variant
+            cache.remove(stale.key());
+        }
+        if (!variants.hasRoom(key)) {
+            //an entry that cannot be indexed could never be served
+            return null;
+        }
+        final DirectBufferCache.CacheEntry<CachedHttpRequest> entry = cache.add(key, length);
+        if (!variants.add(entry.key())) {
+            //the path was filled up by concurrent requests
+            cache.remove(entry.key());
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return the maximum time in milliseconds a request waits for a response that another request is generating
+     */
+    public long getMaximumWaitTime() {
+        return loads.getMaximumWaitTime();
+    }
+
+    /**
+     * Sets how long a request waits for a response that another request is generating to be cached, before
+     * generating the response itself. A value of zero means requests do not wait.
+     *
+     * @param time the maximum time
+     * @param unit the time unit
+     */
+    public CacheHandler setMaximumWaitTime(final long time, final TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Maximum wait time must not be negative");
+        }
+        loads.setMaximumWaitTime(unit.toMillis(time));
+        return this;
+    }
+
+    /**
+     * @return the number of requests that have been served a stale response while it was being refreshed
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * @return the number of times a stale response has been refreshed
+     */
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    void recordStaleHit() {
+        staleHits.incrementAndGet();
+    }
+
+    void recordRefresh() {
+        refreshes.incrementAndGet();
+    }
+
+    public DirectBufferCache<CachedHttpRequest> getCache() {
+        return cache;
+    }
+
+    ResponseVariants getVariants() {
+        return variants;
+    }
+
+    ResponseLoads getLoads() {
+        return loads;
     }
 
     public HttpHandler getNext() {
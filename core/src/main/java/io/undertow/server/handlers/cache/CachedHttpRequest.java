@@ -1,63 +1,265 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.encoding.ContentEncoding;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 
 /**
+ * The key of a cached response. A URL can have several cached variants, which are told apart by the
+ * content encoding that was negotiated for the request and by the values of the request headers that
+ * are named in the response's <code>Vary</code> header. Only these take part in equality, the rest of
+ * the response information is carried along so the cached response can be served with the same headers.
+ * <p/>
+ * The <code>Cache-Control</code> header of the response determines whether it can be cached at all, how long it is
+ * fresh for (<code>s-maxage</code> or <code>max-age</code>), and for how long it may be served while it is stale
+ * and being refreshed (<code>stale-while-revalidate</code>). A response without a freshness lifetime does not expire.
+ *
  * @author Stuart Douglas
  */
 public class CachedHttpRequest {
+
+    private static final HttpString[] NO_HEADERS = new HttpString[0];
+    private static final String[] NO_VALUES = new String[0];
+
     private final String path;
+    private final String queryString;
     private final ETag etag;
     private final String contentEncoding;
+    private final String appliedContentEncoding;
     private final String contentLocation;
     private final String language;
     private final String contentType;
     private final Date lastModified;
     private final int responseCode;
+    private final String vary;
+    private final String cacheControl;
+    private final long maxAge;
+    private final long staleWhileRevalidate;
+    private final HttpString[] varyHeaders;
+    private final String[] varyValues;
+    private final boolean cachable;
+    private final int hashCode;
 
 
     public CachedHttpRequest(final HttpServerExchange exchange) {
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
         this.path = exchange.getRequestPath();
+        this.queryString = exchange.getQueryString();
         this.etag = ETagUtils.getETag(exchange);
-        this.contentLocation = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LOCATION);
-        this.language = exchange.getResponseHeaders().getFirst(Headers.CONTENT_LANGUAGE);
-        this.contentType = exchange.getResponseHeaders().getFirst(Headers.CONTENT_TYPE);
-        String lmString = exchange.getResponseHeaders().getFirst(Headers.LAST_MODIFIED);
+        this.contentLocation = responseHeaders.getFirst(Headers.CONTENT_LOCATION);
+        this.language = responseHeaders.getFirst(Headers.CONTENT_LANGUAGE);
+        this.contentType = responseHeaders.getFirst(Headers.CONTENT_TYPE);
+        String lmString = responseHeaders.getFirst(Headers.LAST_MODIFIED);
         if (lmString == null) {
             this.lastModified = null;
         } else {
             this.lastModified = DateUtils.parseDate(lmString);
         }
+        //if the content encoding header has already been set then the bytes that are written are encoded
+        this.appliedContentEncoding = responseHeaders.getFirst(Headers.CONTENT_ENCODING);
+        this.contentEncoding = currentContentEncoding(exchange);
+        this.responseCode = exchange.getResponseCode();
+
+        boolean cachable = true;
+        final List<HttpString> headers = new ArrayList<HttpString>();
+        final List<String> varyList = responseHeaders.get(Headers.VARY);
+        if (varyList != null) {
+            for (String value : varyList) {
+                for (String name : value.split(",")) {
+                    name = name.trim();
+                    if (name.equals("*")) {
+                        //the response depends on things other than the request headers
+                        cachable = false;
+                    } else if (!name.isEmpty()) {
+                        headers.add(new HttpString(name));
+                    }
+                }
+            }
+        }
+        if (headers.isEmpty()) {
+            this.vary = null;
+            this.varyHeaders = NO_HEADERS;
+            this.varyValues = NO_VALUES;
+        } else {
+            final StringBuilder builder = new StringBuilder();
+            this.varyHeaders = headers.toArray(new HttpString[headers.size()]);
+            this.varyValues = new String[varyHeaders.length];
+            final HeaderMap requestHeaders = exchange.getRequestHeaders();
+            for (int i = 0; i < varyHeaders.length; ++i) {
+                if (requestHeaders.count(varyHeaders[i]) > 1) {
+                    //we only select variants on single valued headers
+                    cachable = false;
+                }
+                varyValues[i] = requestHeaders.getFirst(varyHeaders[i]);
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(varyHeaders[i]);
+            }
+            this.vary = builder.toString();
+        }
+
+        this.cacheControl = joined(responseHeaders.get(Headers.CACHE_CONTROL));
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        long staleWhileRevalidate = 0;
+        boolean revalidate = false;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                final int index = directive.indexOf('=');
+                final String name = (index == -1 ? directive : directive.substring(0, index).trim()).toLowerCase(Locale.ENGLISH);
+                final String value = index == -1 ? null : directive.substring(index + 1).trim();
+                if (name.equals("no-store") || name.equals("no-cache") || name.equals("private")) {
+                    cachable = false;
+                } else if (name.equals("must-revalidate") || name.equals("proxy-revalidate")) {
+                    revalidate = true;
+                } else if (name.equals("max-age")) {
+                    maxAge = seconds(value);
+                } else if (name.equals("s-maxage")) {
+                    sharedMaxAge = seconds(value);
+                } else if (name.equals("stale-while-revalidate")) {
+                    staleWhileRevalidate = Math.max(0, seconds(value));
+                }
+            }
+        }
+        if (sharedMaxAge != -1) {
+            //s-maxage overrides max-age for shared caches
+            maxAge = sharedMaxAge;
+        }
+        if (revalidate || maxAge < 0) {
+            staleWhileRevalidate = 0;
+        }
+        if (maxAge == -2 || (maxAge == 0 && staleWhileRevalidate == 0)) {
+            //the response is stale as soon as it is cached, an invalid lifetime means the same
+            cachable = false;
+        }
+        this.maxAge = maxAge;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.cachable = cachable;
+
+        int result = path != null ? path.hashCode() : 0;
+        result = 31 * result + (queryString != null ? queryString.hashCode() : 0);
+        result = 31 * result + (contentEncoding != null ? contentEncoding.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(varyHeaders);
+        result = 31 * result + Arrays.hashCode(varyValues);
+        this.hashCode = result;
+    }
+
+    /**
+     * @return The content encoding that will be applied to the response given the current state of the exchange,
+     *         or null if the exchange does not take part in content encoding
+     */
+    static String currentContentEncoding(final HttpServerExchange exchange) {
         //the content encoding can be decided dynamically, based on the current state of the request
         //as the decision to compress generally dependends on size and mime type
         final ContentEncoding encoding = exchange.getAttachment(ContentEncoding.CONENT_ENCODING);
-        if(encoding != null) {
-            this.contentEncoding = encoding.getCurrentContentEncoding();
-        } else {
-            this.contentEncoding = exchange.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
+        if (encoding != null) {
+            return encoding.getCurrentContentEncoding();
         }
-        this.responseCode = exchange.getResponseCode();
+        return exchange.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
+    }
+
+    /**
+     * @return The number of seconds in the value, or -2 if the value is not valid
+     */
+    private static long seconds(final String value) {
+        if (value == null) {
+            return -2;
+        }
+        try {
+            final long seconds = Long.parseLong(value.startsWith("\"") && value.endsWith("\"") && value.length() > 1 ? value.substring(1, value.length() - 1) : value);
+            return seconds < 0 ? -2 : seconds;
+        } catch (NumberFormatException e) {
+            return -2;
+        }
+    }
+
+    private static String joined(final List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        if (values.size() == 1) {
+            return values.get(0);
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Determines if this is the variant of the response that should be served for the given request.
+     * This does not allocate, as it is used for every cache lookup.
+     *
+     * @param exchange        The exchange
+     * @param contentEncoding The content encoding that would be applied to the response
+     * @return <code>true</code> if this variant matches the request
+     */
+    boolean matches(final HttpServerExchange exchange, final String contentEncoding) {
+        if (!equal(this.contentEncoding, contentEncoding) || !equal(queryString, exchange.getQueryString())) {
+            return false;
+        }
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        for (int i = 0; i < varyHeaders.length; ++i) {
+            final HttpString header = varyHeaders[i];
+            if (requestHeaders.count(header) > 1 || !equal(varyValues[i], requestHeaders.getFirst(header))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>false</code> if the response cannot be cached, because it varies on something
+     *         that cannot be used to select it from the cache
+     */
+    boolean isCachable() {
+        return cachable;
     }
 
     public String getPath() {
         return path;
     }
 
+    public String getQueryString() {
+        return queryString;
+    }
+
     public ETag getEtag() {
         return etag;
     }
 
+    /**
+     * @return The content encoding that was negotiated for the request
+     */
     public String getContentEncoding() {
         return contentEncoding;
     }
 
+    /**
+     * @return The content encoding that the cached bytes have been encoded with, or null if the cached
+     *         bytes are not encoded yet
+     */
+    public String getAppliedContentEncoding() {
+        return appliedContentEncoding;
+    }
+
     public String getLanguage() {
         return language;
     }
@@ -78,6 +280,34 @@ public class CachedHttpRequest {
         return responseCode;
     }
 
+    /**
+     * @return The value of the <code>Vary</code> header of the response, or null if it did not vary
+     */
+    public String getVary() {
+        return vary;
+    }
+
+    /**
+     * @return The value of the <code>Cache-Control</code> header of the response, or null if it had none
+     */
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * @return The time in milliseconds the response is fresh for, or -1 if it does not expire
+     */
+    public long getMaxAge() {
+        return maxAge < 0 ? -1 : maxAge * 1000;
+    }
+
+    /**
+     * @return The time in milliseconds the response may be served for once it is stale, while it is refreshed
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate * 1000;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -85,30 +315,22 @@ public class CachedHttpRequest {
 
         final CachedHttpRequest that = (CachedHttpRequest) o;
 
-        if (responseCode != that.responseCode) return false;
-        if (contentEncoding != null ? !contentEncoding.equals(that.contentEncoding) : that.contentEncoding != null)
-            return false;
-        if (contentLocation != null ? !contentLocation.equals(that.contentLocation) : that.contentLocation != null)
-            return false;
-        if (contentType != null ? !contentType.equals(that.contentType) : that.contentType != null) return false;
-        if (etag != null ? !etag.equals(that.etag) : that.etag != null) return false;
-        if (language != null ? !language.equals(that.language) : that.language != null) return false;
-        if (lastModified != null ? !lastModified.equals(that.lastModified) : that.lastModified != null) return false;
-        if (path != null ? !path.equals(that.path) : that.path != null) return false;
+        if (hashCode != that.hashCode) return false;
+        if (!equal(path, that.path)) return false;
+        if (!equal(queryString, that.queryString)) return false;
+        if (!equal(contentEncoding, that.contentEncoding)) return false;
+        if (!Arrays.equals(varyHeaders, that.varyHeaders)) return false;
+        if (!Arrays.equals(varyValues, that.varyValues)) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        int result = path != null ? path.hashCode() : 0;
-        result = 31 * result + (etag != null ? etag.hashCode() : 0);
-        result = 31 * result + (contentEncoding != null ? contentEncoding.hashCode() : 0);
-        result = 31 * result + (contentLocation != null ? contentLocation.hashCode() : 0);
-        result = 31 * result + (language != null ? language.hashCode() : 0);
-        result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
-        result = 31 * result + (lastModified != null ? lastModified.hashCode() : 0);
-        result = 31 * result + responseCode;
-        return result;
+        return hashCode;
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
     }
 }
@@ -21,8 +21,19 @@ package io.undertow.server.handlers.cache;
 import static io.undertow.server.handlers.cache.LimitedBufferSlicePool.PooledByteBuffer;
 
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 import io.undertow.util.SecureHashMap;
 import org.xnio.BufferAllocator;
@@ -32,9 +43,26 @@ import org.xnio.BufferAllocator;
  * subsequence of blocks in a fixed large direct buffer. An ideal application is
  * a file system cache, where the path corresponds to a file location.
  *
- * <p>To reduce contention, entry allocation and eviction execute in a sampling
- * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
- * entries are removed first) when the cache is out of capacity</p>
+ * <p>Entries are added without any buffer space. Space is only allocated when an entry is
+ * admitted to the cache, and admission is frequency based: the frequency of every key that is
+ * added or looked up is estimated with a count-min sketch. A key has to be requested a few times
+ * before it is considered at all, and when the cache is full a candidate only displaces the entry
+ * that would be evicted if it has been requested more often. This stops scans over rarely
+ * requested keys from flushing out the popular ones.</p>
+ *
+ * <p>Admitted entries are kept in a segmented LRU. New entries go into a probationary segment,
+ * and are promoted to a protected segment that holds up to 80% of the space when they are
+ * requested again. Victims are taken from the probationary segment first.</p>
+ *
+ * <p>To keep the request path cheap, reads are recorded in a lossy ring buffer and writes in a
+ * queue. The buffers are applied to the sketch and the segments in batches, once enough reads or
+ * writes are pending or a key that has not been admitted has been requested often enough to be. This
+ * is done by a maintenance executor if one is supplied, otherwise by whichever thread manages to
+ * acquire the eviction lock. Threads that use the cache never wait for the lock.</p>
+ *
+ * <p>Entries can be given a freshness lifetime. Once an entry is no longer fresh it may still be
+ * served for a grace period while a replacement is built, which is swapped in for the entry once it
+ * is complete. Entries that are past the grace period are removed when they are looked up.</p>
  *
  * <p>In order to expedite reclamation, cache entries are reference counted as
  * opposed to garbage collected.</p>
@@ -42,21 +70,91 @@ import org.xnio.BufferAllocator;
  * @author Jason T. Greene
  */
 public class DirectBufferCache<K> {
-    private static final int SAMPLE_INTERVAL = 5;
+
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+    private static final int WRITE_BUFFER_DRAIN_THRESHOLD = 16;
+    private static final int WRITE_BUFFER_LIMIT = 1024;
+    private static final int PROTECTED_PERCENTAGE = 80;
+    /**
+     * The number of times a key must have been requested before it is given any space, so requests
+     * that are only ever made once or twice never cause an allocation.
+     */
+    private static final int MIN_ADMISSION_FREQUENCY = 5;
+
+    private static final int QUEUE_NONE = 0;
+    private static final int QUEUE_GHOST = 1;
+    private static final int QUEUE_PROBATION = 2;
+    private static final int QUEUE_PROTECTED = 3;
 
     private final LimitedBufferSlicePool pool;
     private final SecureHashMap<K, CacheEntry<K>> cache;
-    private final ConcurrentDirectDeque<CacheEntry<K>> accessQueue;
     private final int sliceSize;
+    private final int maxSlices;
+
+    /**
+     * Entries that have been read. Entries are dropped rather than waiting if the buffer is full.
+     */
+    private final AtomicReferenceArray<CacheEntry<K>> readBuffer = new AtomicReferenceArray<CacheEntry<K>>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferWriteCount = new AtomicLong();
+    private volatile long readBufferReadCount;
+
+    /**
+     * Entries that have been added or removed
+     */
+    private final Queue<CacheEntry<K>> writeBuffer = new ConcurrentLinkedQueue<CacheEntry<K>>();
+    private final AtomicInteger writeBufferSize = new AtomicInteger();
+
+    private final Executor maintenanceExecutor;
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+    private final Runnable maintenanceTask = new Runnable() {
+        @Override
+        public void run() {
+            maintenanceScheduled.set(false);
+            drainBuffers();
+        }
+    };
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final List<RemovalListener<K>> removalListeners = new CopyOnWriteArrayList<RemovalListener<K>>();
+
+    //the following are guarded by the eviction lock
+    private final FrequencySketch sketch;
+    /**
+     * Entries that are known to the cache but have not been admitted. They only exist so that a second
+     * request for the same key can be admitted, so there are at most as many of them as there are slices.
+     */
+    private final EntryList<K> ghosts = new EntryList<K>();
+    private final EntryList<K> probation = new EntryList<K>();
+    private final EntryList<K> protectedEntries = new EntryList<K>();
+    private final int maxProtectedSlices;
+    private int protectedSlices;
 
     public DirectBufferCache(int sliceSize, int max) {
         this(sliceSize, max, BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR);
     }
+
     public DirectBufferCache(int sliceSize, int max, final BufferAllocator<ByteBuffer> bufferAllocator) {
+        this(sliceSize, max, bufferAllocator, null);
+    }
+
+    /**
+     * @param sliceSize           The size of each slice of the buffer
+     * @param max                 The total size of the buffer
+     * @param bufferAllocator     The allocator for the buffer
+     * @param maintenanceExecutor The executor that applies recorded reads and writes and evicts entries, such as the
+     *                            XNIO worker. If this is null the work is done by the threads that use the cache
+     */
+    public DirectBufferCache(int sliceSize, int max, final BufferAllocator<ByteBuffer> bufferAllocator, final Executor maintenanceExecutor) {
         this.sliceSize = sliceSize;
         this.pool = new LimitedBufferSlicePool(bufferAllocator, sliceSize, max, 1);
         this.cache = new SecureHashMap<K, CacheEntry<K>>(16);
-        this.accessQueue = ConcurrentDirectDeque.newInstance();
+        this.maxSlices = max / sliceSize;
+        this.maxProtectedSlices = (int) ((long) maxSlices * PROTECTED_PERCENTAGE / 100);
+        this.sketch = new FrequencySketch(maxSlices);
+        this.maintenanceExecutor = maintenanceExecutor;
     }
 
     public CacheEntry add(K key, int size) {
@@ -67,92 +165,409 @@ public class DirectBufferCache<K> {
             if (result != null) {
                 value = result;
             } else {
-                bumpAccess(value);
+                recordWrite(value);
             }
         }
 
         return value;
     }
 
+    /**
+     * Looks up an entry. A lookup that does not find anything is not counted as a request for
+     * the key, as it is expected to be followed by an {@link #add(Object, int)}, which is.
+     *
+     * @param key The key
+     * @return The entry, or null if the key is not in the cache
+     */
     public CacheEntry<K> get(K key) {
         CacheEntry<K> cacheEntry = cache.get(key);
         if (cacheEntry == null) {
             return null;
         }
+        if (cacheEntry.expired()) {
+            if (cache.remove(key, cacheEntry)) {
+                removed(cacheEntry);
+            }
+            return null;
+        }
+        recordRead(cacheEntry);
+        if (cacheEntry.buffers().length == 0 && cacheEntry.hit() >= MIN_ADMISSION_FREQUENCY) {
+            //a candidate for admission, don't wait for the read buffer to fill up
+            scheduleMaintenance();
+        }
+        return cacheEntry;
+    }
 
-        if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
-            bumpAccess(cacheEntry);
-
-            if (! cacheEntry.allocate()) {
-                // Try and make room
-                int reclaimSize = cacheEntry.size();
-                for (CacheEntry<K> oldest : accessQueue) {
-                    if (oldest == cacheEntry) {
-                        continue;
-                    }
+    public void remove(K key) {
+        CacheEntry<K> remove = cache.remove(key);
+        if (remove != null) {
+            removed(remove);
+        }
+    }
 
-                    if (oldest.buffers().length > 0) {
-                        reclaimSize -= oldest.size();
-                    }
+    private void removed(final CacheEntry<K> entry) {
+        entry.removed = true;
+        recordWrite(entry);
+        entry.dereference();
+        notifyRemoved(entry);
+    }
 
-                    this.remove(oldest.key());
+    /**
+     * Creates an entry that will replace an existing entry once it has been enabled. The space for the
+     * replacement is allocated straight away, so it can be written while the existing entry is still being
+     * served. If the cache is full other entries are evicted to make room for it. If the replacement is
+     * disabled instead, or the existing entry is removed in the meantime, the replacement is discarded.
+     *
+     * @param existing The entry to replace
+     * @param key      The key of the replacement, which must be equal to the key of the existing entry
+     * @param size     The size of the replacement
+     * @return The replacement, or null if space could not be found for it
+     */
+    public CacheEntry<K> replacement(final CacheEntry<K> existing, final K key, final int size) {
+        final CacheEntry<K> replacement = new CacheEntry<K>(key, size, this, existing);
+        if (replacement.allocate()) {
+            return replacement;
+        }
+        if (makeRoom(existing, replacement.slices()) && replacement.allocate()) {
+            return replacement;
+        }
+        return null;
+    }
 
-                    if (reclaimSize <= 0) {
-                        break;
-                    }
+    /**
+     * Evicts entries other than the one being replaced until there is room for its replacement. The
+     * existing entry has already been admitted, so its replacement displaces any entry that is not
+     * requested more often. This does not wait for the eviction lock, if it is held the replacement
+     * just fails.
+     *
+     * @return <code>true</code> if there should now be room for the replacement
+     */
+    private boolean makeRoom(final CacheEntry<K> existing, final int slices) {
+        if (slices > maxSlices || !evictionLock.tryLock()) {
+            return false;
+        }
+        try {
+            final int frequency = sketch.frequency(existing.key().hashCode());
+            int reclaimed = 0;
+            while (reclaimed < slices && !pool.canAllocate(slices)) {
+                final CacheEntry<K> victim = nextVictim(existing);
+                if (victim == null || frequency < sketch.frequency(victim.key().hashCode())) {
+                    return false;
                 }
+                reclaimed += victim.slices();
+                evict(victim);
+            }
+            //space may still be held by evicted entries that are being served
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean replace(final CacheEntry<K> existing, final CacheEntry<K> replacement) {
+        if (!cache.replace(existing.key(), existing, replacement)) {
+            return false;
+        }
+        //the key is still in the cache, so removal listeners are not notified
+        existing.removed = true;
+        recordWrite(existing);
+        existing.dereference();
+        recordWrite(replacement);
+        return true;
+    }
+
+    /**
+     * Registers a listener that is notified after an entry has been removed from the cache, either
+     * because it was evicted or because it was removed explicitly.
+     */
+    void addRemovalListener(final RemovalListener<K> listener) {
+        removalListeners.add(listener);
+    }
+
+    private void notifyRemoved(final CacheEntry<K> entry) {
+        for (RemovalListener<K> listener : removalListeners) {
+            listener.removed(entry.key());
+        }
+    }
+
+    private void recordRead(final CacheEntry<K> read) {
+        final long writeCount = readBufferWriteCount.get();
+        final long pending = writeCount - readBufferReadCount;
+        if (pending >= READ_BUFFER_SIZE) {
+            //the buffer is full, this read is lost
+            scheduleMaintenance();
+            return;
+        }
+        if (!readBufferWriteCount.compareAndSet(writeCount, writeCount + 1)) {
+            //contended, this read is lost
+            return;
+        }
+        readBuffer.lazySet((int) writeCount & READ_BUFFER_MASK, read);
+        if (pending + 1 >= READ_BUFFER_DRAIN_THRESHOLD) {
+            scheduleMaintenance();
+        }
+    }
+
+    private void recordWrite(final CacheEntry<K> entry) {
+        writeBuffer.add(entry);
+        final int pending = writeBufferSize.incrementAndGet();
+        if (pending > WRITE_BUFFER_LIMIT) {
+            //maintenance is falling behind, so help out if the lock is free rather than waiting for the executor
+            drainBuffers();
+        } else if (pending >= WRITE_BUFFER_DRAIN_THRESHOLD) {
+            scheduleMaintenance();
+        }
+    }
 
-                // Maybe lucky?
-                cacheEntry.allocate();
+    private void scheduleMaintenance() {
+        if (maintenanceExecutor == null) {
+            drainBuffers();
+        } else if (maintenanceScheduled.compareAndSet(false, true)) {
+            try {
+                maintenanceExecutor.execute(maintenanceTask);
+            } catch (RejectedExecutionException e) {
+                maintenanceScheduled.set(false);
+                drainBuffers();
             }
         }
+    }
 
-        return cacheEntry;
+    /**
+     * Applies the recorded reads and writes, if no other thread is already doing so.
+     */
+    void drainBuffers() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void maintenance() {
+        drainWriteBuffer();
+        drainReadBuffer();
+        while (ghosts.size > maxSlices) {
+            evict(ghosts.head);
+        }
     }
 
-    private void bumpAccess(CacheEntry<K> cacheEntry) {
-        Object prevToken = cacheEntry.claimToken();
-        if (prevToken != Boolean.FALSE) {
-            if (prevToken != null) {
-                accessQueue.removeToken(prevToken);
+    private void drainWriteBuffer() {
+        CacheEntry<K> entry;
+        while ((entry = writeBuffer.poll()) != null) {
+            writeBufferSize.decrementAndGet();
+            if (entry.removed) {
+                unlink(entry);
+            } else if (entry.queue == QUEUE_NONE && entry.buffers().length > 0) {
+                //a replacement, which already has its space
+                probation.addLast(entry);
+                entry.queue = QUEUE_PROBATION;
+            } else if (entry.queue == QUEUE_NONE) {
+                //adding an entry is the result of a request that missed
+                sketch.increment(entry.key().hashCode());
+                ghosts.addLast(entry);
+                entry.queue = QUEUE_GHOST;
             }
+        }
+    }
 
-            Object token = null;
-            try {
-                token = accessQueue.offerLastAndReturnToken(cacheEntry);
-            } catch (Throwable t) {
-                // In case of disaster (OOME), we need to release the claim, so leave it aas null
+    private void drainReadBuffer() {
+        long readCount = readBufferReadCount;
+        final long writeCount = readBufferWriteCount.get();
+        for (; readCount < writeCount; ++readCount) {
+            final int index = (int) readCount & READ_BUFFER_MASK;
+            final CacheEntry<K> read = readBuffer.get(index);
+            if (read == null) {
+                //the slot has been claimed but not written yet
+                break;
+            }
+            readBuffer.lazySet(index, null);
+            onRead(read);
+        }
+        readBufferReadCount = readCount;
+    }
+
+    private void onRead(final CacheEntry<K> entry) {
+        sketch.increment(entry.key().hashCode());
+        if (entry.removed) {
+            return;
+        }
+        switch (entry.queue) {
+            case QUEUE_GHOST:
+                if (!admit(entry)) {
+                    ghosts.remove(entry);
+                    ghosts.addLast(entry);
+                }
+                break;
+            case QUEUE_PROBATION:
+                probation.remove(entry);
+                protectedEntries.addLast(entry);
+                entry.queue = QUEUE_PROTECTED;
+                protectedSlices += entry.slices();
+                while (protectedSlices > maxProtectedSlices) {
+                    final CacheEntry<K> demoted = protectedEntries.head;
+                    protectedEntries.remove(demoted);
+                    protectedSlices -= demoted.slices();
+                    probation.addLast(demoted);
+                    demoted.queue = QUEUE_PROBATION;
+                }
+                break;
+            case QUEUE_PROTECTED:
+                protectedEntries.remove(entry);
+                protectedEntries.addLast(entry);
+                break;
+            default:
+                //the write that added the entry has not been applied yet
+                break;
+        }
+    }
+
+    /**
+     * Allocates space for a ghost entry once it has been requested often enough. If there is not enough
+     * space the entry is only admitted if it is requested more often than every entry that would be evicted
+     * to make room for it, and nothing is evicted if it is not.
+     *
+     * @return <code>true</code> if the entry was admitted
+     */
+    private boolean admit(final CacheEntry<K> candidate) {
+        final int slices = candidate.slices();
+        if (slices > maxSlices) {
+            return false;
+        }
+        final int frequency = sketch.frequency(candidate.key().hashCode());
+        if (frequency < MIN_ADMISSION_FREQUENCY) {
+            return false;
+        }
+        if (!pool.canAllocate(slices)) {
+            //walk the victims in eviction order before evicting any of them
+            int victims = 0;
+            int reclaimed = 0;
+            CacheEntry<K> victim = nextVictim();
+            while (reclaimed < slices) {
+                if (victim == null || frequency <= sketch.frequency(victim.key().hashCode())) {
+                    return false;
+                }
+                reclaimed += victim.slices();
+                ++victims;
+                if (victim.next != null) {
+                    victim = victim.next;
+                } else {
+                    victim = victim.queue == QUEUE_PROBATION ? protectedEntries.head : null;
+                }
+            }
+            for (int i = 0; i < victims; ++i) {
+                evict(nextVictim());
             }
+        }
+        //space may still be held by evicted entries that are being served
+        if (!candidate.allocate()) {
+            return false;
+        }
+        ghosts.remove(candidate);
+        probation.addLast(candidate);
+        candidate.queue = QUEUE_PROBATION;
+        return true;
+    }
+
+    private CacheEntry<K> nextVictim() {
+        return probation.head != null ? probation.head : protectedEntries.head;
+    }
 
-            if (! cacheEntry.setToken(token) && token != null) { // Always set if null
-                accessQueue.removeToken(token);
+    private CacheEntry<K> nextVictim(final CacheEntry<K> excluded) {
+        for (CacheEntry<K> entry = probation.head; entry != null; entry = entry.next) {
+            if (entry != excluded) {
+                return entry;
+            }
+        }
+        for (CacheEntry<K> entry = protectedEntries.head; entry != null; entry = entry.next) {
+            if (entry != excluded) {
+                return entry;
             }
         }
+        return null;
     }
 
+    private void evict(final CacheEntry<K> entry) {
+        unlink(entry);
+        if (cache.remove(entry.key(), entry)) {
+            entry.removed = true;
+            entry.dereference();
+            notifyRemoved(entry);
+        }
+    }
 
-    public void remove(K key) {
-        CacheEntry<K> remove = cache.remove(key);
-        if (remove != null) {
-            Object old = remove.clearToken();
-            if (old != null) {
-                accessQueue.removeToken(old);
+    private void unlink(final CacheEntry<K> entry) {
+        switch (entry.queue) {
+            case QUEUE_GHOST:
+                ghosts.remove(entry);
+                break;
+            case QUEUE_PROBATION:
+                probation.remove(entry);
+                break;
+            case QUEUE_PROTECTED:
+                protectedEntries.remove(entry);
+                protectedSlices -= entry.slices();
+                break;
+            default:
+                return;
+        }
+        entry.queue = QUEUE_NONE;
+    }
+
+    interface RemovalListener<K> {
+        void removed(K key);
+    }
+
+    /**
+     * An intrusive doubly linked list of entries, ordered from least to most recently used.
+     */
+    private static final class EntryList<K> {
+        private CacheEntry<K> head;
+        private CacheEntry<K> tail;
+        private int size;
+
+        void addLast(final CacheEntry<K> entry) {
+            entry.prev = tail;
+            entry.next = null;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+            ++size;
+        }
+
+        void remove(final CacheEntry<K> entry) {
+            if (entry.prev == null) {
+                head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
             }
-            remove.dereference();
+            entry.prev = null;
+            entry.next = null;
+            --size;
         }
     }
 
     public static final class CacheEntry<K> {
         private static final PooledByteBuffer[] EMPTY_BUFFERS = new PooledByteBuffer[0];
         private static final PooledByteBuffer[] INIT_BUFFERS = new PooledByteBuffer[0];
-        private static final Object CLAIM_TOKEN = new Object();
 
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
         private static final AtomicIntegerFieldUpdater<CacheEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refs");
         private static final AtomicIntegerFieldUpdater<CacheEntry> enabledUpdator = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "enabled");
+        private static final AtomicIntegerFieldUpdater<CacheEntry> refreshingUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refreshing");
+        private static final AtomicReferenceFieldUpdater<CacheEntry, CacheEntry> replacesUpdater = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, CacheEntry.class, "replaces");
 
         private static final AtomicReferenceFieldUpdater<CacheEntry, PooledByteBuffer[]> bufsUpdater = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, PooledByteBuffer[].class, "buffers");
-        private static final AtomicReferenceFieldUpdater<CacheEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Object.class, "accessToken");
 
         private final K key;
         private final int size;
@@ -160,13 +575,33 @@ public class DirectBufferCache<K> {
         private volatile PooledByteBuffer[] buffers = INIT_BUFFERS;
         private volatile int refs = 1;
         private volatile int hits = 1;
-        private volatile Object accessToken;
         private volatile int enabled;
+        private volatile boolean removed;
+        private volatile int refreshing;
+        /**
+         * The entry this entry is going to replace, or null if this entry is not a replacement, or has replaced it
+         */
+        private volatile CacheEntry<K> replaces;
+
+        //the times in milliseconds until which the entry is fresh, and until which it can be served while stale
+        private volatile long created;
+        private volatile long freshUntil = Long.MAX_VALUE;
+        private volatile long staleUntil = Long.MAX_VALUE;
+
+        //the following are guarded by the eviction lock of the cache
+        private CacheEntry<K> prev;
+        private CacheEntry<K> next;
+        private int queue = QUEUE_NONE;
 
         private CacheEntry(K key, int size, DirectBufferCache cache) {
+            this(key, size, cache, null);
+        }
+
+        private CacheEntry(K key, int size, DirectBufferCache cache, CacheEntry<K> replaces) {
             this.key = key;
             this.size = size;
             this.cache = cache;
+            this.replaces = replaces;
         }
 
         public int size() {
@@ -198,10 +633,76 @@ public class DirectBufferCache<K> {
 
         public void enable() {
             this.enabled = 2;
+            final CacheEntry<K> replaces = replacesUpdater.getAndSet(this, null);
+            if (replaces != null && !cache.replace(replaces, this)) {
+                //the entry has been removed, so the replacement is not needed
+                dereference();
+            }
         }
 
         public void disable() {
             this.enabled = 0;
+            if (replacesUpdater.getAndSet(this, null) != null) {
+                dereference();
+            }
+        }
+
+        /**
+         * Sets the freshness lifetime of the entry, starting now.
+         *
+         * @param maxAge               The time in milliseconds the entry is fresh for, or -1 if it does not expire
+         * @param staleWhileRevalidate The time in milliseconds the entry can be served for once it is stale
+         */
+        public void setFreshness(final long maxAge, final long staleWhileRevalidate) {
+            if (maxAge < 0) {
+                this.freshUntil = Long.MAX_VALUE;
+                this.staleUntil = Long.MAX_VALUE;
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            this.created = now;
+            this.freshUntil = now + maxAge;
+            this.staleUntil = now + maxAge + staleWhileRevalidate;
+        }
+
+        /**
+         * @return <code>true</code> if the entry has a freshness lifetime
+         */
+        public boolean expires() {
+            return freshUntil != Long.MAX_VALUE;
+        }
+
+        public boolean isFresh() {
+            final long freshUntil = this.freshUntil;
+            return freshUntil == Long.MAX_VALUE || System.currentTimeMillis() < freshUntil;
+        }
+
+        /**
+         * @return <code>true</code> if the entry is past the time it can be served while stale
+         */
+        boolean expired() {
+            final long staleUntil = this.staleUntil;
+            return staleUntil != Long.MAX_VALUE && System.currentTimeMillis() >= staleUntil;
+        }
+
+        /**
+         * @return The time in milliseconds since the freshness lifetime of the entry started
+         */
+        public long age() {
+            return expires() ? System.currentTimeMillis() - created : 0;
+        }
+
+        /**
+         * Claims the right to refresh a stale entry, so only one refresh of an entry happens at a time.
+         *
+         * @return <code>true</code> if the caller should refresh the entry
+         */
+        public boolean claimRefresh() {
+            return refreshingUpdater.compareAndSet(this, 0, 1);
+        }
+
+        public void refreshComplete() {
+            this.refreshing = 0;
         }
 
         public boolean claimEnable() {
@@ -278,34 +779,20 @@ public class DirectBufferCache<K> {
             return true;
         }
 
+        /**
+         * @return The number of slices the entry needs
+         */
+        int slices() {
+            final int sliceSize = cache.sliceSize;
+            return size <= sliceSize ? 1 : (size + sliceSize - 1) / sliceSize;
+        }
+
         private void destroy() {
+            final PooledByteBuffer[] buffers = this.buffers;
             this.buffers = EMPTY_BUFFERS;
             for (PooledByteBuffer buffer : buffers) {
                 buffer.free();
             }
         }
-
-        Object claimToken() {
-            for (;;) {
-                Object current = this.accessToken;
-                if (current == CLAIM_TOKEN) {
-                    return Boolean.FALSE;
-                }
-
-                if (tokenUpdator.compareAndSet(this, current, CLAIM_TOKEN)) {
-                    return current;
-                }
-            }
-        }
-
-        boolean setToken(Object token) {
-            return tokenUpdator.compareAndSet(this, CLAIM_TOKEN, token);
-        }
-
-        Object clearToken() {
-            Object old = tokenUpdator.getAndSet(this, null);
-            return old == CLAIM_TOKEN ? null : old;
-        }
-
     }
 }
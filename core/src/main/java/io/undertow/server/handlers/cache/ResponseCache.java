@@ -2,16 +2,20 @@ package io.undertow.server.handlers.cache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.undertow.io.IoCallback;
 import io.undertow.io.Sender;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
+import io.undertow.util.ByteRange;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.ETagUtils;
 import io.undertow.util.Headers;
-import io.undertow.util.HttpString;
 
 import static io.undertow.util.Methods.GET;
 import static io.undertow.util.Methods.HEAD;
@@ -29,6 +33,21 @@ import static io.undertow.util.Methods.HEAD;
  * If-Modified-Since or If-None-Match headers indicate that the client has a cached copy
  * of the response)
  * <p/>
+ * A URL can have several cached variants. The variant that is served is the one that was cached for the
+ * same negotiated content encoding and the same values of the request headers named in its <code>Vary</code>
+ * header.
+ * <p/>
+ * Requests with a <code>Range</code> header are served the requested ranges of the cached response, which are
+ * sent straight from the cached buffers.
+ * <p/>
+ * If a cachable response is not in the cache the first request for it generates the response, while
+ * concurrent requests for it that were made with {@link #tryServeResponse(HttpHandler)} wait for it to be
+ * cached rather than generating it as well.
+ * <p/>
+ * A cached response that is no longer fresh but is within its <code>stale-while-revalidate</code> window
+ * is still served. The first request that finds it stale is not served from the cache, instead it
+ * generates a fresh response which replaces the stale one once it has been cached.
+ * <p/>
  * This should be installed early in the handler chain, before any content encoding handlers.
  * This allows it to cache compressed copies of the response, which can significantly reduce
  * CPU load.
@@ -43,12 +62,30 @@ public class ResponseCache {
 
     public static final AttachmentKey<ResponseCache> ATTACHMENT_KEY = AttachmentKey.create(ResponseCache.class);
 
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    private final CacheHandler cacheHandler;
     private final DirectBufferCache<CachedHttpRequest> cache;
+    private final ResponseVariants variants;
+    private final ResponseLoads loads;
     private final HttpServerExchange exchange;
     private boolean responseCachable;
+    /**
+     * The load of the response that this exchange is generating, if other exchanges may be waiting on it
+     */
+    private ResponseLoads.Load load;
+    private boolean waited;
+
+    /**
+     * The stale entry that this exchange is refreshing
+     */
+    private DirectBufferCache.CacheEntry<CachedHttpRequest> refreshedEntry;
 
-    public ResponseCache(final DirectBufferCache<CachedHttpRequest> cache, final HttpServerExchange exchange) {
-        this.cache = cache;
+    ResponseCache(final CacheHandler handler, final HttpServerExchange exchange) {
+        this.cacheHandler = handler;
+        this.cache = handler.getCache();
+        this.variants = handler.getVariants();
+        this.loads = handler.getLoads();
         this.exchange = exchange;
     }
 
@@ -80,23 +117,60 @@ public class ResponseCache {
      * @return <code>true</code> if serving suceeded,
      */
     public boolean tryServeResponse(boolean markCacheable) {
-        final CachedHttpRequest key = new CachedHttpRequest(exchange);
-        DirectBufferCache.CacheEntry<CachedHttpRequest> entry = cache.get(key);
+        return tryServeResponse(markCacheable, null);
+    }
 
+    /**
+     * Attempts to serve the response from a cache, waiting for it if another request is currently
+     * generating it.
+     * <p/>
+     * If the response is being generated by another request then this request is suspended and this
+     * method returns true. Once the other request's response has been cached, or the maximum wait time
+     * configured on the {@link CacheHandler} has elapsed, the given handler is run again in the IO thread.
+     * This is normally the handler that calls this method, and when it calls it again it will be served
+     * from the cache. A request only waits once, if the response still cannot be served then this returns
+     * false and the response will be considered cachable, as for {@link #tryServeResponse()}.
+     * <p/>
+     * Requests only wait if this is called from the IO thread.
+     * <p/>
+     * If this returns true then the caller should not modify the exchange any more, as this
+     * can result in a handoff to an IO thread
+     *
+     * @param handler The handler to run when the request is resumed
+     * @return <code>true</code> if serving suceeded, or if the request is waiting for the response
+     */
+    public boolean tryServeResponse(final HttpHandler handler) {
+        return tryServeResponse(true, handler);
+    }
+
+    private boolean tryServeResponse(final boolean markCacheable, final HttpHandler handler) {
         //we only cache get and head requests
         if (!exchange.getRequestMethod().equals(GET) &&
                 !exchange.getRequestMethod().equals(HEAD)) {
             return false;
         }
 
+        final String contentEncoding = CachedHttpRequest.currentContentEncoding(exchange);
+        final CachedHttpRequest key = variants.select(exchange, contentEncoding);
+        if (key == null) {
+            return miss(markCacheable, contentEncoding, handler);
+        }
+        final DirectBufferCache.CacheEntry<CachedHttpRequest> entry = cache.get(key);
         if (entry == null) {
-            this.responseCachable = markCacheable;
-            return false;
+            //the variant has been removed from the cache since it was selected
+            variants.remove(key);
+            return miss(markCacheable, contentEncoding, handler);
         }
 
         // It's loading retry later
         if (!entry.enabled() || !entry.reference()) {
-            this.responseCachable = markCacheable;
+            return miss(markCacheable, contentEncoding, handler);
+        }
+
+        final boolean stale = !entry.isFresh();
+        if (stale && markCacheable && entry.claimRefresh()) {
+            entry.dereference();
+            refresh(entry);
             return false;
         }
 
@@ -106,19 +180,23 @@ public class ResponseCache {
         //may have additional etags
         final ETag etag = existingKey.getEtag();
         if (!ETagUtils.handleIfMatch(exchange, etag, false)) {
+            entry.dereference();
             return false;
         }
         //we do send a 304 if the if-none-match header matches
         if (!ETagUtils.handleIfNoneMatch(exchange, etag, true)) {
+            entry.dereference();
             exchange.setResponseCode(304);
             exchange.endExchange();
             return true;
         }
         //the server may have a more up to date representation
         if (!DateUtils.handleIfUnmodifiedSince(exchange, existingKey.getLastModified())) {
+            entry.dereference();
             return false;
         }
         if (!DateUtils.handleIfModifiedSince(exchange, existingKey.getLastModified())) {
+            entry.dereference();
             exchange.setResponseCode(304);
             exchange.endExchange();
             return true;
@@ -128,8 +206,12 @@ public class ResponseCache {
         if(existingKey.getContentType() != null) {
             exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, existingKey.getContentType());
         }
-        if(existingKey.getContentEncoding() != null && !Headers.IDENTITY.equals(HttpString.tryFromString(existingKey.getContentEncoding()))) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, existingKey.getContentEncoding());
+        //if the cached bytes are not encoded yet the content encoding will be applied as they are sent
+        if(existingKey.getAppliedContentEncoding() != null) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, existingKey.getAppliedContentEncoding());
+        }
+        if(existingKey.getVary() != null) {
+            exchange.getResponseHeaders().put(Headers.VARY, existingKey.getVary());
         }
         if(existingKey.getLastModified() != null) {
             exchange.getResponseHeaders().put(Headers.LAST_MODIFIED, DateUtils.toDateString(existingKey.getLastModified()));
@@ -141,12 +223,32 @@ public class ResponseCache {
             exchange.getResponseHeaders().put(Headers.CONTENT_LANGUAGE, existingKey.getLanguage());
         }
         if(etag != null) {
-            exchange.getResponseHeaders().put(Headers.CONTENT_LANGUAGE, etag.toString());
+            exchange.getResponseHeaders().put(Headers.ETAG, etag.toString());
+        }
+        if(existingKey.getCacheControl() != null && !exchange.getResponseHeaders().contains(Headers.CACHE_CONTROL)) {
+            exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, existingKey.getCacheControl());
+        }
+        if(entry.expires()) {
+            exchange.getResponseHeaders().put(Headers.AGE, Long.toString(entry.age() / 1000));
+        }
+        if(stale) {
+            exchange.getResponseHeaders().add(Headers.WARNING, STALE_WARNING);
+            cacheHandler.recordStaleHit();
         }
 
-        //TODO: support if-range
         exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(entry.size()));
+        ByteRange range = null;
+        if (!isEncodedOnSend(existingKey)) {
+            exchange.getResponseHeaders().put(Headers.ACCEPT_RANGES, "bytes");
+            range = ByteRange.handleRange(exchange, entry.size(), etag, existingKey.getLastModified());
+            if (range != null && range.getRangeCount() == 0) {
+                //none of the ranges could be satisfied
+                entry.dereference();
+                return true;
+            }
+        }
         if (exchange.getRequestMethod().equals(HEAD)) {
+            entry.dereference();
             exchange.endExchange();
             return true;
         }
@@ -157,10 +259,14 @@ public class ResponseCache {
         boolean ok = false;
         try {
             LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
-            buffers = new ByteBuffer[pooled.length];
-            for (int i = 0; i < buffers.length; i++) {
-                // Keep position from mutating
-                buffers[i] = pooled[i].getResource().duplicate();
+            if (range == null) {
+                buffers = new ByteBuffer[pooled.length];
+                for (int i = 0; i < buffers.length; i++) {
+                    // Keep position from mutating
+                    buffers[i] = pooled[i].getResource().duplicate();
+                }
+            } else {
+                buffers = slice(pooled, range);
             }
             ok = true;
         } finally {
@@ -175,10 +281,128 @@ public class ResponseCache {
         return true;
     }
 
+    /**
+     * @return <code>true</code> if the cached bytes are not encoded yet, and will be encoded as they are sent,
+     *         in which case ranges of them cannot be served
+     */
+    private static boolean isEncodedOnSend(final CachedHttpRequest key) {
+        final String contentEncoding = key.getContentEncoding();
+        return key.getAppliedContentEncoding() == null && contentEncoding != null && !contentEncoding.equals(Headers.IDENTITY.toString());
+    }
+
+    /**
+     * Creates views of the cached buffers that contain the requested ranges, so the ranges are sent without
+     * copying the cached bytes.
+     */
+    private static ByteBuffer[] slice(final LimitedBufferSlicePool.PooledByteBuffer[] pooled, final ByteRange range) {
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < range.getRangeCount(); ++i) {
+            if (range.isMultipart()) {
+                buffers.add(range.getPartHeader(i));
+            }
+            final long start = range.getStart(i);
+            final long end = range.getEnd(i) + 1;
+            long offset = 0;
+            for (int j = 0; j < pooled.length && offset < end; ++j) {
+                final ByteBuffer data = pooled[j].getResource();
+                final int size = data.remaining();
+                if (offset + size > start) {
+                    final ByteBuffer slice = data.duplicate();
+                    slice.position(data.position() + (int) Math.max(0, start - offset));
+                    slice.limit(data.position() + (int) Math.min(size, end - offset));
+                    buffers.add(slice);
+                }
+                offset += size;
+            }
+        }
+        if (range.isMultipart()) {
+            buffers.add(range.getClosingDelimiter());
+        }
+        return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+    /**
+     * Handles a request that could not be served from the cache. If another request is generating the response
+     * this request waits for it, otherwise this request becomes the one generating it.
+     *
+     * @return <code>true</code> if the request is waiting
+     */
+    private boolean miss(final boolean markCacheable, final String contentEncoding, final HttpHandler handler) {
+        this.responseCachable = markCacheable;
+        final long maximumWaitTime = loads.getMaximumWaitTime();
+        if (!markCacheable || maximumWaitTime <= 0 || load != null) {
+            return false;
+        }
+        final ResponseLoads.Load existing = loads.get(exchange, contentEncoding);
+        if (existing != null) {
+            if (handler == null || waited || !exchange.isInIoThread()) {
+                return false;
+            }
+            waited = true;
+            existing.await(exchange, handler, maximumWaitTime);
+            return true;
+        }
+        final ResponseLoads.Load started = loads.start(exchange, contentEncoding);
+        if (started != null) {
+            this.load = started;
+            //if the response is not cached waiting requests are resumed once it is done
+            exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+                @Override
+                public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                    try {
+                        loads.complete(started);
+                    } finally {
+                        nextListener.proceed();
+                    }
+                }
+            });
+        }
+        return false;
+    }
+
+    /**
+     * Makes this exchange generate a fresh copy of a stale entry. Other requests are served the stale entry
+     * until the fresh copy has been cached. If it is not cached the next request that finds the entry
+     * stale will try again.
+     */
+    private void refresh(final DirectBufferCache.CacheEntry<CachedHttpRequest> entry) {
+        this.responseCachable = true;
+        this.refreshedEntry = entry;
+        cacheHandler.recordRefresh();
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                try {
+                    entry.refreshComplete();
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The stale entry that this exchange is refreshing, or null if it is not refreshing an entry
+     */
+    DirectBufferCache.CacheEntry<CachedHttpRequest> getRefreshedEntry() {
+        return refreshedEntry;
+    }
+
     boolean isResponseCachable() {
         return responseCachable;
     }
 
+    /**
+     * Called once the response this exchange generated has been cached, or has failed to be cached, to
+     * resume any requests that are waiting for it.
+     */
+    void loadComplete() {
+        final ResponseLoads.Load load = this.load;
+        if (load != null) {
+            loads.complete(load);
+        }
+    }
+
     private static class DereferenceCallback implements IoCallback {
         private final DirectBufferCache.CacheEntry cache;
 
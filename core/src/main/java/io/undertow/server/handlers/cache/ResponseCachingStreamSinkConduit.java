@@ -17,6 +17,7 @@ import org.xnio.conduits.StreamSinkConduit;
 public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
 
     private final DirectBufferCache.CacheEntry cacheEntry;
+    private final ResponseCache responseCache;
     private final long length;
     private long written;
 
@@ -28,8 +29,21 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
      * @param length
      */
     protected ResponseCachingStreamSinkConduit(final StreamSinkConduit next, final DirectBufferCache.CacheEntry cacheEntry, final long length) {
+        this(next, cacheEntry, null, length);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param next          the delegate conduit to set
+     * @param cacheEntry
+     * @param responseCache the response cache of the exchange, which is notified once the entry is complete
+     * @param length
+     */
+    protected ResponseCachingStreamSinkConduit(final StreamSinkConduit next, final DirectBufferCache.CacheEntry cacheEntry, final ResponseCache responseCache, final long length) {
         super(next);
         this.cacheEntry = cacheEntry;
+        this.responseCache = responseCache;
         this.length = length;
     }
 
@@ -81,10 +95,13 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
     public void terminateWrites() throws IOException {
         if (written == length) {
             cacheEntry.enable();
+            //the reference that was taken to write the entry
+            cacheEntry.dereference();
         } else {
             cacheEntry.disable();
             cacheEntry.dereference();
         }
+        loadComplete();
         super.terminateWrites();
     }
 
@@ -92,6 +109,14 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
     public void truncateWrites() throws IOException {
         cacheEntry.disable();
         cacheEntry.dereference();
+        loadComplete();
         super.truncateWrites();
     }
+
+    private void loadComplete() {
+        if (responseCache != null) {
+            //requests waiting for this response can now be served from the cache
+            responseCache.loadComplete();
+        }
+    }
 }
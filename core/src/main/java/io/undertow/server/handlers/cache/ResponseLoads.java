@@ -0,0 +1,172 @@
+package io.undertow.server.handlers.cache;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpHandlers;
+import io.undertow.server.HttpServerExchange;
+import org.xnio.XnioExecutor;
+
+/**
+ * Registry of the responses that are currently being generated to be cached, keyed by path.
+ * <p/>
+ * When a cachable response misses in the cache the first exchange to miss becomes the leader and
+ * generates the response, while concurrent exchanges for the same URL wait for the leader to finish
+ * rather than all running the handler chain at once. Once the leader's response has been cached,
+ * or it is clear that it will not be, the waiting exchanges are resumed so they can be served from
+ * the cache.
+ */
+final class ResponseLoads {
+
+    /**
+     * The default maximum time in milliseconds an exchange waits for a response that is being loaded
+     */
+    static final long DEFAULT_MAXIMUM_WAIT_TIME = 1000;
+
+    private final ConcurrentMap<String, Load> loads = new ConcurrentHashMap<String, Load>();
+    private volatile long maximumWaitTime = DEFAULT_MAXIMUM_WAIT_TIME;
+
+    long getMaximumWaitTime() {
+        return maximumWaitTime;
+    }
+
+    void setMaximumWaitTime(final long maximumWaitTime) {
+        this.maximumWaitTime = maximumWaitTime;
+    }
+
+    /**
+     * Registers the exchange as the one loading the response for its URL.
+     *
+     * @param exchange        The exchange
+     * @param contentEncoding The content encoding that would be applied to the response
+     * @return The load, or null if another exchange is already loading a response for the URL
+     */
+    Load start(final HttpServerExchange exchange, final String contentEncoding) {
+        final Load load = new Load(exchange.getRequestPath(), exchange.getQueryString(), contentEncoding);
+        if (loads.putIfAbsent(load.path, load) == null) {
+            return load;
+        }
+        return null;
+    }
+
+    /**
+     * @param exchange        The exchange
+     * @param contentEncoding The content encoding that would be applied to the response
+     * @return The load in progress that would produce the response for the exchange, or null if there is none
+     */
+    Load get(final HttpServerExchange exchange, final String contentEncoding) {
+        final Load load = loads.get(exchange.getRequestPath());
+        if (load == null || !load.matches(exchange, contentEncoding)) {
+            return null;
+        }
+        return load;
+    }
+
+    /**
+     * Marks the load as complete, and resumes all exchanges that are waiting on it. This may be called more
+     * than once.
+     */
+    void complete(final Load load) {
+        loads.remove(load.path, load);
+        load.complete = true;
+        Waiter waiter;
+        while ((waiter = load.waiters.poll()) != null) {
+            waiter.cancelTimeout();
+            waiter.resume();
+        }
+    }
+
+    static final class Load {
+
+        private final String path;
+        private final String queryString;
+        private final String contentEncoding;
+        private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+        private volatile boolean complete;
+
+        private Load(final String path, final String queryString, final String contentEncoding) {
+            this.path = path;
+            this.queryString = queryString;
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * The load only knows the URL and content encoding of the response, as the headers it varies on are not
+         * known until it is complete. An exchange that waits for a different variant will miss once it is
+         * resumed, and generate the response itself.
+         */
+        private boolean matches(final HttpServerExchange exchange, final String contentEncoding) {
+            return equal(queryString, exchange.getQueryString()) && equal(this.contentEncoding, contentEncoding);
+        }
+
+        /**
+         * Parks the exchange until the load is complete, or until the given time has elapsed. The exchange is then
+         * resumed by running the handler again in the IO thread. This must be called from within the exchange's
+         * IO thread, so the exchange cannot be resumed before the current call has returned.
+         *
+         * @param exchange    The exchange
+         * @param handler     The handler to run when the exchange is resumed
+         * @param maximumWait The maximum time to wait in milliseconds
+         */
+        void await(final HttpServerExchange exchange, final HttpHandler handler, final long maximumWait) {
+            exchange.dispatch();
+            final Waiter waiter = new Waiter(this, exchange, handler);
+            waiters.add(waiter);
+            if (complete && waiters.remove(waiter)) {
+                //the load completed while we were being added
+                waiter.resume();
+                return;
+            }
+            waiter.timeoutKey = exchange.getIoThread().executeAfter(waiter, maximumWait, TimeUnit.MILLISECONDS);
+        }
+
+        private static boolean equal(final String a, final String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * An exchange that is waiting on a load. Whichever of the load completing or the timeout removes it
+     * from the queue of waiters resumes the exchange.
+     */
+    private static final class Waiter implements Runnable {
+
+        private final Load load;
+        private final HttpServerExchange exchange;
+        private final HttpHandler handler;
+        private volatile XnioExecutor.Key timeoutKey;
+
+        private Waiter(final Load load, final HttpServerExchange exchange, final HttpHandler handler) {
+            this.load = load;
+            this.exchange = exchange;
+            this.handler = handler;
+        }
+
+        void cancelTimeout() {
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+        }
+
+        void resume() {
+            exchange.getIoThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    HttpHandlers.executeRootHandler(handler, exchange, true);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (load.waiters.remove(this)) {
+                resume();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.undertow.server.handlers.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * Index of the cached variants of each URL, keyed by path. This allows the variant that matches a request
+ * to be selected by comparing the request headers against the variants that are in the cache, rather than
+ * by building a key from the request for every lookup.
+ * <p/>
+ * Keys are removed from the index when their entry is removed from the cache, so the index does not grow
+ * beyond the number of entries the cache holds.
+ */
+final class ResponseVariants implements DirectBufferCache.RemovalListener<CachedHttpRequest> {
+
+    /**
+     * The maximum number of variants of a single path, including variants for different query strings. As variants
+     * are selected with a linear search, a path that has many distinct variants is not cached beyond this.
+     */
+    private static final int MAX_VARIANTS = 16;
+
+    private final ConcurrentMap<String, CachedHttpRequest[]> variants = new ConcurrentHashMap<String, CachedHttpRequest[]>();
+
+    /**
+     * @param exchange        The exchange
+     * @param contentEncoding The content encoding that would be applied to the response
+     * @return The key of the variant to serve, or null if there is no matching variant
+     */
+    CachedHttpRequest select(final HttpServerExchange exchange, final String contentEncoding) {
+        final CachedHttpRequest[] keys = variants.get(exchange.getRequestPath());
+        if (keys == null) {
+            return null;
+        }
+        for (CachedHttpRequest key : keys) {
+            if (key.matches(exchange, contentEncoding)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if the key is already indexed, or there is room to add it
+     */
+    boolean hasRoom(final CachedHttpRequest key) {
+        final CachedHttpRequest[] existing = variants.get(key.getPath());
+        return existing == null || existing.length < MAX_VARIANTS || indexOf(existing, key) != -1;
+    }
+
+    /**
+     * @return <code>true</code> if the key is indexed, or <code>false</code> if the path already has the
+     *         maximum number of variants
+     */
+    boolean add(final CachedHttpRequest key) {
+        final String path = key.getPath();
+        for (;;) {
+            final CachedHttpRequest[] existing = variants.putIfAbsent(path, new CachedHttpRequest[]{key});
+            if (existing == null || indexOf(existing, key) != -1) {
+                return true;
+            }
+            if (existing.length == MAX_VARIANTS) {
+                return false;
+            }
+            final CachedHttpRequest[] updated = Arrays.copyOf(existing, existing.length + 1);
+            updated[existing.length] = key;
+            if (variants.replace(path, existing, updated)) {
+                return true;
+            }
+        }
+    }
+
+    void remove(final CachedHttpRequest key) {
+        final String path = key.getPath();
+        for (;;) {
+            final CachedHttpRequest[] existing = variants.get(path);
+            if (existing == null) {
+                return;
+            }
+            final int index = indexOf(existing, key);
+            if (index == -1) {
+                return;
+            }
+            if (existing.length == 1) {
+                if (variants.remove(path, existing)) {
+                    return;
+                }
+            } else {
+                final CachedHttpRequest[] updated = new CachedHttpRequest[existing.length - 1];
+                System.arraycopy(existing, 0, updated, 0, index);
+                System.arraycopy(existing, index + 1, updated, index, updated.length - index);
+                if (variants.replace(path, existing, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removed(final CachedHttpRequest key) {
+        remove(key);
+    }
+
+    private static int indexOf(final CachedHttpRequest[] keys, final CachedHttpRequest key) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
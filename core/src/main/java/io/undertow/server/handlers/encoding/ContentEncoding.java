@@ -41,6 +41,10 @@ public class ContentEncoding implements ConduitWrapper<StreamSinkConduit> {
 
     @Override
     public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+        if (exchange.getResponseHeaders().contains(Headers.CONTENT_ENCODING)) {
+            //the response is already encoded, e.g. because it is being served from a cache
+            return factory.create();
+        }
         for (EncodingMapping encoding : encodings) {
             if (encoding.getAllowed().resolve(exchange)) {
                 exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding.getName());
@@ -139,7 +139,7 @@ public class EncodingHandler implements HttpHandler {
     }
 
     public synchronized EncodingHandler addEncodingHandler(final String encoding, final ContentEncodingProvider encoder, int priority, final Predicate<HttpServerExchange> enabledPredicate) {
-        this.encodingMap.put(encoding, new EncodingMapping(encoding, encoder, priority, enabledPredicate));
+        this.encodingMap.put(encoding, new EncodingMapping(encoding, encoder, priority, Predicates.compile(enabledPredicate)));
         return this;
     }
 
@@ -32,6 +32,7 @@ import java.util.List;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ByteRange;
 import io.undertow.util.ETag;
 import io.undertow.util.MimeMappings;
 import org.jboss.logging.Logger;
@@ -46,7 +47,7 @@ import org.xnio.channels.StreamSinkChannel;
  *
  * @author Stuart Douglas
  */
-public class FileResource implements Resource {
+public class FileResource implements RangeAwareResource {
 
     private static final Logger log = Logger.getLogger("io.undertow.server.resources.file");
     private final Path file;
@@ -105,6 +106,11 @@ public class FileResource implements Resource {
 
     @Override
     public void serve(final HttpServerExchange exchange) {
+        serveRanges(exchange, null);
+    }
+
+    @Override
+    public void serveRanges(final HttpServerExchange exchange, final ByteRange range) {
         //TODO: should be using async IO here as much as possible
         final FileChannel fileChannel;
         try {
@@ -131,8 +137,22 @@ public class FileResource implements Resource {
 
 
         try {
-            log.tracef("Serving file %s (blocking)", fileChannel);
-            Channels.transferBlocking(response, fileChannel, 0, Files.size(file));
+            if (range == null) {
+                log.tracef("Serving file %s (blocking)", fileChannel);
+                Channels.transferBlocking(response, fileChannel, 0, Files.size(file));
+            } else {
+                log.tracef("Serving %s ranges of file %s (blocking)", range.getRangeCount(), fileChannel);
+                for (int i = 0; i < range.getRangeCount(); ++i) {
+                    if (range.isMultipart()) {
+                        Channels.writeBlocking(response, range.getPartHeader(i));
+                    }
+                    //the transfer reads the file at the start of the range, without moving the position of the channel
+                    Channels.transferBlocking(response, fileChannel, range.getStart(i), range.getLength(i));
+                }
+                if (range.isMultipart()) {
+                    Channels.writeBlocking(response, range.getClosingDelimiter());
+                }
+            }
             log.tracef("Finished serving %s, shutting down (blocking)", fileChannel);
             response.shutdownWrites();
             log.tracef("Finished serving %s, flushing (blocking)", fileChannel);
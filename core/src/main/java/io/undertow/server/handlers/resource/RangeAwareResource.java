@@ -0,0 +1,19 @@
+package io.undertow.server.handlers.resource;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ByteRange;
+
+/**
+ * A resource that can serve parts of its content, in response to requests with a <code>Range</code> header.
+ */
+public interface RangeAwareResource extends Resource {
+
+    /**
+     * Serve the given ranges of the resource, and end the exchange when done. The response code and
+     * headers have already been set.
+     *
+     * @param exchange The exchange
+     * @param range    The ranges to serve
+     */
+    void serveRanges(final HttpServerExchange exchange, final ByteRange range);
+}
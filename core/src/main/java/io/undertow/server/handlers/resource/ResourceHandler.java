@@ -11,6 +11,8 @@ import io.undertow.predicate.Predicates;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.server.handlers.encoding.ContentEncoding;
+import io.undertow.util.ByteRange;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
 import io.undertow.util.ETagUtils;
@@ -96,7 +98,8 @@ public class ResourceHandler implements HttpHandler {
         }
 
         if (cache != null && cachable) {
-            if (cache.tryServeResponse()) {
+            //if another request is loading the resource this request waits for it, and this handler is run again
+            if (cache.tryServeResponse(this)) {
                 return;
             }
         }
@@ -150,7 +153,6 @@ public class ResourceHandler implements HttpHandler {
                     exchange.endExchange();
                     return;
                 }
-                //todo: handle range requests
                 //we are going to proceed. Set the appropriate headers
                 final String contentType = resource.getContentType(mimeMappings);
                 if (contentType != null) {
@@ -162,14 +164,25 @@ public class ResourceHandler implements HttpHandler {
                     exchange.getResponseHeaders().put(Headers.LAST_MODIFIED, DateUtils.toDateString(lastModified));
                 }
                 if (etag != null) {
-                    exchange.getResponseHeaders().put(Headers.CONTENT_LANGUAGE, etag.toString());
+                    exchange.getResponseHeaders().put(Headers.ETAG, etag.toString());
                 }
                 Long contentLength = resource.getContentLength();
                 if (contentLength != null) {
                     exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, contentLength.toString());
                 }
+                ByteRange range = null;
+                if (contentLength != null && resource instanceof RangeAwareResource && !isEncoded(exchange)) {
+                    exchange.getResponseHeaders().put(Headers.ACCEPT_RANGES, "bytes");
+                    range = ByteRange.handleRange(exchange, contentLength, etag, lastModified);
+                    if (range != null && range.getRangeCount() == 0) {
+                        //none of the ranges could be satisfied
+                        return;
+                    }
+                }
                 if (!sendContent) {
                     exchange.endExchange();
+                } else if (range != null) {
+                    ((RangeAwareResource) resource).serveRanges(exchange, range);
                 } else {
                     resource.serve(exchange);
                 }
@@ -179,6 +192,15 @@ public class ResourceHandler implements HttpHandler {
 
     }
 
+    /**
+     * @return <code>true</code> if the response will be encoded as it is sent, in which case ranges of the
+     *         resource cannot be served
+     */
+    private static boolean isEncoded(final HttpServerExchange exchange) {
+        final ContentEncoding encoding = exchange.getAttachment(ContentEncoding.CONENT_ENCODING);
+        return encoding != null && !encoding.getCurrentContentEncoding().equals(Headers.IDENTITY.toString());
+    }
+
     public boolean isDirectoryListingEnabled() {
         return directoryListingEnabled;
     }
@@ -213,7 +235,7 @@ public class ResourceHandler implements HttpHandler {
     }
 
     public ResourceHandler setCachable(final Predicate<HttpServerExchange> cachable) {
-        this.cachable = cachable;
+        this.cachable = Predicates.compile(cachable);
         return this;
     }
 
@@ -222,7 +244,7 @@ public class ResourceHandler implements HttpHandler {
     }
 
     public ResourceHandler setAllowed(final Predicate<HttpServerExchange> allowed) {
-        this.allowed = allowed;
+        this.allowed = Predicates.compile(allowed);
         return this;
     }
 
@@ -18,6 +18,7 @@
 
 package io.undertow.util;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -27,12 +28,25 @@ import io.undertow.UndertowMessages;
 
 /**
  * A thing which can have named attachments.
+ * <p/>
+ * Every {@link AttachmentKey} is assigned a dense index when it is created, so attachments are stored in an array
+ * indexed by key, which is only allocated once the first attachment is added. Keys with very large indexes, which
+ * should only happen if keys are being created dynamically, are stored in a map instead.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public abstract class AbstractAttachable implements Attachable {
 
-    private final Map<AttachmentKey<?>, Object> attachments = new IdentityHashMap<>(32);
+    /**
+     * The maximum key index that is stored in the attachment array
+     */
+    private static final int MAX_INDEXED_KEYS = 256;
+
+    private static final int INITIAL_SIZE = 16;
+
+    private Object[] attachments;
+
+    private Map<AttachmentKey<?>, Object> overflow;
 
     /**
      * {@inheritDoc}
@@ -42,7 +56,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             return null;
         }
-        return key.cast(attachments.get(key));
+        return key.cast(get(key));
     }
 
     /**
@@ -53,7 +67,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             return null;
         }
-        List<T> list = key.cast(attachments.get(key));
+        List<T> list = key.cast(get(key));
         if (list == null) {
             return Collections.emptyList();
         }
@@ -68,7 +82,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             throw UndertowMessages.MESSAGES.argumentCannotBeNull("key");
         }
-        return key.cast(attachments.put(key, key.cast(value)));
+        return key.cast(put(key, key.cast(value)));
     }
 
     /**
@@ -79,7 +93,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             return null;
         }
-        return key.cast(attachments.remove(key));
+        return key.cast(put(key, null));
     }
 
     /**
@@ -88,11 +102,10 @@ public abstract class AbstractAttachable implements Attachable {
     @Override
     public <T> void addToAttachmentList(final AttachmentKey<AttachmentList<T>> key, final T value) {
         if (key != null) {
-            final Map<AttachmentKey<?>, Object> attachments = this.attachments;
-            final AttachmentList<T> list = key.cast(attachments.get(key));
+            final AttachmentList<T> list = key.cast(get(key));
             if (list == null) {
                 final AttachmentList<T> newList = new AttachmentList<T>(((ListAttachmentKey<T>) key).getValueClass());
-                attachments.put(key, newList);
+                put(key, newList);
                 newList.add(value);
             } else {
                 list.add(value);
@@ -100,4 +113,59 @@ public abstract class AbstractAttachable implements Attachable {
         }
     }
 
+    /**
+     * Removes all attachments
+     */
+    protected void clearAttachments() {
+        if (attachments != null) {
+            Arrays.fill(attachments, null);
+        }
+        if (overflow != null) {
+            overflow.clear();
+        }
+    }
+
+    private Object get(final AttachmentKey<?> key) {
+        final int index = key.index;
+        if (index < MAX_INDEXED_KEYS) {
+            final Object[] attachments = this.attachments;
+            if (attachments == null || index >= attachments.length) {
+                return null;
+            }
+            return attachments[index];
+        }
+        return overflow == null ? null : overflow.get(key);
+    }
+
+    /**
+     * Sets the value for the given key, a null value removes the attachment.
+     *
+     * @return The previous value
+     */
+    private Object put(final AttachmentKey<?> key, final Object value) {
+        final int index = key.index;
+        if (index < MAX_INDEXED_KEYS) {
+            Object[] attachments = this.attachments;
+            if (attachments == null || index >= attachments.length) {
+                if (value == null) {
+                    return null;
+                }
+                int size = attachments == null ? INITIAL_SIZE : attachments.length;
+                while (size <= index) {
+                    size <<= 1;
+                }
+                this.attachments = attachments = attachments == null ? new Object[size] : Arrays.copyOf(attachments, size);
+            }
+            final Object old = attachments[index];
+            attachments[index] = value;
+            return old;
+        }
+        if (value == null) {
+            return overflow == null ? null : overflow.remove(key);
+        }
+        if (overflow == null) {
+            overflow = new IdentityHashMap<>();
+        }
+        return overflow.put(key, value);
+    }
 }
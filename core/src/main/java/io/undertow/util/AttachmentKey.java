@@ -18,6 +18,8 @@
 
 package io.undertow.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Stuart Douglas
  */
@@ -29,7 +31,15 @@ package io.undertow.util;
  */
 public abstract class AttachmentKey<T> {
 
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+
+    /**
+     * A dense index that is unique to this key, used by {@link AbstractAttachable} to store attachments in an array
+     */
+    final int index;
+
     AttachmentKey() {
+        index = NEXT_INDEX.getAndIncrement();
     }
 
     /**
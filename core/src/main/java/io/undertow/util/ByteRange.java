@@ -0,0 +1,273 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * The byte ranges of a representation that were requested with a <code>Range</code> header, resolved against
+ * the length of the representation.
+ * <p/>
+ * A single range is sent as the body of a 206 response. Several ranges are sent as a
+ * <code>multipart/byteranges</code> body, in which each range is preceded by the part header returned by
+ * {@link #getPartHeader(int)}, and which is ended by {@link #getClosingDelimiter()}.
+ */
+public final class ByteRange {
+
+    /**
+     * The maximum number of ranges that are served. If more are requested the whole representation is sent,
+     * as many small ranges cost more to serve than they save.
+     */
+    private static final int MAX_RANGES = 16;
+
+    private static final String BYTES = "bytes";
+    private static final String CRLF = "\r\n";
+
+    private final long[] starts;
+    private final long[] ends;
+    private final long length;
+    private final String contentType;
+    private final String boundary;
+
+    private ByteRange(final long[] starts, final long[] ends, final long length, final String contentType, final String boundary) {
+        this.starts = starts;
+        this.ends = ends;
+        this.length = length;
+        this.contentType = contentType;
+        this.boundary = boundary;
+    }
+
+    /**
+     * Handles the range and if-range headers of a request for a representation of the given length.
+     * <p/>
+     * If part of the representation should be sent then the response code and the <code>Content-Length</code>
+     * and <code>Content-Range</code> headers are set, and for multiple ranges the <code>Content-Type</code> header
+     * is replaced with <code>multipart/byteranges</code>, so the content type of the representation must already
+     * have been set. If none of the requested ranges can be satisfied the exchange is ended with a 416 response.
+     *
+     * @param exchange     The exchange
+     * @param length       The length of the representation
+     * @param etag         The etag of the representation, or null if it has none
+     * @param lastModified The last modified date of the representation, or null if it is unknown
+     * @return The ranges to send, an instance with no ranges if the exchange has been ended, or null if the whole
+     *         representation should be sent
+     */
+    public static ByteRange handleRange(final HttpServerExchange exchange, final long length, final ETag etag, final Date lastModified) {
+        if (!exchange.getRequestMethod().equals(Methods.GET)) {
+            return null;
+        }
+        final String header = exchange.getRequestHeaders().getFirst(Headers.RANGE);
+        if (header == null || !handleIfRange(exchange, etag, lastModified)) {
+            return null;
+        }
+        final ByteRange range = parse(header, length);
+        if (range == null) {
+            return null;
+        }
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        if (range.getRangeCount() == 0) {
+            exchange.setResponseCode(416);
+            responseHeaders.put(Headers.CONTENT_RANGE, BYTES + " */" + length);
+            responseHeaders.put(Headers.CONTENT_LENGTH, "0");
+            exchange.endExchange();
+            return range;
+        }
+        exchange.setResponseCode(206);
+        if (range.getRangeCount() == 1) {
+            responseHeaders.put(Headers.CONTENT_RANGE, range.getContentRange(0));
+            responseHeaders.put(Headers.CONTENT_LENGTH, Long.toString(range.getLength(0)));
+            return range;
+        }
+        final String boundary = "UNDERTOW_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        final ByteRange multipart = new ByteRange(range.starts, range.ends, length, responseHeaders.getFirst(Headers.CONTENT_TYPE), boundary);
+        responseHeaders.put(Headers.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        responseHeaders.put(Headers.CONTENT_LENGTH, Long.toString(multipart.getContentLength()));
+        return multipart;
+    }
+
+    /**
+     * Handles the if-range header. returns true if the requested ranges should be sent, false if the whole
+     * representation should be sent
+     *
+     * @param exchange     The exchange
+     * @param etag         The etag of the representation, or null if it has none
+     * @param lastModified The last modified date of the representation, or null if it is unknown
+     * @return
+     */
+    public static boolean handleIfRange(final HttpServerExchange exchange, final ETag etag, final Date lastModified) {
+        final String ifRange = exchange.getRequestHeaders().getFirst(Headers.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        final String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            //an entity tag, which has to match strongly
+            if (etag == null || etag.isWeak()) {
+                return false;
+            }
+            final List<ETag> tags = ETagUtils.parseETagList(value);
+            return tags.size() == 1 && !tags.get(0).isWeak() && tags.get(0).getTag().equals(etag.getTag());
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        final Date date = DateUtils.parseDate(value);
+        //http dates only have a resolution of a second
+        return date != null && date.getTime() / 1000 == lastModified.getTime() / 1000;
+    }
+
+    /**
+     * Parses the value of a range header.
+     *
+     * @param header The header value
+     * @param length The length of the representation
+     * @return The satisfiable ranges, an instance with no ranges if none of the ranges can be satisfied, or null
+     *         if the header is not a valid byte range set or asks for too many ranges, and should be ignored
+     */
+    public static ByteRange parse(final String header, final long length) {
+        final int index = header.indexOf('=');
+        if (index == -1 || !header.substring(0, index).trim().equalsIgnoreCase(BYTES)) {
+            return null;
+        }
+        final String[] specs = header.substring(index + 1).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        final long[] starts = new long[specs.length];
+        final long[] ends = new long[specs.length];
+        int count = 0;
+        for (String spec : specs) {
+            final int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            try {
+                if (first.isEmpty()) {
+                    //the last n bytes
+                    final long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < length && start <= end) {
+                starts[count] = start;
+                ends[count] = end;
+                ++count;
+            }
+        }
+        return new ByteRange(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), length, null, null);
+    }
+
+    public int getRangeCount() {
+        return starts.length;
+    }
+
+    /**
+     * @return The offset of the first byte of the range
+     */
+    public long getStart(final int range) {
+        return starts[range];
+    }
+
+    /**
+     * @return The offset of the last byte of the range
+     */
+    public long getEnd(final int range) {
+        return ends[range];
+    }
+
+    public long getLength(final int range) {
+        return ends[range] - starts[range] + 1;
+    }
+
+    /**
+     * @return The value of the <code>Content-Range</code> header for the range
+     */
+    public String getContentRange(final int range) {
+        return BYTES + " " + starts[range] + "-" + ends[range] + "/" + length;
+    }
+
+    /**
+     * @return <code>true</code> if the ranges are sent as a <code>multipart/byteranges</code> body
+     */
+    public boolean isMultipart() {
+        return boundary != null;
+    }
+
+    /**
+     * @return The bytes that are sent before the range in a multipart body
+     */
+    public ByteBuffer getPartHeader(final int range) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(CRLF).append("--").append(boundary).append(CRLF);
+        if (contentType != null) {
+            builder.append(Headers.CONTENT_TYPE_STRING).append(": ").append(contentType).append(CRLF);
+        }
+        builder.append(Headers.CONTENT_RANGE_STRING).append(": ").append(getContentRange(range)).append(CRLF);
+        builder.append(CRLF);
+        return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return The bytes that end a multipart body
+     */
+    public ByteBuffer getClosingDelimiter() {
+        return ByteBuffer.wrap((CRLF + "--" + boundary + "--" + CRLF).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return The length of the response body
+     */
+    public long getContentLength() {
+        long contentLength = 0;
+        for (int i = 0; i < starts.length; ++i) {
+            if (isMultipart()) {
+                contentLength += getPartHeader(i).remaining();
+            }
+            contentLength += getLength(i);
+        }
+        if (isMultipart()) {
+            contentLength += getClosingDelimiter().remaining();
+        }
+        return contentLength;
+    }
+}
@@ -18,33 +18,33 @@
 
 package io.undertow.util;
 
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
 
 import io.undertow.server.HttpServerExchange;
 
 /**
  * Utility for parsing and generating dates
+ * <p/>
+ * Dates are formatted and parsed by hand rather than through {@link java.text.SimpleDateFormat}, which is
+ * expensive to create and not thread safe. The current date is also cached, and only formatted once a second.
  *
  * @author Stuart Douglas
  */
 public class DateUtils {
 
-    private static final Locale LOCALE_US = Locale.US;
+    private static final String[] DAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
 
-    private static final TimeZone GMT_ZONE = TimeZone.getTimeZone("GMT");
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
 
-    private static final String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
 
-    private static final String RFC1036_PATTERN = "EEEEEEEEE, dd-MMM-yy HH:mm:ss z";
-
-    private static final String ASCITIME_PATTERN = "EEE MMM d HH:mm:ss yyyyy";
-
-    private static final String OLD_COOKIE_PATTERN = "EEE, dd-MMM-yyyy HH:mm:ss z";
+    /**
+     * The length of a RFC-1123 date string, e.g. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>
+     */
+    private static final int DATE_LENGTH = 29;
 
+    private static volatile CachedDate cachedDate;
 
     /**
      * Converts a date to a format suitable for use in a HTTP request
@@ -53,58 +53,319 @@ public class DateUtils {
      * @return The RFC-1123 formatted date
      */
     public static String toDateString(final Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        return dateFormat.format(date);
+        return new String(formatDate(date.getTime(), ' '));
     }
 
 
     public static String toOldCookieDateString(final Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(OLD_COOKIE_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        return dateFormat.format(date);
+        return new String(formatDate(date.getTime(), '-'));
+    }
+
+    /**
+     * Returns the current date as a RFC-1123 formatted string. The value is cached, and only
+     * regenerated when the second changes.
+     *
+     * @return The current date
+     */
+    public static String getCurrentDateTime() {
+        return currentDate().string;
+    }
+
+    /**
+     * Writes the current date to the given buffer as RFC-1123 formatted ASCII bytes. The buffer
+     * must have at least 29 bytes remaining.
+     *
+     * @param buffer The buffer to write to
+     */
+    public static void putCurrentDateTime(final ByteBuffer buffer) {
+        buffer.put(currentDate().bytes);
+    }
+
+    private static CachedDate currentDate() {
+        final long now = System.currentTimeMillis();
+        final long second = now / 1000;
+        CachedDate cached = cachedDate;
+        if (cached == null || cached.second != second) {
+            //races are harmless here, the worst case is that the date is formatted more than once
+            cachedDate = cached = new CachedDate(second, formatDate(second * 1000, ' '));
+        }
+        return cached;
     }
 
     /**
-     * Attempts to pass a HTTP date.
+     * Formats a date in the format <code>EEE, dd MMM yyyy HH:mm:ss GMT</code>, using the given separator between
+     * the day, month and year.
+     */
+    private static char[] formatDate(final long time, final char separator) {
+        long days = time / MILLIS_PER_DAY;
+        long millisOfDay = time % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            millisOfDay += MILLIS_PER_DAY;
+            --days;
+        }
+        final int secondOfDay = (int) (millisOfDay / 1000);
+        //1970-01-01 was a Thursday
+        int dayOfWeek = (int) ((days + 4) % 7);
+        if (dayOfWeek < 0) {
+            dayOfWeek += 7;
+        }
+
+        //convert the epoch day to a civil date, see http://howardhinnant.github.io/date_algorithms.html
+        final long shifted = days + 719468;
+        final long era = (shifted >= 0 ? shifted : shifted - 146096) / 146097;
+        final int dayOfEra = (int) (shifted - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int mp = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            throw new IllegalArgumentException("Date out of range " + time);
+        }
+
+        final char[] result = new char[DATE_LENGTH];
+        final String dayName = DAYS[dayOfWeek];
+        result[0] = dayName.charAt(0);
+        result[1] = dayName.charAt(1);
+        result[2] = dayName.charAt(2);
+        result[3] = ',';
+        result[4] = ' ';
+        putTwoDigits(result, 5, day);
+        result[7] = separator;
+        final String monthName = MONTHS[month - 1];
+        result[8] = monthName.charAt(0);
+        result[9] = monthName.charAt(1);
+        result[10] = monthName.charAt(2);
+        result[11] = separator;
+        putTwoDigits(result, 12, (int) (year / 100));
+        putTwoDigits(result, 14, (int) (year % 100));
+        result[16] = ' ';
+        putTwoDigits(result, 17, secondOfDay / 3600);
+        result[19] = ':';
+        putTwoDigits(result, 20, secondOfDay / 60 % 60);
+        result[22] = ':';
+        putTwoDigits(result, 23, secondOfDay % 60);
+        result[25] = ' ';
+        result[26] = 'G';
+        result[27] = 'M';
+        result[28] = 'T';
+        return result;
+    }
+
+    private static void putTwoDigits(final char[] result, final int pos, final int value) {
+        result[pos] = (char) ('0' + value / 10);
+        result[pos + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Attempts to pass a HTTP date. The RFC-1123, RFC-1036 and ANSI C asctime() formats are
+     * supported, as well as the old Netscape cookie format.
      *
      * @param date The date to parse
      * @return The parsed date, or null if parsing failed
      */
     public static Date parseDate(final String date) {
-        ParsePosition pp = new ParsePosition(0);
-        SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        Date val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+        final long time = parseDateMillis(date);
+        if (time == -1) {
+            return null;
         }
+        return new Date(time);
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(RFC1036_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    /**
+     * Parses a HTTP date, in any of the formats supported by {@link #parseDate(String)}, without allocating.
+     *
+     * @param date The date to parse
+     * @return The number of milliseconds since the epoch, or -1 if parsing failed
+     */
+    public static long parseDateMillis(final String date) {
+        if (date == null) {
+            return -1;
+        }
+        final int length = date.length();
+        int pos = 0;
+        //the day of the week, we ignore the actual value
+        while (pos < length && isLetter(date.charAt(pos))) {
+            ++pos;
         }
+        if (pos < 3 || pos == length) {
+            return -1;
+        }
+        final int day;
+        final int month;
+        final int year;
+        final int time;
+        if (date.charAt(pos) == ',') {
+            //RFC-1123: Sun, 06 Nov 1994 08:49:37 GMT
+            //RFC-1036: Sunday, 06-Nov-94 08:49:37 GMT
+            //Netscape: Sun, 06-Nov-1994 08:49:37 GMT
+            ++pos;
+            while (pos < length && date.charAt(pos) == ' ') {
+                ++pos;
+            }
+            final int dayStart = pos;
+            day = parseNumber(date, pos, 2);
+            if (day == -1) {
+                return -1;
+            }
+            pos = skipDigits(date, pos);
+            if (pos - dayStart > 2 || pos == length) {
+                return -1;
+            }
+            final char separator = date.charAt(pos++);
+            if (separator != ' ' && separator != '-') {
+                return -1;
+            }
+            month = parseMonth(date, pos);
+            pos += 3;
+            if (month == -1 || pos >= length || date.charAt(pos++) != separator) {
+                return -1;
+            }
+            final int yearStart = pos;
+            int parsedYear = parseNumber(date, pos, 4);
+            pos = skipDigits(date, pos);
+            if (parsedYear == -1) {
+                return -1;
+            }
+            if (pos - yearStart == 2) {
+                parsedYear += parsedYear < 70 ? 2000 : 1900;
+            } else if (pos - yearStart != 4) {
+                return -1;
+            }
+            year = parsedYear;
+            if (pos >= length || date.charAt(pos++) != ' ') {
+                return -1;
+            }
+            time = parseTime(date, pos);
+            pos += 8;
+            if (time == -1 || pos >= length || date.charAt(pos++) != ' ') {
+                return -1;
+            }
+            if (!date.regionMatches(true, pos, "GMT", 0, 3) && !date.regionMatches(true, pos, "UTC", 0, 3)) {
+                return -1;
+            }
+            if (pos + 3 != length) {
+                return -1;
+            }
+        } else if (date.charAt(pos) == ' ') {
+            //asctime: Sun Nov  6 08:49:37 1994
+            ++pos;
+            month = parseMonth(date, pos);
+            pos += 3;
+            if (month == -1 || pos >= length || date.charAt(pos++) != ' ') {
+                return -1;
+            }
+            while (pos < length && date.charAt(pos) == ' ') {
+                ++pos;
+            }
+            final int dayStart = pos;
+            day = parseNumber(date, pos, 2);
+            pos = skipDigits(date, pos);
+            if (day == -1 || pos - dayStart > 2 || pos >= length || date.charAt(pos++) != ' ') {
+                return -1;
+            }
+            time = parseTime(date, pos);
+            pos += 8;
+            if (time == -1 || pos >= length || date.charAt(pos++) != ' ') {
+                return -1;
+            }
+            year = parseNumber(date, pos, 4);
+            if (year == -1 || skipDigits(date, pos) != length || length - pos != 4) {
+                return -1;
+            }
+        } else {
+            return -1;
+        }
+        if (day < 1 || day > 31) {
+            return -1;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + time * 1000L;
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(ASCITIME_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    private static boolean isLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int skipDigits(final String date, int pos) {
+        final int length = date.length();
+        while (pos < length && date.charAt(pos) >= '0' && date.charAt(pos) <= '9') {
+            ++pos;
         }
+        return pos;
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(OLD_COOKIE_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    /**
+     * Parses up to maxDigits digits starting at pos
+     *
+     * @return the value, or -1 if there are no digits at pos
+     */
+    private static int parseNumber(final String date, final int pos, final int maxDigits) {
+        final int end = Math.min(date.length(), pos + maxDigits);
+        int value = 0;
+        int i = pos;
+        for (; i < end; ++i) {
+            final char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
         }
+        return i == pos ? -1 : value;
+    }
 
-        return null;
+    /**
+     * @return The month, from 1 to 12, or -1 if there is no month name at the given position
+     */
+    private static int parseMonth(final String date, final int pos) {
+        for (int i = 0; i < MONTHS.length; ++i) {
+            if (date.regionMatches(true, pos, MONTHS[i], 0, 3)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a time in the format HH:mm:ss
+     *
+     * @return The number of seconds into the day, or -1 if the time is invalid
+     */
+    private static int parseTime(final String date, final int pos) {
+        if (pos + 8 > date.length() || date.charAt(pos + 2) != ':' || date.charAt(pos + 5) != ':') {
+            return -1;
+        }
+        final int hours = parseTwoDigits(date, pos);
+        final int minutes = parseTwoDigits(date, pos + 3);
+        final int seconds = parseTwoDigits(date, pos + 6);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) {
+            return -1;
+        }
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    private static int parseTwoDigits(final String date, final int pos) {
+        final char c1 = date.charAt(pos);
+        final char c2 = date.charAt(pos + 1);
+        if (c1 < '0' || c1 > '9' || c2 < '0' || c2 > '9') {
+            return -1;
+        }
+        return (c1 - '0') * 10 + (c2 - '0');
+    }
+
+    /**
+     * Converts a civil date to the number of days since the epoch, see
+     * http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(int year, final int month, final int day) {
+        if (month <= 2) {
+            --year;
+        }
+        final int era = (year >= 0 ? year : year - 399) / 400;
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
     }
 
     /**
@@ -152,4 +413,20 @@ public class DateUtils {
     private DateUtils() {
 
     }
+
+    private static final class CachedDate {
+        final long second;
+        final String string;
+        final byte[] bytes;
+
+        CachedDate(final long second, final char[] date) {
+            this.second = second;
+            this.string = new String(date);
+            final byte[] bytes = new byte[date.length];
+            for (int i = 0; i < date.length; ++i) {
+                bytes[i] = (byte) date[i];
+            }
+            this.bytes = bytes;
+        }
+    }
 }
@@ -19,80 +19,105 @@
 package io.undertow.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
- * This implementation sucks and is incomplete.  It's just here to illustrate.
+ * A map of HTTP headers.
+ * <p/>
+ * This is an open addressing hash table with linear probing that is keyed on {@link HttpString}. Header names
+ * and values are held in parallel arrays, a header with a single value stores that value directly in the value
+ * array, so in the common case adding a header does not allocate at all. The table grows as required, so requests
+ * with a large number of headers do not degrade into long probe sequences.
+ * <p/>
+ * As well as the {@link Iterable} interface this class provides a cursor based iteration API that does not allocate:
+ * <pre>
+ * for (int i = map.firstHeader(); i != -1; i = map.nextHeader(i)) {
+ *     HttpString name = map.getHeaderName(i);
+ *     for (int j = 0; j &lt; map.getValueCount(i); ++j) {
+ *         String value = map.getValue(i, j);
+ *     }
+ * }
+ * </pre>
+ * Cursors are only valid until the map is next modified.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class HeaderMap implements Iterable<HttpString> {
 
-    private static final int SIZE = 17;
+    private static final int INITIAL_CAPACITY = 16;
 
-    private static final int SIGN_MASK = 0x7FFFFFFF;
+    private HttpString[] names;
 
-    private final HeaderEntry[] entries = new HeaderEntry[SIZE];
+    /**
+     * The values, this will be either a String, a {@link LazyValue} or a {@link MultiValue}
+     */
+    private Object[] values;
+
+    private int size;
+
+    private int resizeThreshold;
 
     public Iterator<HttpString> iterator() {
         return new MapIterator();
     }
 
     public String getFirst(HttpString headerName) {
-        Object value = getValue(headerName);
-        if (value instanceof List) {
-            return ((List<String>) value).get(0);
-        } else {
-            return (String) value;
+        final int index = find(headerName);
+        if (index == -1) {
+            return null;
         }
+        return getValue(index, 0);
     }
 
 
     public String getLast(HttpString headerName) {
-        Object value = getValue(headerName);
-        if (value instanceof List) {
-            List<String> list = (List<String>) value;
-            return list.get(list.size() - 1);
-        } else {
-            return (String) value;
+        final int index = find(headerName);
+        if (index == -1) {
+            return null;
         }
+        return getValue(index, getValueCount(index) - 1);
     }
 
+    /**
+     * Returns all the values for the given header. The returned list is a copy, modifying it
+     * will not modify this map.
+     *
+     * @param headerName The header name
+     * @return The header values, or null if the header is not present
+     */
     public List<String> get(HttpString headerName) {
-        Object value = getValue(headerName);
-        if (value == null) {
+        final int index = find(headerName);
+        if (index == -1) {
             return null;
-        } else if (value instanceof List) {
-            return (List<String>) value;
-        } else {
-            return Collections.singletonList((String) value);
         }
+        return valuesAsList(index);
     }
 
     public void add(HttpString headerName, String headerValue) {
-        HeaderEntry entry = getEntry(headerName);
-        if (entry == null) {
-            final int pos = (headerName.hashCode() & SIGN_MASK) % SIZE;
-            HeaderEntry exiting = entries[pos];
-            entry = new HeaderEntry();
-            entry.next = exiting;
-            entry.name = headerName;
-            entry.value = headerValue;
-            entries[pos] = entry;
-        } else {
-            if (entry.value instanceof List) {
-                ((List) entry.value).add(headerValue);
-            } else {
-                final ArrayList<String> list = new ArrayList<String>(1);
-                list.add((String) entry.value);
-                list.add(headerValue);
-                entry.value = list;
-            }
-        }
+        addValue(headerName, headerValue);
+    }
+
+    /**
+     * Adds a header value that is backed by a range of a byte array. The value is only
+     * turned into a String when it is first read, so headers that are never looked at
+     * never have a String allocated for them.
+     * <p/>
+     * The array is not copied, so the caller must not modify the given range after it has
+     * been added. The bytes are interpreted as ISO-8859-1.
+     *
+     * @param headerName The header name
+     * @param bytes      The array that holds the header value
+     * @param offset     The offset of the value in the array
+     * @param length     The length of the value
+     */
+    public void add(HttpString headerName, byte[] bytes, int offset, int length) {
+        addValue(headerName, new LazyValue(bytes, offset, length));
     }
 
     public void add(HttpString headerName, long headerValue) {
@@ -101,54 +126,34 @@ public final class HeaderMap implements Iterable<HttpString> {
 
 
     public void addAll(HttpString headerName, Collection<String> headerValues) {
-        HeaderEntry entry = getEntry(headerName);
-        if (entry == null) {
-            final int pos = (headerName.hashCode() & SIGN_MASK) % SIZE;
-            HeaderEntry exiting = entries[pos];
-            entry = new HeaderEntry();
-            entry.next = exiting;
-            entry.name = headerName;
-            entry.value = new ArrayList<>(headerValues);
-            entries[pos] = entry;
-        } else {
-            if (entry.value instanceof List) {
-                ((List) entry.value).addAll(headerValues);
-            } else {
-                final ArrayList<String> list = new ArrayList<String>(1);
-                list.add((String) entry.value);
-                list.addAll(headerValues);
-                entry.value = list;
-            }
+        for (String value : headerValues) {
+            addValue(headerName, value);
         }
     }
 
     public void clear() {
-        for(int i = 0; i < SIZE; ++i) {
-            entries[i] = null;
+        if (size == 0) {
+            return;
         }
+        Arrays.fill(names, null);
+        Arrays.fill(values, null);
+        size = 0;
     }
 
     public Collection<HttpString> getHeaderNames() {
-
         HashSet<HttpString> ret = new HashSet<>();
-        for(HttpString i : this) {
-            ret.add(i);
+        for (int i = firstHeader(); i != -1; i = nextHeader(i)) {
+            ret.add(names[i]);
         }
         return ret;
     }
 
     public void put(HttpString headerName, String headerValue) {
-        HeaderEntry entry = getEntry(headerName);
-        if (entry == null) {
-            final int pos = (headerName.hashCode() & SIGN_MASK) % SIZE;
-            HeaderEntry exiting = entries[pos];
-            entry = new HeaderEntry();
-            entry.next = exiting;
-            entry.name = headerName;
-            entry.value = headerValue;
-            entries[pos] = entry;
+        final int index = find(headerName);
+        if (index == -1) {
+            insert(headerName, headerValue);
         } else {
-            entry.value = headerValue;
+            values[index] = headerValue;
         }
     }
 
@@ -157,34 +162,13 @@ public final class HeaderMap implements Iterable<HttpString> {
     }
 
     public Collection<String> remove(HttpString headerName) {
-        final int pos = (headerName.hashCode() & SIGN_MASK) % SIZE;
-        HeaderEntry entry = entries[pos];
-        if(entry == null) {
+        final int index = find(headerName);
+        if (index == -1) {
             return null;
         }
-        if(entry.name.equals(headerName)) {
-            entries[pos] = entry.next;
-            if (entry.value instanceof List) {
-                return (Collection<String>) entry.value;
-            } else {
-                return (List)Collections.singletonList(entry.value);
-            }
-        }
-        HeaderEntry prev = entry;
-        entry = entry.next;
-        while (entry != null) {
-            if(entry.name.equals(headerName)) {
-                prev.next = entry.next;
-                if (entry.value instanceof List) {
-                    return (Collection<String>) entry.value;
-                } else {
-                    return (List)Collections.singletonList(entry.value);
-                }
-            }
-            prev = entry;
-            entry = entry.next;
-        }
-        return null;
+        final List<String> result = valuesAsList(index);
+        removeIndex(index);
+        return result;
     }
 
     /**
@@ -195,8 +179,94 @@ public final class HeaderMap implements Iterable<HttpString> {
     }
 
     public boolean contains(HttpString headerName) {
-        final Object value = getEntry(headerName);
-        return value != null;
+        return find(headerName) != -1;
+    }
+
+    /**
+     * @param headerName The header name
+     * @return The number of values of the header, or 0 if it is not present
+     */
+    public int count(HttpString headerName) {
+        final int index = find(headerName);
+        return index == -1 ? 0 : getValueCount(index);
+    }
+
+    /**
+     * @return The number of distinct header names in this map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a cursor that points to the first header in the map.
+     *
+     * @return The cursor, or -1 if the map is empty
+     */
+    public int firstHeader() {
+        if (size == 0) {
+            return -1;
+        }
+        return nextOccupied(0);
+    }
+
+    /**
+     * Advances a cursor to the next header in the map.
+     *
+     * @param cursor The current cursor
+     * @return The next cursor, or -1 if there are no more headers
+     */
+    public int nextHeader(int cursor) {
+        return nextOccupied(cursor + 1);
+    }
+
+    /**
+     * @param cursor The cursor
+     * @return The name of the header the cursor points to
+     */
+    public HttpString getHeaderName(int cursor) {
+        return names[cursor];
+    }
+
+    /**
+     * @param cursor The cursor
+     * @return The number of values of the header the cursor points to
+     */
+    public int getValueCount(int cursor) {
+        final Object value = values[cursor];
+        if (value instanceof MultiValue) {
+            return ((MultiValue) value).size;
+        }
+        return 1;
+    }
+
+    /**
+     * @param cursor     The cursor
+     * @param valueIndex The index of the value
+     * @return The value at the given index of the header the cursor points to
+     */
+    public String getValue(int cursor, int valueIndex) {
+        final Object value = values[cursor];
+        if (value instanceof MultiValue) {
+            final MultiValue multi = (MultiValue) value;
+            if (valueIndex >= multi.size) {
+                throw new IndexOutOfBoundsException();
+            }
+            final Object item = multi.values[valueIndex];
+            if (item instanceof LazyValue) {
+                final String string = item.toString();
+                multi.values[valueIndex] = string;
+                return string;
+            }
+            return (String) item;
+        } else if (valueIndex != 0) {
+            throw new IndexOutOfBoundsException();
+        } else if (value instanceof LazyValue) {
+            final String string = value.toString();
+            values[cursor] = string;
+            return string;
+        }
+        return (String) value;
     }
 
     @Override
@@ -211,74 +281,213 @@ public final class HeaderMap implements Iterable<HttpString> {
 
     @Override
     public String toString() {
-        return "HeaderMap{" +
-                "values=" + entries +
-                '}';
+        final StringBuilder sb = new StringBuilder("HeaderMap{");
+        for (int i = firstHeader(); i != -1; i = nextHeader(i)) {
+            sb.append(names[i]).append('=').append(valuesAsList(i));
+            if (nextHeader(i) != -1) {
+                sb.append(", ");
+            }
+        }
+        return sb.append('}').toString();
     }
 
-    private Object getValue(HttpString headerName) {
-        HeaderEntry entry = getEntry(headerName);
-        if(entry == null) {
-            return null;
+    private List<String> valuesAsList(final int index) {
+        final int count = getValueCount(index);
+        if (count == 1) {
+            return Collections.singletonList(getValue(index, 0));
+        }
+        final List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            list.add(getValue(index, i));
         }
-        return entry.value;
+        return list;
     }
 
-    private HeaderEntry getEntry(HttpString headerName) {
-        final int pos = (headerName.hashCode() & SIGN_MASK) % SIZE;
-        HeaderEntry entry = entries[pos];
-        while (entry != null) {
-            if(entry.name.equals(headerName)) {
-                return entry;
+    private int nextOccupied(int index) {
+        final HttpString[] names = this.names;
+        if (names == null) {
+            return -1;
+        }
+        while (index < names.length) {
+            if (names[index] != null) {
+                return index;
             }
-            entry = entry.next;
+            ++index;
         }
-        return null;
+        return -1;
     }
 
-    private static final class HeaderEntry {
-        HeaderEntry next;
-        Object value;
-        HttpString name;
+    private int find(final HttpString headerName) {
+        final HttpString[] names = this.names;
+        if (names == null) {
+            return -1;
+        }
+        final int mask = names.length - 1;
+        int index = headerName.hashCode() & mask;
+        HttpString current;
+        while ((current = names[index]) != null) {
+            if (current == headerName || current.equals(headerName)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
     }
 
-    private class MapIterator implements Iterator<HttpString> {
-        private int pos = 0;
-        private HeaderEntry current;
+    private void addValue(final HttpString headerName, final Object headerValue) {
+        final int index = find(headerName);
+        if (index == -1) {
+            insert(headerName, headerValue);
+            return;
+        }
+        final Object existing = values[index];
+        if (existing instanceof MultiValue) {
+            ((MultiValue) existing).add(headerValue);
+        } else {
+            values[index] = new MultiValue(existing, headerValue);
+        }
+    }
+
+    /**
+     * Inserts a header that is not already present in the map
+     */
+    private void insert(final HttpString headerName, final Object headerValue) {
+        if (names == null) {
+            names = new HttpString[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+            resizeThreshold = threshold(INITIAL_CAPACITY);
+        } else if (size >= resizeThreshold) {
+            resize();
+        }
+        final HttpString[] names = this.names;
+        final int mask = names.length - 1;
+        int index = headerName.hashCode() & mask;
+        while (names[index] != null) {
+            index = (index + 1) & mask;
+        }
+        names[index] = headerName;
+        values[index] = headerValue;
+        ++size;
+    }
+
+    private void resize() {
+        final HttpString[] oldNames = names;
+        final Object[] oldValues = values;
+        final int capacity = oldNames.length << 1;
+        final int mask = capacity - 1;
+        final HttpString[] newNames = new HttpString[capacity];
+        final Object[] newValues = new Object[capacity];
+        for (int i = 0; i < oldNames.length; ++i) {
+            final HttpString name = oldNames[i];
+            if (name != null) {
+                int index = name.hashCode() & mask;
+                while (newNames[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                newNames[index] = name;
+                newValues[index] = oldValues[i];
+            }
+        }
+        names = newNames;
+        values = newValues;
+        resizeThreshold = threshold(capacity);
+    }
 
-        MapIterator() {
-            while (pos < entries.length && entries[pos] == null) {
-                ++pos;
+    /**
+     * Removes the entry at the given index. Rather than leaving a tombstone any entries
+     * in the same probe sequence are shifted back to fill the gap.
+     */
+    private void removeIndex(int index) {
+        final HttpString[] names = this.names;
+        final Object[] values = this.values;
+        final int mask = names.length - 1;
+        names[index] = null;
+        values[index] = null;
+        --size;
+        int current = index;
+        for (;;) {
+            current = (current + 1) & mask;
+            final HttpString name = names[current];
+            if (name == null) {
+                return;
             }
-            if (pos < entries.length) {
-                current = entries[pos];
+            final int ideal = name.hashCode() & mask;
+            //if the ideal slot lies cyclically in (index, current] then the entry can stay where it is
+            if (index <= current ? (index < ideal && ideal <= current) : (index < ideal || ideal <= current)) {
+                continue;
             }
+            names[index] = name;
+            values[index] = values[current];
+            names[current] = null;
+            values[current] = null;
+            index = current;
         }
+    }
 
+    private static int threshold(final int capacity) {
+        return (capacity >> 1) + (capacity >> 2);
+    }
+
+    /**
+     * A header value that has not been decoded yet. It references the range of the request
+     * buffer copy that the parser wrote the value into.
+     */
+    private static final class LazyValue {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        LazyValue(final byte[] bytes, final int offset, final int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public String toString() {
+            return new String(bytes, 0, offset, length);
+        }
+    }
+
+    /**
+     * Holds the values of a header that has been added more than once.
+     */
+    private static final class MultiValue {
+        private Object[] values;
+        private int size;
+
+        MultiValue(final Object first, final Object second) {
+            values = new Object[4];
+            values[0] = first;
+            values[1] = second;
+            size = 2;
+        }
+
+        void add(final Object value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private class MapIterator implements Iterator<HttpString> {
+        private int current = firstHeader();
 
         @Override
         public boolean hasNext() {
-            return current != null;
+            return current != -1;
         }
 
         @Override
         public HttpString next() {
-            HttpString toReturn = current.name;
-            if (current.next != null) {
-                current = current.next;
-            } else {
-
-                do {
-                    ++pos;
-                } while (pos < entries.length && entries[pos] == null);
-
-                if (pos < entries.length) {
-                    current = entries[pos];
-                } else {
-                    current = null;
-                }
+            if (current == -1) {
+                throw new NoSuchElementException();
             }
-            return toReturn;
+            final HttpString result = names[current];
+            current = nextHeader(current);
+            return result;
         }
 
         @Override
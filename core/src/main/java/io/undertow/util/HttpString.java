@@ -202,9 +202,7 @@ public final class HttpString implements Comparable<HttpString>, Serializable {
      * @param buffer the buffer to append to
      */
     public void appendTo(ByteBuffer buffer) {
-        for(int i = 0; i < bytes.length; ++i) {
-            buffer.put(bytes[i]);
-        }
+        buffer.put(bytes);
     }
 
     /**
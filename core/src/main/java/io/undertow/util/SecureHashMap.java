@@ -239,6 +239,9 @@ public final class SecureHashMap<K, V> extends AbstractMap<K, V> implements Conc
             Item<K, V>[] origRow, newRow0, newRow1;
             do {
                 origRow = origArray.get(i);
+                //the rows are always written, as a previous attempt may have filled them from a row that has since changed
+                newRow0 = null;
+                newRow1 = null;
                 if (origRow != null) {
                     int count0 = 0, count1 = 0;
                     for (Item<K, V> item : origRow) {
@@ -256,7 +259,6 @@ public final class SecureHashMap<K, V> extends AbstractMap<K, V> implements Conc
                                 newRow0[j++] = item;
                             }
                         }
-                        newArray.lazySet(i, newRow0);
                     }
                     if (count1 != 0) {
                         newRow1 = createRow(count1);
@@ -266,9 +268,10 @@ public final class SecureHashMap<K, V> extends AbstractMap<K, V> implements Conc
                                 newRow1[j++] = item;
                             }
                         }
-                        newArray.lazySet(i + origCapacity, newRow1);
                     }
                 }
+                newArray.lazySet(i, newRow0);
+                newArray.lazySet(i + origCapacity, newRow1);
             } while (! origArray.compareAndSet(i, origRow, SecureHashMap.<K, V>resized()));
             if (origRow != null) sizeUpdater.getAndAdd(newTable, origRow.length);
         }
@@ -23,10 +23,10 @@ package io.undertow.util;
  */
 public class StatusCodes {
 
-    //chosen simply because it gives no collisions
-    //if more codes are added this will need to be re-evaluated
-    private static final int SIZE = 64;
-    private static final Entry[] TABLE = new Entry[SIZE];
+    /**
+     * The reason phrases, indexed directly by status code
+     */
+    private static final String[] TABLE = new String[600];
 
     public static final int CONTINUE = 100;
     public static final int SWITCHING_PROTOCOLS = 101;
@@ -62,6 +62,7 @@ public class StatusCodes {
     public static final int UNSUPPORTED_MEDIA_TYPE = 415;
     public static final int REQUEST_RANGE_NOT_SATISFIABLE = 416;
     public static final int EXPECTATION_FAILED = 417;
+    public static final int TOO_MANY_REQUESTS = 429;
     public static final int INTERNAL_SERVER_ERROR = 500;
     public static final int NOT_IMPLEMENTED = 501;
     public static final int BAD_GATEWAY = 502;
@@ -103,6 +104,7 @@ public class StatusCodes {
     public static final String UNSUPPORTED_MEDIA_TYPE_STRING = "Unsupported Media Type";
     public static final String REQUEST_RANGE_NOT_SATISFIABLE_STRING = "Requested range not satisfiable";
     public static final String EXPECTATION_FAILED_STRING = "Expectation Failed";
+    public static final String TOO_MANY_REQUESTS_STRING = "Too Many Requests";
     public static final String INTERNAL_SERVER_ERROR_STRING = "Internal Server Error";
     public static final String NOT_IMPLEMENTED_STRING = "Not Implemented";
     public static final String BAD_GATEWAY_STRING = "Bad Gateway";
@@ -145,6 +147,7 @@ public class StatusCodes {
         putCode(UNSUPPORTED_MEDIA_TYPE, UNSUPPORTED_MEDIA_TYPE_STRING);
         putCode(REQUEST_RANGE_NOT_SATISFIABLE, REQUEST_RANGE_NOT_SATISFIABLE_STRING);
         putCode(EXPECTATION_FAILED, EXPECTATION_FAILED_STRING);
+        putCode(TOO_MANY_REQUESTS, TOO_MANY_REQUESTS_STRING);
         putCode(INTERNAL_SERVER_ERROR, INTERNAL_SERVER_ERROR_STRING);
         putCode(NOT_IMPLEMENTED, NOT_IMPLEMENTED_STRING);
         putCode(BAD_GATEWAY, BAD_GATEWAY_STRING);
@@ -155,33 +158,17 @@ public class StatusCodes {
     }
 
     private static void putCode(int code, String reason) {
-        Entry e = new Entry(reason, code);
-        int h = code % SIZE;
-        if(TABLE[h] != null) {
-            throw new IllegalArgumentException("hash collision");
-        }
-        TABLE[h] = e;
+        TABLE[code] = reason;
     }
 
     private StatusCodes() {
     }
 
     public static final String getReason(final int code) {
-        final Entry result = TABLE[code % SIZE];
-        if (result == null || result.code != code) {
+        if (code < 0 || code >= TABLE.length) {
             return "Unknown";
-        } else {
-            return result.reason;
-        }
-    }
-
-    private static final class Entry {
-        final String reason;
-        final int code;
-
-        private Entry(final String reason, final int code) {
-            this.reason = reason;
-            this.code = code;
         }
+        final String result = TABLE[code];
+        return result == null ? "Unknown" : result;
     }
 }
@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.xnio.BufferAllocator;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+
+/**
+ * A buffer pool that keeps a small cache of free buffers for each thread in front of a shared pool.
+ * <p/>
+ * Like {@link org.xnio.ByteBufferSlicePool} buffers are sliced out of larger regions. Allocating or freeing
+ * a buffer normally only touches the cache of the current thread, the shared queue is only used when the
+ * cache is empty, or when it is full because the thread frees more buffers than it allocates. Buffers freed by a
+ * thread other than the one that allocated them are simply cached by the freeing thread, and flow back to the
+ * shared queue once its cache is full.
+ * <p/>
+ * The cache of a thread that has exited is reclaimed the next time a thread misses in its own cache and finds
+ * the shared queue empty, or when a new thread first uses the pool. Its buffers are returned to the shared
+ * queue, so buffers are not lost when worker threads come and go.
+ * <p/>
+ * The pool also keeps some simple metrics. These are gathered without locking, so they are only
+ * approximate while the pool is in use.
+ */
+public final class ThreadCachingByteBufferPool implements Pool<ByteBuffer> {
+
+    /**
+     * The default number of free buffers each thread can cache
+     */
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 16;
+
+    private final BufferAllocator<ByteBuffer> allocator;
+    private final int bufferSize;
+    private final int buffersPerRegion;
+    private final int threadCacheSize;
+
+    private final Queue<ByteBuffer> sharedBuffers = new ConcurrentLinkedQueue<>();
+    private final List<ThreadCache> caches = new CopyOnWriteArrayList<>();
+    private final AtomicInteger regions = new AtomicInteger();
+    private final AtomicLong reclaimedAllocations = new AtomicLong();
+    private final AtomicLong reclaimedMisses = new AtomicLong();
+
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            reclaimDeadThreadCaches();
+            final ThreadCache cache = new ThreadCache(Thread.currentThread(), threadCacheSize);
+            caches.add(cache);
+            return cache;
+        }
+    };
+
+    /**
+     * Construct a new instance.
+     *
+     * @param allocator       the buffer allocator to use
+     * @param bufferSize      the size of each buffer
+     * @param maxRegionSize   the maximum region size for each backing buffer
+     * @param threadCacheSize the number of free buffers each thread can cache
+     */
+    public ThreadCachingByteBufferPool(final BufferAllocator<ByteBuffer> allocator, final int bufferSize, final int maxRegionSize, final int threadCacheSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
+        }
+        if (maxRegionSize < bufferSize) {
+            throw new IllegalArgumentException("Maximum region size must be greater than or equal to the buffer size");
+        }
+        if (threadCacheSize < 0) {
+            throw new IllegalArgumentException("Thread cache size must not be negative");
+        }
+        this.allocator = allocator;
+        this.bufferSize = bufferSize;
+        this.buffersPerRegion = maxRegionSize / bufferSize;
+        this.threadCacheSize = threadCacheSize;
+    }
+
+    /**
+     * Construct a new instance, using the default thread cache size.
+     *
+     * @param allocator     the buffer allocator to use
+     * @param bufferSize    the size of each buffer
+     * @param maxRegionSize the maximum region size for each backing buffer
+     */
+    public ThreadCachingByteBufferPool(final BufferAllocator<ByteBuffer> allocator, final int bufferSize, final int maxRegionSize) {
+        this(allocator, bufferSize, maxRegionSize, DEFAULT_THREAD_CACHE_SIZE);
+    }
+
+    @Override
+    public Pooled<ByteBuffer> allocate() {
+        final ThreadCache cache = threadCache.get();
+        cache.allocations++;
+        ByteBuffer buffer = cache.poll();
+        if (buffer == null) {
+            cache.misses++;
+            buffer = sharedBuffers.poll();
+            if (buffer == null && reclaimDeadThreadCaches()) {
+                buffer = sharedBuffers.poll();
+            }
+            if (buffer == null) {
+                buffer = allocateRegion(cache);
+            }
+        }
+        return new PooledBuffer(buffer);
+    }
+
+    /**
+     * Allocates a new region. The first buffer is returned, as many of the others as will fit are put in
+     * the cache of the current thread and the rest are made available to all threads.
+     */
+    private ByteBuffer allocateRegion(final ThreadCache cache) {
+        final int bufferSize = this.bufferSize;
+        final ByteBuffer region = allocator.allocate(buffersPerRegion * bufferSize);
+        regions.incrementAndGet();
+        for (int i = 1; i < buffersPerRegion; ++i) {
+            final ByteBuffer slice = slice(region, i * bufferSize);
+            if (!cache.offer(slice)) {
+                sharedBuffers.add(slice);
+            }
+        }
+        return slice(region, 0);
+    }
+
+    private ByteBuffer slice(final ByteBuffer region, final int start) {
+        final ByteBuffer duplicate = region.duplicate();
+        duplicate.position(start);
+        duplicate.limit(start + bufferSize);
+        return duplicate.slice();
+    }
+
+    /**
+     * Returns the buffers cached by threads that have exited to the shared queue, and removes their caches.
+     *
+     * @return <code>true</code> if any buffers were returned
+     */
+    private boolean reclaimDeadThreadCaches() {
+        boolean reclaimed = false;
+        for (ThreadCache cache : caches) {
+            if (cache.isOwnerAlive() || !caches.remove(cache)) {
+                continue;
+            }
+            //the owner has terminated, so nothing else modifies the cache
+            reclaimedAllocations.addAndGet(cache.allocations);
+            reclaimedMisses.addAndGet(cache.misses);
+            ByteBuffer buffer;
+            while ((buffer = cache.poll()) != null) {
+                sharedBuffers.add(buffer);
+                reclaimed = true;
+            }
+        }
+        return reclaimed;
+    }
+
+    private void release(final ByteBuffer buffer) {
+        buffer.clear();
+        if (!threadCache.get().offer(buffer)) {
+            sharedBuffers.add(buffer);
+        }
+    }
+
+    /**
+     * @return The size of the buffers allocated by this pool
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The total number of buffers that have been allocated
+     */
+    public long getAllocations() {
+        long total = reclaimedAllocations.get();
+        for (ThreadCache cache : caches) {
+            total += cache.allocations;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of allocations that could not be satisfied from the cache of the allocating thread
+     */
+    public long getMisses() {
+        long total = reclaimedMisses.get();
+        for (ThreadCache cache : caches) {
+            total += cache.misses;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of regions that have been allocated
+     */
+    public int getRegions() {
+        return regions.get();
+    }
+
+    /**
+     * Returns the high water mark of this pool. New regions are only allocated when there are no free buffers,
+     * so this is the total number of buffers that have been created.
+     *
+     * @return The high water mark, in buffers
+     */
+    public int getHighWaterMark() {
+        return regions.get() * buffersPerRegion;
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadCachingByteBufferPool{bufferSize=" + bufferSize + ", allocations=" + getAllocations() + ", misses=" + getMisses() + ", highWaterMark=" + getHighWaterMark() + "}";
+    }
+
+    /**
+     * The free buffers cached by a single thread. This is only modified by its own thread, or once that thread
+     * has exited by the thread that reclaims it. The counters only have a single writer, and are read by other
+     * threads when gathering metrics.
+     */
+    private static final class ThreadCache {
+        private final WeakReference<Thread> owner;
+        private final ByteBuffer[] buffers;
+        private int size;
+        volatile long allocations;
+        volatile long misses;
+
+        ThreadCache(final Thread owner, final int capacity) {
+            this.owner = new WeakReference<>(owner);
+            this.buffers = new ByteBuffer[capacity];
+        }
+
+        boolean isOwnerAlive() {
+            final Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+
+        ByteBuffer poll() {
+            if (size == 0) {
+                return null;
+            }
+            final ByteBuffer buffer = buffers[--size];
+            buffers[size] = null;
+            return buffer;
+        }
+
+        boolean offer(final ByteBuffer buffer) {
+            if (size == buffers.length) {
+                return false;
+            }
+            buffers[size++] = buffer;
+            return true;
+        }
+    }
+
+    private final class PooledBuffer implements Pooled<ByteBuffer> {
+
+        volatile ByteBuffer buffer;
+
+        PooledBuffer(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void discard() {
+            bufferUpdater.set(this, null);
+        }
+
+        @Override
+        public void free() {
+            final ByteBuffer buffer = bufferUpdater.getAndSet(this, null);
+            if (buffer != null) {
+                release(buffer);
+            }
+        }
+
+        @Override
+        public ByteBuffer getResource() throws IllegalStateException {
+            final ByteBuffer buffer = this.buffer;
+            if (buffer == null) {
+                throw new IllegalStateException();
+            }
+            return buffer;
+        }
+
+        public void close() {
+            free();
+        }
+
+        @Override
+        public String toString() {
+            return "Pooled buffer " + buffer;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<PooledBuffer, ByteBuffer> bufferUpdater = AtomicReferenceFieldUpdater.newUpdater(PooledBuffer.class, ByteBuffer.class, "buffer");
+}
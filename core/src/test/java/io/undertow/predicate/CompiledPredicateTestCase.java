@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.predicate;
+
+import io.undertow.server.HttpServerExchange;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPredicateTestCase {
+
+    private static final String[] PATHS = {"", "/", "a", "/a", "/a/", "/a/b", "/ab", "a/b", "/b", "/b/c.txt", "/index.html", "/c/d.html", "/static/img.png", "/staticx"};
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCompiledPredicatesMatchTheOriginal() {
+        final Predicate<HttpServerExchange> shared = Predicates.or(Predicates.prefix("/static"), Predicates.suffix(".html"));
+        final Predicate<HttpServerExchange>[] predicates = new Predicate[]{
+                Predicates.paths("/a", "b", "/"),
+                Predicates.prefixs("/a", "/static/", "c"),
+                Predicates.suffixs(".html", ".txt", "b"),
+                Predicates.or(Predicates.path("a"), Predicates.prefix("/b"), Predicates.suffix(".png"), Predicates.not(Predicates.prefix("/"))),
+                Predicates.and(Predicates.prefix("/"), Predicates.not(Predicates.paths("/a", "/b"))),
+                Predicates.and(shared, Predicates.not(Predicates.and(shared, Predicates.path("/index.html")))),
+                Predicates.or(Predicates.or(Predicates.path("/a"), Predicates.path("/ab")), Predicates.and(Predicates.prefix(""), Predicates.suffix("png"))),
+                Predicates.not(Predicates.not(Predicates.prefix("/a")))
+        };
+        for (Predicate<HttpServerExchange> predicate : predicates) {
+            final Predicate<HttpServerExchange> compiled = Predicates.compile(predicate);
+            for (String path : PATHS) {
+                final HttpServerExchange exchange = exchange(path);
+                Assert.assertEquals(path, predicate.resolve(exchange), compiled.resolve(exchange));
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConstantsAreFolded() {
+        Assert.assertSame(Predicates.truePredicate(), Predicates.compile(Predicates.or(Predicates.path("/a"), Predicates.<HttpServerExchange>truePredicate())));
+        Assert.assertSame(Predicates.falsePredicate(), Predicates.compile(Predicates.and(Predicates.path("/a"), Predicates.not(Predicates.<HttpServerExchange>truePredicate()))));
+
+        final Predicate<HttpServerExchange> compiled = Predicates.compile(Predicates.and(Predicates.<HttpServerExchange>truePredicate(), Predicates.prefix("/a")));
+        Assert.assertTrue(compiled.resolve(exchange("/a/b")));
+        Assert.assertFalse(compiled.resolve(exchange("/b")));
+        Assert.assertSame(compiled, Predicates.compile(compiled));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSharedPredicatesAreResolvedOnce() {
+        final CountingPredicate counting = new CountingPredicate();
+        final Predicate<HttpServerExchange> compiled = Predicates.compile(Predicates.and(
+                Predicates.or(counting, Predicates.path("/a")),
+                Predicates.or(Predicates.path("/b"), counting)));
+        Assert.assertTrue(compiled.resolve(exchange("/c")));
+        Assert.assertEquals(1, counting.count);
+        Assert.assertTrue(compiled.resolve(exchange("/c")));
+        Assert.assertEquals(2, counting.count);
+    }
+
+    private static HttpServerExchange exchange(final String path) {
+        final HttpServerExchange exchange = new HttpServerExchange(null, null, null);
+        exchange.setRelativePath(path);
+        exchange.setCanonicalPath(path);
+        return exchange;
+    }
+
+    private static final class CountingPredicate implements Predicate<HttpServerExchange> {
+
+        private int count;
+
+        @Override
+        public boolean resolve(final HttpServerExchange value) {
+            ++count;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+
+public class DirectBufferCacheTestCase {
+
+    private static final int SLICE_SIZE = 1024;
+    private static final int SLICES = 16;
+
+    @Test
+    public void testScanDoesNotFlushPopularEntries() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        for (int i = 0; i < 8; ++i) {
+            request(cache, "hot" + i, 8);
+        }
+        for (int i = 0; i < 8; ++i) {
+            Assert.assertTrue(isCached(cache, "hot" + i));
+        }
+        for (int i = 0; i < 1000; ++i) {
+            request(cache, "scan" + i, 2);
+        }
+        for (int i = 0; i < 8; ++i) {
+            Assert.assertTrue("hot" + i, isCached(cache, "hot" + i));
+        }
+    }
+
+    @Test
+    public void testFrequentEntryDisplacesInfrequentEntries() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        //large entries, so there are few enough keys that the estimated frequencies are exact
+        final int size = SLICE_SIZE * 4;
+        for (int i = 0; i < SLICES / 4; ++i) {
+            request(cache, "cold" + i, 8, size);
+        }
+        request(cache, "popular", 5, size);
+        Assert.assertFalse(isCached(cache, "popular"));
+        request(cache, "popular", 8, size);
+        Assert.assertTrue(isCached(cache, "popular"));
+    }
+
+    @Test
+    public void testCandidateDoesNotEvictMoreFrequentEntries() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        final int size = SLICE_SIZE * 4;
+        //fills the protected segment
+        for (int i = 0; i < 3; ++i) {
+            request(cache, "hot" + i, 10, size);
+        }
+        request(cache, "cold", 5);
+        Assert.assertTrue(isCached(cache, "cold"));
+        //the candidate is requested more often than the cold entry, but making room for it would also
+        //evict a hot entry
+        request(cache, "candidate", 6, size);
+        Assert.assertFalse(isCached(cache, "candidate"));
+        Assert.assertTrue(isCached(cache, "cold"));
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertTrue("hot" + i, isCached(cache, "hot" + i));
+        }
+    }
+
+    @Test
+    public void testInfrequentEntriesAreNotCached() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        request(cache, "key", 4);
+        Assert.assertFalse(isCached(cache, "key"));
+        request(cache, "key", 1);
+        Assert.assertTrue(isCached(cache, "key"));
+    }
+
+    @Test
+    public void testEvictedSlicesAreReused() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        request(cache, "large", 5, SLICE_SIZE * SLICES);
+        Assert.assertTrue(isCached(cache, "large"));
+        Assert.assertEquals(SLICES, cache.add("large", SLICE_SIZE * SLICES).buffers().length);
+        cache.remove("large");
+        request(cache, "other", 5, SLICE_SIZE * SLICES);
+        Assert.assertTrue(isCached(cache, "other"));
+    }
+
+    @Test
+    public void testExpiredEntryIsRemoved() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        request(cache, "key", 5);
+        final DirectBufferCache.CacheEntry<String> entry = cache.get("key");
+        Assert.assertTrue(entry.isFresh());
+        entry.setFreshness(0, 0);
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, entry.buffers().length);
+    }
+
+    @Test
+    public void testStaleEntryIsRefreshedOnce() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        request(cache, "key", 5);
+        cache.get("key").setFreshness(0, 60000);
+        final DirectBufferCache.CacheEntry<String> entry = cache.get("key");
+        Assert.assertNotNull(entry);
+        Assert.assertFalse(entry.isFresh());
+        Assert.assertTrue(entry.claimRefresh());
+        Assert.assertFalse(entry.claimRefresh());
+        entry.refreshComplete();
+        Assert.assertTrue(entry.claimRefresh());
+    }
+
+    @Test
+    public void testReplacementIsSwappedInOnceEnabled() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        request(cache, "key", 5);
+        final DirectBufferCache.CacheEntry<String> existing = cache.get("key");
+        final DirectBufferCache.CacheEntry<String> replacement = cache.replacement(existing, "key", SLICE_SIZE);
+        Assert.assertTrue(replacement.buffers().length > 0);
+        Assert.assertSame(existing, cache.get("key"));
+        replacement.enable();
+        Assert.assertSame(replacement, cache.get("key"));
+        //the existing entry is not referenced any more, so its space has been released
+        Assert.assertEquals(0, existing.buffers().length);
+    }
+
+    @Test
+    public void testDisabledReplacementIsDiscarded() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        request(cache, "key", 5);
+        final DirectBufferCache.CacheEntry<String> existing = cache.get("key");
+        final DirectBufferCache.CacheEntry<String> replacement = cache.replacement(existing, "key", SLICE_SIZE);
+        replacement.disable();
+        Assert.assertSame(existing, cache.get("key"));
+        Assert.assertEquals(0, replacement.buffers().length);
+    }
+
+    @Test
+    public void testReplacementEvictsAnotherEntryWhenFull() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR);
+        for (int i = 0; i < SLICES; ++i) {
+            request(cache, "key" + i, 5);
+        }
+        final DirectBufferCache.CacheEntry<String> existing = cache.get("key0");
+        final DirectBufferCache.CacheEntry<String> replacement = cache.replacement(existing, "key0", SLICE_SIZE);
+        Assert.assertNotNull(replacement);
+        Assert.assertTrue(replacement.buffers().length > 0);
+        //the stale entry is still served until the replacement is enabled
+        Assert.assertSame(existing, cache.get("key0"));
+        int cached = 0;
+        for (int i = 1; i < SLICES; ++i) {
+            if (isCached(cache, "key" + i)) {
+                ++cached;
+            }
+        }
+        Assert.assertEquals(SLICES - 2, cached);
+        replacement.enable();
+        Assert.assertSame(replacement, cache.get("key0"));
+    }
+
+    @Test
+    public void testMaintenanceRunsInExecutor() {
+        final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * SLICES, BufferAllocator.BYTE_BUFFER_ALLOCATOR, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+        cache.add("key", SLICE_SIZE);
+        for (int i = 0; i < 4; ++i) {
+            cache.get("key");
+        }
+        //the entry has been requested often enough to be admitted, but only the executor does so
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertEquals(0, cache.get("key").buffers().length);
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        Assert.assertTrue(cache.get("key").buffers().length > 0);
+    }
+
+    private static void request(final DirectBufferCache<String> cache, final String key, final int times) {
+        request(cache, key, times, SLICE_SIZE);
+    }
+
+    /**
+     * Simulates the way the cache handler uses the cache, the entry is looked up for each request
+     * and added when the response is generated.
+     */
+    private static void request(final DirectBufferCache<String> cache, final String key, final int times, final int size) {
+        for (int i = 0; i < times; ++i) {
+            if (cache.get(key) == null) {
+                cache.add(key, size);
+            }
+            cache.drainBuffers();
+        }
+    }
+
+    /**
+     * Looks the entry up with add(), which unlike get() does not count as a request
+     */
+    private static boolean isCached(final DirectBufferCache<String> cache, final String key) {
+        return cache.add(key, SLICE_SIZE).buffers().length > 0;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.Headers;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that pipelined requests that arrive in a single packet are all processed, and answered in order,
+ * when pipelined batching is enabled.
+ */
+@RunWith(DefaultServer.class)
+@AjpIgnore
+public class PipelinedBatchTestCase {
+
+    private static final int REQUESTS = 20;
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                final String path = exchange.getRelativePath();
+                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, path.length());
+                exchange.getResponseSender().send(path);
+            }
+        });
+    }
+
+    @Test
+    public void testPipelinedRequestsInBatch() throws IOException {
+        final OptionMap existing = DefaultServer.getUndertowOptions();
+        try {
+            DefaultServer.setUndertowOptions(OptionMap.create(UndertowOptions.PIPELINED_BATCHING, true));
+            final StringBuilder requests = new StringBuilder();
+            final StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < REQUESTS; ++i) {
+                requests.append("GET /path").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                expected.append("/path").append(i);
+            }
+            final InetSocketAddress address = DefaultServer.getDefaultServerAddress();
+            final Socket socket = new Socket(address.getAddress(), address.getPort());
+            try {
+                final OutputStream out = socket.getOutputStream();
+                out.write(requests.toString().getBytes("US-ASCII"));
+                out.flush();
+
+                final InputStream in = socket.getInputStream();
+                final StringBuilder bodies = new StringBuilder();
+                for (int i = 0; i < REQUESTS; ++i) {
+                    Assert.assertEquals("HTTP/1.1 200 OK", readLine(in));
+                    int length = -1;
+                    String line;
+                    while (!(line = readLine(in)).isEmpty()) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            length = Integer.parseInt(line.substring("content-length:".length()).trim());
+                        }
+                    }
+                    Assert.assertTrue(length > 0);
+                    for (int j = 0; j < length; ++j) {
+                        bodies.append((char) in.read());
+                    }
+                }
+                Assert.assertEquals(expected.toString(), bodies.toString());
+            } finally {
+                socket.close();
+            }
+        } finally {
+            DefaultServer.setUndertowOptions(existing);
+        }
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test;
+
+import java.io.IOException;
+import java.util.Deque;
+
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that no request state leaks into the next request on a connection when exchanges are recycled.
+ */
+@RunWith(DefaultServer.class)
+@AjpIgnore
+public class RecycledExchangeTestCase {
+
+    private static final HttpString TEST_HEADER = new HttpString("test-header");
+
+    private static final HttpHandler ECHO_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) {
+            final Deque<String> param = exchange.getQueryParameters().get("param");
+            final String header = exchange.getRequestHeaders().getFirst(TEST_HEADER);
+            exchange.getResponseSender().send(exchange.getRelativePath() + " " + (param == null ? null : param.getFirst()) + " " + header);
+        }
+    };
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(ECHO_HANDLER);
+    }
+
+    @Test
+    public void testRecycledExchanges() throws IOException {
+        runRequests(OptionMap.create(UndertowOptions.RECYCLE_EXCHANGES, true));
+    }
+
+    @Test
+    public void testLeakDetection() throws IOException {
+        runRequests(OptionMap.create(UndertowOptions.DETECT_EXCHANGE_LEAKS, true));
+    }
+
+    @Test
+    public void testDispatchedExchangeIsNotRecycled() throws IOException {
+        final OptionMap existing = DefaultServer.getUndertowOptions();
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            DefaultServer.setUndertowOptions(OptionMap.create(UndertowOptions.RECYCLE_EXCHANGES, true));
+            DefaultServer.setRootHandler(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange) {
+                    final String id = Integer.toString(System.identityHashCode(exchange));
+                    if (!exchange.getRelativePath().equals("/dispatch")) {
+                        exchange.getResponseSender().send(id);
+                        return;
+                    }
+                    //the worker hands the exchange back to the IO thread, so it completes there
+                    exchange.dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            exchange.getIoThread().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    exchange.getResponseSender().send(id);
+                                }
+                            });
+                        }
+                    });
+                }
+            });
+            final String first = request(client, "/path");
+            Assert.assertEquals(first, request(client, "/path"));
+            Assert.assertEquals(first, request(client, "/dispatch"));
+            Assert.assertFalse(first.equals(request(client, "/path")));
+        } finally {
+            DefaultServer.setRootHandler(ECHO_HANDLER);
+            DefaultServer.setUndertowOptions(existing);
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String request(final TestHttpClient client, final String path) throws IOException {
+        final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        return HttpClientUtils.readResponse(result);
+    }
+
+    private void runRequests(final OptionMap options) throws IOException {
+        final OptionMap existing = DefaultServer.getUndertowOptions();
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            DefaultServer.setUndertowOptions(options);
+            for (int i = 0; i < 10; ++i) {
+                final HttpGet get;
+                final String expected;
+                if (i % 2 == 0) {
+                    get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path" + i + "?param=value" + i);
+                    get.addHeader(TEST_HEADER.toString(), "header" + i);
+                    expected = "/path" + i + " value" + i + " header" + i;
+                } else {
+                    get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path" + i);
+                    expected = "/path" + i + " null null";
+                }
+                final HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(expected, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            DefaultServer.setUndertowOptions(existing);
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import io.undertow.Undertow;
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.Options;
+
+/**
+ * Tests servers that are configured through {@link Undertow.Builder}.
+ */
+public class UndertowBuilderTestCase {
+
+    private static final int PORT = DefaultServer.getHostPort("default") + 10;
+    private static final int SSL_PORT = DefaultServer.getHostSSLPort("default") + 10;
+
+    @Test
+    public void testDispatchExecutorIsUsedForEveryDispatch() throws IOException {
+        final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(r, "custom-dispatch-" + count.incrementAndGet());
+            }
+        });
+        final Undertow server = Undertow.builder()
+                .addListener(PORT, DefaultServer.getHostAddress("default"))
+                .setDispatchExecutor(executor)
+                .setDefaultHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                        exchange.dispatch(new HttpHandler() {
+                            @Override
+                            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                                final String first = Thread.currentThread().getName();
+                                exchange.dispatch(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        exchange.getResponseSender().send(first + " " + Thread.currentThread().getName(), IoCallback.END_EXCHANGE);
+                                    }
+                                });
+                            }
+                        });
+                    }
+                })
+                .build();
+        server.start();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(serverUrl()));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            final String[] threads = HttpClientUtils.readResponse(result).split(" ");
+            Assert.assertEquals(2, threads.length);
+            Assert.assertTrue(threads[0], threads[0].startsWith("custom-dispatch-"));
+            Assert.assertTrue(threads[1], threads[1].startsWith("custom-dispatch-"));
+        } finally {
+            client.getConnectionManager().shutdown();
+            server.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHttpsListener() throws IOException {
+        final SSLContext sslContext = DefaultServer.createServerSSLContext();
+        final int sessionTimeout = sslContext.getServerSessionContext().getSessionTimeout();
+        final Undertow server = Undertow.builder()
+                .addHttpsListener(SSL_PORT, DefaultServer.getHostAddress("default"), sslContext)
+                .setSslSessionCacheSize(100)
+                .setDefaultHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                        exchange.getResponseSender().send(exchange.getRequestScheme());
+                    }
+                })
+                .build();
+        server.start();
+        TestHttpClient client = new TestHttpClient();
+        client.setSSLContext(DefaultServer.getClientSSLContext());
+        try {
+            HttpResponse result = client.execute(new HttpGet("https://" + DefaultServer.getHostAddress("default") + ":" + SSL_PORT + "/"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("https", HttpClientUtils.readResponse(result));
+            //only the session setting that was set on the builder is applied to the context
+            Assert.assertEquals(100, sslContext.getServerSessionContext().getSessionCacheSize());
+            Assert.assertEquals(sessionTimeout, sslContext.getServerSessionContext().getSessionTimeout());
+        } finally {
+            client.getConnectionManager().shutdown();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSocketOptionsAreAppliedToConnections() throws IOException {
+        final Undertow server = Undertow.builder()
+                .addListener(PORT, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.KEEP_ALIVE, true)
+                .setSocketOption(Options.TCP_NODELAY, false)
+                .setDefaultHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                        final Boolean keepAlive = exchange.getConnection().getChannel().getOption(Options.KEEP_ALIVE);
+                        final Boolean noDelay = exchange.getConnection().getChannel().getOption(Options.TCP_NODELAY);
+                        exchange.getResponseSender().send(keepAlive + " " + noDelay);
+                    }
+                })
+                .build();
+        server.start();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(serverUrl()));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            //TCP_NODELAY is on by default, so this also checks that the builder's options take precedence
+            Assert.assertEquals("true false", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+            server.stop();
+        }
+    }
+
+    private static String serverUrl() {
+        return "http://" + DefaultServer.getHostAddress("default") + ":" + PORT + "/";
+    }
+}
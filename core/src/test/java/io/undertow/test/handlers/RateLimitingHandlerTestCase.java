@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+
+import io.undertow.server.handlers.RateLimitingHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class RateLimitingHandlerTestCase {
+
+    @Test
+    public void testRequestsOverLimitAreRejected() throws IOException {
+        DefaultServer.setRootHandler(new RateLimitingHandler(1, 2, 100, ResponseCodeHandler.HANDLE_200));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            Assert.assertEquals(200, sendRequest(client, null).getStatusLine().getStatusCode());
+            Assert.assertEquals(200, sendRequest(client, null).getStatusLine().getStatusCode());
+            HttpResponse result = sendRequest(client, null);
+            Assert.assertEquals(429, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("1", result.getFirstHeader("Retry-After").getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testClientsAreIdentifiedByHeader() throws IOException {
+        DefaultServer.setRootHandler(new RateLimitingHandler(1, 1, 100, ResponseCodeHandler.HANDLE_200)
+                .setKeyHeader(new HttpString("X-Api-Key")));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            Assert.assertEquals(200, sendRequest(client, "a").getStatusLine().getStatusCode());
+            Assert.assertEquals(200, sendRequest(client, "b").getStatusLine().getStatusCode());
+            Assert.assertEquals(429, sendRequest(client, "a").getStatusLine().getStatusCode());
+            Assert.assertEquals(429, sendRequest(client, "b").getStatusLine().getStatusCode());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpResponse sendRequest(final TestHttpClient client, final String key) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+        if (key != null) {
+            get.addHeader("X-Api-Key", key);
+        }
+        HttpResponse result = client.execute(get);
+        HttpClientUtils.readResponse(result);
+        return result;
+    }
+}
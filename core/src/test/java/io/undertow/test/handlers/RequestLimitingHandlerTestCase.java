@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.RequestLimitingHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class RequestLimitingHandlerTestCase {
+
+    @Test
+    public void testFullQueueIsRejected() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, 0, new BlockingHandler(new WaitingHandler(started, release)));
+        DefaultServer.setRootHandler(handler);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> first = executor.submit(new RequestTask());
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(1, handler.getActiveRequests());
+
+            Assert.assertEquals(503, (int) new RequestTask().call());
+
+            release.countDown();
+            Assert.assertEquals(200, (int) first.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueuedRequestTimesOut() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, 10, new BlockingHandler(new WaitingHandler(started, release)))
+                .setMaximumQueueTime(200, TimeUnit.MILLISECONDS);
+        DefaultServer.setRootHandler(handler);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> first = executor.submit(new RequestTask());
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            Assert.assertEquals(503, (int) new RequestTask().call());
+            Assert.assertEquals(0, handler.getQueueSize());
+
+            release.countDown();
+            Assert.assertEquals(200, (int) first.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueuedRequestRunsWhenSlotIsFree() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RequestLimitingHandler handler = new RequestLimitingHandler(1, 10, new BlockingHandler(new WaitingHandler(started, release)));
+        DefaultServer.setRootHandler(handler);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Integer> first = executor.submit(new RequestTask());
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            final Future<Integer> second = executor.submit(new RequestTask());
+            for (int i = 0; i < 100 && handler.getQueueSize() == 0; ++i) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, handler.getQueueSize());
+
+            release.countDown();
+            Assert.assertEquals(200, (int) first.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(200, (int) second.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, handler.getQueueSize());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static final class WaitingHandler implements HttpHandler {
+
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        private WaitingHandler(final CountDownLatch started, final CountDownLatch release) {
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static final class RequestTask implements Callable<Integer> {
+        @Override
+        public Integer call() throws IOException {
+            final TestHttpClient client = new TestHttpClient();
+            try {
+                final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/path"));
+                return result.getStatusLine().getStatusCode();
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
+}
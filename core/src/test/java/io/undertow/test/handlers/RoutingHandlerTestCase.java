@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathTemplateMatch;
+import io.undertow.server.handlers.RoutingHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class RoutingHandlerTestCase {
+
+    private static final String TEMPLATE = "template";
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(new RoutingHandler()
+                .get("/users/{id}", new TemplateHandler("get user"))
+                .post("/users/{id}", new TemplateHandler("update user"))
+                .get("/users/me", new TemplateHandler("me"))
+                .get("/users/{id}/orders/{orderId}", new TemplateHandler("order"))
+                .get("/users/me/orders/{orderId}", new TemplateHandler("my order"))
+                .get("/", new TemplateHandler("root")));
+    }
+
+    @Test
+    public void testParametersAreExtracted() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/users/bob/orders/42"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("order", result.getFirstHeader(TEMPLATE).getValue());
+            Assert.assertEquals("bob", result.getFirstHeader("id").getValue());
+            Assert.assertEquals("42", result.getFirstHeader("orderId").getValue());
+
+            result = execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/users/bob?a=b"));
+            Assert.assertEquals("get user", result.getFirstHeader(TEMPLATE).getValue());
+            Assert.assertEquals("bob", result.getFirstHeader("id").getValue());
+
+            result = execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/"));
+            Assert.assertEquals("root", result.getFirstHeader(TEMPLATE).getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testLiteralSegmentsTakePrecedence() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/users/me"));
+            Assert.assertEquals("me", result.getFirstHeader(TEMPLATE).getValue());
+
+            result = execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/users/me/orders/7"));
+            Assert.assertEquals("my order", result.getFirstHeader(TEMPLATE).getValue());
+            Assert.assertEquals("7", result.getFirstHeader("orderId").getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testMethodMissFallsBackToParameterSegment() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            //there is only a GET route for /users/me, so the POST is routed to /users/{id}
+            HttpResponse result = execute(client, new HttpPost(DefaultServer.getDefaultServerURL() + "/users/me"));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("update user", result.getFirstHeader(TEMPLATE).getValue());
+            Assert.assertEquals("me", result.getFirstHeader("id").getValue());
+
+            //no template accepts DELETE, so the Allow header lists the methods of both of them
+            result = execute(client, new HttpDelete(DefaultServer.getDefaultServerURL() + "/users/me"));
+            Assert.assertEquals(405, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("GET, POST", result.getFirstHeader("Allow").getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testMethodDispatch() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = execute(client, new HttpPost(DefaultServer.getDefaultServerURL() + "/users/bob"));
+            Assert.assertEquals("update user", result.getFirstHeader(TEMPLATE).getValue());
+
+            result = execute(client, new HttpDelete(DefaultServer.getDefaultServerURL() + "/users/bob/orders/42"));
+            Assert.assertEquals(405, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("GET", result.getFirstHeader("Allow").getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testUnmatchedPath() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            Assert.assertEquals(404, execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/users")).getStatusLine().getStatusCode());
+            Assert.assertEquals(404, execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/users/bob/orders")).getStatusLine().getStatusCode());
+            Assert.assertEquals(404, execute(client, new HttpGet(DefaultServer.getDefaultServerURL() + "/other/bob")).getStatusLine().getStatusCode());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static HttpResponse execute(final TestHttpClient client, final HttpUriRequest request) throws IOException {
+        HttpResponse result = client.execute(request);
+        HttpClientUtils.readResponse(result);
+        return result;
+    }
+
+    private static final class TemplateHandler implements HttpHandler {
+
+        private final String name;
+
+        private TemplateHandler(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            final PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+            exchange.getResponseHeaders().put(new HttpString(TEMPLATE), name);
+            for (int i = 0; i < match.getParameterCount(); ++i) {
+                exchange.getResponseHeaders().put(new HttpString(match.getParameterName(i)), match.getParameter(i));
+            }
+        }
+    }
+}
@@ -56,5 +56,34 @@ public class VirtualHostTestCase {
         }
     }
 
+    @Test
+    public void testWildcardAndCaseInsensitiveHosts() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final NameVirtualHostHandler handler = new NameVirtualHostHandler()
+                    .addHost("www.example.com", new SetHeaderHandler("myHost", "www"))
+                    .addHost("*.example.com", new SetHeaderHandler("myHost", "wildcard"))
+                    .addHost("*.api.example.com", new SetHeaderHandler("myHost", "api"))
+                    .setDefaultHandler(new SetHeaderHandler("myHost", "default"));
+            DefaultServer.setRootHandler(handler);
 
+            Assert.assertEquals("www", requestHost(client, "WWW.Example.com:8080"));
+            Assert.assertEquals("wildcard", requestHost(client, "foo.example.com"));
+            Assert.assertEquals("wildcard", requestHost(client, "foo.bar.EXAMPLE.com"));
+            Assert.assertEquals("api", requestHost(client, "v1.api.example.com"));
+            Assert.assertEquals("default", requestHost(client, "example.com"));
+            Assert.assertEquals("default", requestHost(client, "example.org"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String requestHost(final TestHttpClient client, final String host) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+        get.setHeader("Host", host);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+        return result.getHeaders("myHost")[0].getValue();
+    }
 }
@@ -0,0 +1,214 @@
+package io.undertow.test.handlers.caching;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.CachedHttpRequest;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that concurrent requests for a response that is not cached wait for the first request to
+ * generate it, rather than all generating it.
+ */
+@RunWith(DefaultServer.class)
+public class CacheHandlerCoalescingTestCase {
+
+    @Test
+    public void testConcurrentMissesAreCoalesced() throws Exception {
+        final LoadingHandler handler = new LoadingHandler();
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 10000), handler)
+                .setMaximumWaitTime(10, TimeUnit.SECONDS));
+        //it takes 5 hits to make an entry actually get cached
+        for (int i = 1; i <= 4; ++i) {
+            Assert.assertEquals("Response " + i, new RequestTask("/coalesce").call());
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            handler.block.set(true);
+            final Future<String> leader = executor.submit(new RequestTask("/coalesce"));
+            Assert.assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+            final List<Future<String>> followers = new ArrayList<Future<String>>();
+            for (int i = 0; i < 5; ++i) {
+                followers.add(executor.submit(new RequestTask("/coalesce")));
+            }
+            //give the followers time to arrive while the leader is still loading
+            Thread.sleep(500);
+            handler.release.countDown();
+
+            Assert.assertEquals("Response 5", leader.get(10, TimeUnit.SECONDS));
+            for (Future<String> follower : followers) {
+                Assert.assertEquals("Response 5", follower.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(5, handler.responseCount.get());
+        } finally {
+            handler.release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWaitingRequestTimesOut() throws Exception {
+        final LoadingHandler handler = new LoadingHandler();
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 10000), handler)
+                .setMaximumWaitTime(100, TimeUnit.MILLISECONDS));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            handler.block.set(true);
+            final Future<String> leader = executor.submit(new RequestTask("/timeout"));
+            Assert.assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+            //the leader is still loading, so the follower generates the response itself
+            Assert.assertEquals("Response 2", new RequestTask("/timeout").call());
+
+            handler.release.countDown();
+            Assert.assertEquals("Response 1", leader.get(10, TimeUnit.SECONDS));
+        } finally {
+            handler.release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUncachableResponseDoesNotHoldUpWaitingRequests() throws Exception {
+        final StreamingHandler handler = new StreamingHandler();
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 10000), handler)
+                .setMaximumWaitTime(10, TimeUnit.SECONDS));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> leader = executor.submit(new RequestTask("/uncachable"));
+            Assert.assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+            //the leader is still sending its response, but as it is not going to be cached the follower
+            //generates its own response rather than waiting
+            Assert.assertEquals("Response 2", executor.submit(new RequestTask("/uncachable")).get(5, TimeUnit.SECONDS));
+
+            handler.release.countDown();
+            Assert.assertEquals("Response 1", leader.get(10, TimeUnit.SECONDS));
+        } finally {
+            handler.release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Handler that generates the response in a worker thread. If {@link #block} is set the next response
+     * that is generated waits until it is released.
+     */
+    private static final class LoadingHandler implements HttpHandler {
+
+        private final AtomicInteger responseCount = new AtomicInteger();
+        private final AtomicBoolean block = new AtomicBoolean();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+            if (cache.tryServeResponse(this)) {
+                return;
+            }
+            final String data = "Response " + responseCount.incrementAndGet();
+            exchange.dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    if (block.compareAndSet(true, false)) {
+                        started.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
+                    exchange.getResponseSender().send(data, IoCallback.END_EXCHANGE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Handler that streams a response without a content length, so it cannot be cached. The first response
+     * waits after sending its headers until it is released.
+     */
+    private static final class StreamingHandler implements HttpHandler {
+
+        private final AtomicInteger responseCount = new AtomicInteger();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+            if (cache.tryServeResponse(this)) {
+                return;
+            }
+            final int count = responseCount.incrementAndGet();
+            exchange.dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.startBlocking();
+                    try {
+                        final OutputStream out = exchange.getOutputStream();
+                        out.write(("Response " + count).getBytes("US-ASCII"));
+                        if (count == 1) {
+                            out.flush();
+                            started.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                        }
+                        out.close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.endExchange();
+                }
+            });
+        }
+    }
+
+    private static final class RequestTask implements Callable<String> {
+
+        private final String path;
+
+        private RequestTask(final String path) {
+            this.path = path;
+        }
+
+        @Override
+        public String call() throws IOException {
+            final TestHttpClient client = new TestHttpClient();
+            try {
+                final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                return HttpClientUtils.readResponse(result);
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package io.undertow.test.handlers.caching;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.CachedHttpRequest;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that cached responses expire as directed by their Cache-Control header, and that stale responses
+ * are served while they are refreshed.
+ */
+@RunWith(DefaultServer.class)
+public class CacheHandlerRefreshTestCase {
+
+    @Test
+    public void testStaleResponseIsServedWhileRefreshed() throws Exception {
+        final RefreshingHandler handler = new RefreshingHandler("max-age=1, stale-while-revalidate=60");
+        final CacheHandler cacheHandler = new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 10000), handler);
+        DefaultServer.setRootHandler(cacheHandler);
+        //it takes 5 hits to make an entry actually get cached
+        for (int i = 1; i <= 5; ++i) {
+            Assert.assertEquals("Response " + i, request(false));
+        }
+        Assert.assertEquals("Response 5", request(false));
+
+        Thread.sleep(1100);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            handler.block.set(true);
+            final Future<String> refresh = executor.submit(new RequestTask());
+            Assert.assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+            Assert.assertEquals("Response 5", request(true));
+
+            handler.release.countDown();
+            Assert.assertEquals("Response 6", refresh.get(10, TimeUnit.SECONDS));
+        } finally {
+            handler.release.countDown();
+            executor.shutdown();
+        }
+        Assert.assertEquals("Response 6", request(false));
+        Assert.assertEquals(1, cacheHandler.getRefreshes());
+        Assert.assertEquals(1, cacheHandler.getStaleHits());
+    }
+
+    @Test
+    public void testStaleResponseIsRefreshedWhenCacheIsFull() throws Exception {
+        final RefreshingHandler handler = new RefreshingHandler("max-age=1, stale-while-revalidate=60");
+        //there is only room for two responses
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 200), handler));
+        for (int i = 1; i <= 5; ++i) {
+            Assert.assertEquals("Response " + i, request("/other", false));
+        }
+        for (int i = 6; i <= 10; ++i) {
+            Assert.assertEquals("Response " + i, request(false));
+        }
+        Assert.assertEquals("Response 10", request(false));
+
+        Thread.sleep(1100);
+        //the fresh copy takes the place of the other response, rather than the stale entry being dropped
+        Assert.assertEquals("Response 11", request(false));
+        Assert.assertEquals("Response 11", request(false));
+    }
+
+    @Test
+    public void testNoStoreResponseIsNotCached() throws Exception {
+        final RefreshingHandler handler = new RefreshingHandler("no-store");
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 10000), handler));
+        for (int i = 1; i <= 8; ++i) {
+            Assert.assertEquals("Response " + i, request(false));
+        }
+    }
+
+    /**
+     * Handler that generates the response in a worker thread. If {@link #block} is set the next response
+     * that is generated waits until it is released.
+     */
+    private static final class RefreshingHandler implements HttpHandler {
+
+        private final String cacheControl;
+        private final AtomicInteger responseCount = new AtomicInteger();
+        private final AtomicBoolean block = new AtomicBoolean();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private RefreshingHandler(final String cacheControl) {
+            this.cacheControl = cacheControl;
+        }
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+            if (cache.tryServeResponse(this)) {
+                return;
+            }
+            final String data = "Response " + responseCount.incrementAndGet();
+            exchange.dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    if (block.compareAndSet(true, false)) {
+                        started.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, cacheControl);
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
+                    exchange.getResponseSender().send(data, IoCallback.END_EXCHANGE);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param stale If the response is expected to be a stale cached response
+     * @return The response body
+     */
+    private static String request(final boolean stale) throws IOException {
+        return request("/refresh", stale);
+    }
+
+    private static String request(final String path, final boolean stale) throws IOException {
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(stale, result.getFirstHeader(Headers.WARNING_STRING) != null);
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static final class RequestTask implements Callable<String> {
+
+        @Override
+        public String call() throws IOException {
+            return request(false);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.undertow.test.handlers.caching;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.io.IoCallback;
+import io.undertow.predicate.Predicates;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.CachedHttpRequest;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.server.handlers.encoding.ContentEncodingProvider;
+import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.ContentEncodingHttpClient;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Tests that the cache handler stores a variant of a response for each value of the headers named in
+ * the Vary header, and that it caches responses after they have been compressed.
+ */
+@RunWith(DefaultServer.class)
+public class CacheHandlerVaryTestCase {
+
+    private static final AtomicInteger responseCount = new AtomicInteger();
+
+    /**
+     * The number of responses that have been compressed
+     */
+    private static final AtomicInteger deflateCount = new AtomicInteger();
+
+    /**
+     * A body that does not compress well, so the compressed response is larger than a buffer
+     */
+    private static final String LARGE_BODY = largeBody();
+
+    @BeforeClass
+    public static void setup() {
+
+        final HttpHandler messageHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+                if (!cache.tryServeResponse()) {
+                    String data = "Response " + responseCount.incrementAndGet();
+                    if (exchange.getRequestPath().equals("/compressed-large")) {
+                        data += LARGE_BODY;
+                    }
+                    exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_LANGUAGE_STRING);
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
+                    exchange.getResponseSender().send(data, IoCallback.END_EXCHANGE);
+                }
+            }
+        };
+        final ContentEncodingProvider deflate = new DeflateEncodingProvider();
+        final EncodingHandler encodingHandler = new EncodingHandler(messageHandler);
+        encodingHandler.addEncodingHandler("deflate", new ContentEncodingProvider() {
+            @Override
+            public ConduitWrapper<StreamSinkConduit> getResponseWrapper() {
+                final ConduitWrapper<StreamSinkConduit> wrapper = deflate.getResponseWrapper();
+                return new ConduitWrapper<StreamSinkConduit>() {
+                    @Override
+                    public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+                        deflateCount.incrementAndGet();
+                        return wrapper.wrap(factory, exchange);
+                    }
+                };
+            }
+        }, 50, Predicates.paths("/compressed", "/compressed-large"));
+        DefaultServer.setRootHandler(new CacheHandler(new DirectBufferCache<CachedHttpRequest>(1024, 1024 * 256), encodingHandler));
+    }
+
+    @Test
+    public void testVariantIsSelectedByVaryHeaders() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final int base = responseCount.get();
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/vary");
+            get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, "en");
+            //it takes 5 hits to make an entry actually get cached
+            for (int i = 1; i <= 5; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Response " + (base + i), HttpClientUtils.readResponse(result));
+            }
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response " + (base + 5), HttpClientUtils.readResponse(result));
+            Assert.assertEquals(Headers.ACCEPT_LANGUAGE_STRING, result.getFirstHeader(Headers.VARY_STRING).getValue());
+
+            get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, "fr");
+            for (int i = 6; i <= 10; ++i) {
+                result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("Response " + (base + i), HttpClientUtils.readResponse(result));
+            }
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response " + (base + 10), HttpClientUtils.readResponse(result));
+
+            get.setHeader(Headers.ACCEPT_LANGUAGE_STRING, "en");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response " + (base + 5), HttpClientUtils.readResponse(result));
+
+            get.removeHeaders(Headers.ACCEPT_LANGUAGE_STRING);
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response " + (base + 11), HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testCompressedResponseIsCached() throws IOException {
+        ContentEncodingHttpClient client = new ContentEncodingHttpClient();
+        try {
+            final int base = responseCount.get();
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/compressed");
+            //it takes 5 hits to make an entry actually get cached
+            for (int i = 1; i <= 5; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Header[] header = result.getHeaders(Headers.CONTENT_ENCODING_STRING);
+                Assert.assertEquals("deflate", header[0].getValue());
+                Assert.assertEquals("Response " + (base + i), HttpClientUtils.readResponse(result));
+            }
+            final int deflated = deflateCount.get();
+            for (int i = 0; i < 2; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Header[] header = result.getHeaders(Headers.CONTENT_ENCODING_STRING);
+                Assert.assertEquals("deflate", header[0].getValue());
+                Assert.assertEquals("Response " + (base + 5), HttpClientUtils.readResponse(result));
+            }
+            //the cached bytes are already compressed
+            Assert.assertEquals(deflated, deflateCount.get());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testLargeCompressedResponseIsNotCached() throws IOException {
+        ContentEncodingHttpClient client = new ContentEncodingHttpClient();
+        try {
+            final int base = responseCount.get();
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/compressed-large");
+            //the compressed length is not known when the response is started, so it is sent chunked and
+            //every request runs the handler
+            for (int i = 1; i <= 7; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Header[] header = result.getHeaders(Headers.CONTENT_ENCODING_STRING);
+                Assert.assertEquals("deflate", header[0].getValue());
+                Assert.assertEquals("Response " + (base + i) + LARGE_BODY, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String largeBody() {
+        final Random random = new Random(1);
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            body.append((char) ('a' + random.nextInt(26)));
+        }
+        return body.toString();
+    }
+}
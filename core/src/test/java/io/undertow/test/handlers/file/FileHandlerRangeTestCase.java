@@ -0,0 +1,160 @@
+package io.undertow.test.handlers.file;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.CachedHttpRequest;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.resource.FileResourceManager;
+import io.undertow.server.handlers.resource.ResourceHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.DateUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that range requests are served by the resource handler, and from the cache.
+ */
+@RunWith(DefaultServer.class)
+public class FileHandlerRangeTestCase {
+
+    @Test
+    public void testSingleRange() throws IOException, URISyntaxException {
+        final String page = setup(false);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.setHeader(Headers.RANGE_STRING, "bytes=10-29");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes 10-29/" + page.length(), result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue());
+            Assert.assertEquals(page.substring(10, 30), HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testMultipleRanges() throws IOException, URISyntaxException {
+        final String page = setup(false);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            assertMultipleRanges(client, page);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testIfRange() throws IOException, URISyntaxException {
+        final String page = setup(false);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.setHeader(Headers.RANGE_STRING, "bytes=0-9");
+            get.setHeader(Headers.IF_RANGE_STRING, DateUtils.toDateString(new Date(0)));
+            //the resource has been modified since, so it is sent in full
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(page, HttpClientUtils.readResponse(result));
+
+            get.setHeader(Headers.IF_RANGE_STRING, result.getFirstHeader(Headers.LAST_MODIFIED_STRING).getValue());
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(page.substring(0, 10), HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws IOException, URISyntaxException {
+        final String page = setup(false);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            get.setHeader(Headers.RANGE_STRING, "bytes=" + page.length() + "-");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(416, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes */" + page.length(), result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRangesAreServedFromCache() throws IOException, URISyntaxException {
+        final String page = setup(true);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+            //it takes 5 hits to make an entry actually get cached
+            for (int i = 0; i < 6; ++i) {
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(page, HttpClientUtils.readResponse(result));
+            }
+            //the ranges span several slices of the cache
+            get.setHeader(Headers.RANGE_STRING, "bytes=10-299");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(page.substring(10, 300), HttpClientUtils.readResponse(result));
+
+            assertMultipleRanges(client, page);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void assertMultipleRanges(final TestHttpClient client, final String page) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path/page.html");
+        get.setHeader(Headers.RANGE_STRING, "bytes=0-9,-20");
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+        final String contentType = result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue();
+        Assert.assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+        final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        final int length = page.length();
+        final String expected = "\r\n--" + boundary + "\r\n" +
+                "Content-Type: text/html\r\n" +
+                "Content-Range: bytes 0-9/" + length + "\r\n\r\n" +
+                page.substring(0, 10) +
+                "\r\n--" + boundary + "\r\n" +
+                "Content-Type: text/html\r\n" +
+                "Content-Range: bytes " + (length - 20) + "-" + (length - 1) + "/" + length + "\r\n\r\n" +
+                page.substring(length - 20) +
+                "\r\n--" + boundary + "--\r\n";
+        Assert.assertEquals(expected, HttpClientUtils.readResponse(result));
+    }
+
+    /**
+     * @return The content of the page that is served
+     */
+    private String setup(final boolean cache) throws IOException, URISyntaxException {
+        final Path page = Paths.get(getClass().getResource("page.html").toURI());
+        HttpHandler handler = new PathHandler()
+                .addPath("/path", new ResourceHandler()
+                        .setResourceManager(new FileResourceManager(page.getParent())));
+        if (cache) {
+            handler = new CacheHandler(new DirectBufferCache<CachedHttpRequest>(64, 64 * 100), handler);
+        }
+        DefaultServer.setRootHandler(new CanonicalPathHandler().setNext(handler));
+        return new String(Files.readAllBytes(page), StandardCharsets.US_ASCII);
+    }
+}
@@ -85,6 +85,13 @@ public class PathTestCase {
             runPathTest(client, "/aa/anotherSubPath", "/aa/anotherSubPath", "");
             runPathTest(client, "/aa/anotherSubPath/bob", "/aa/anotherSubPath", "/bob");
             runPathTest(client, "/aa?a=b", "/aa", "", Collections.singletonMap("a", "b"));
+            runPathTest(client, "/aa/otherSubPath", "/aa", "/otherSubPath");
+            runPathTest(client, "/aa/anotherSubPathToo", "/aa", "/anotherSubPathToo");
+
+            get = new HttpGet(DefaultServer.getDefaultServerURL() + "/aab");
+            result = client.execute(get);
+            Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
 
 
 
@@ -267,10 +267,17 @@ public class DefaultServer extends BlockJUnit4ClassRunner {
      * authentication.
      */
     public static void startSSLServer() throws IOException {
-        SSLContext serverContext = createSSLContext(loadKeyStore(SERVER_KEY_STORE), loadKeyStore(SERVER_TRUST_STORE));
-        clientSslContext = createSSLContext(loadKeyStore(CLIENT_KEY_STORE), loadKeyStore(CLIENT_TRUST_STORE));
+        startSSLServer(createServerSSLContext(), OptionMap.create(SSL_CLIENT_AUTH_MODE, REQUESTED));
+    }
 
-        startSSLServer(serverContext, OptionMap.create(SSL_CLIENT_AUTH_MODE, REQUESTED));
+    /**
+     * Creates a server side SSLContext using the default settings, and the client side SSLContext that trusts it.
+     *
+     * @return The server side SSLContext.
+     */
+    public static SSLContext createServerSSLContext() throws IOException {
+        clientSslContext = createSSLContext(loadKeyStore(CLIENT_KEY_STORE), loadKeyStore(CLIENT_TRUST_STORE));
+        return createSSLContext(loadKeyStore(SERVER_KEY_STORE), loadKeyStore(SERVER_TRUST_STORE));
     }
 
     /**
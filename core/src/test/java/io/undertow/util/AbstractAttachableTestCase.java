@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AbstractAttachableTestCase {
+
+    private static final AttachmentKey<String> STRING_KEY = AttachmentKey.create(String.class);
+    private static final AttachmentKey<Integer> INTEGER_KEY = AttachmentKey.create(Integer.class);
+    private static final AttachmentKey<AttachmentList<String>> LIST_KEY = AttachmentKey.createList(String.class);
+
+    @Test
+    public void testAttachments() {
+        final TestAttachable attachable = new TestAttachable();
+        Assert.assertNull(attachable.getAttachment(STRING_KEY));
+        Assert.assertNull(attachable.removeAttachment(STRING_KEY));
+        Assert.assertNull(attachable.putAttachment(STRING_KEY, "one"));
+        Assert.assertEquals("one", attachable.putAttachment(STRING_KEY, "two"));
+        Assert.assertNull(attachable.putAttachment(INTEGER_KEY, 1));
+        Assert.assertEquals("two", attachable.getAttachment(STRING_KEY));
+        Assert.assertEquals(Integer.valueOf(1), attachable.getAttachment(INTEGER_KEY));
+        Assert.assertEquals("two", attachable.removeAttachment(STRING_KEY));
+        Assert.assertNull(attachable.getAttachment(STRING_KEY));
+
+        Assert.assertTrue(attachable.getAttachmentList(LIST_KEY).isEmpty());
+        attachable.addToAttachmentList(LIST_KEY, "a");
+        attachable.addToAttachmentList(LIST_KEY, "b");
+        Assert.assertEquals(2, attachable.getAttachmentList(LIST_KEY).size());
+
+        attachable.clearAttachments();
+        Assert.assertNull(attachable.getAttachment(INTEGER_KEY));
+        Assert.assertTrue(attachable.getAttachmentList(LIST_KEY).isEmpty());
+    }
+
+    @Test
+    public void testManyKeys() {
+        final List<AttachmentKey<Integer>> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            keys.add(AttachmentKey.create(Integer.class));
+        }
+        final TestAttachable attachable = new TestAttachable();
+        for (int i = 0; i < keys.size(); ++i) {
+            attachable.putAttachment(keys.get(i), i);
+        }
+        for (int i = 0; i < keys.size(); ++i) {
+            Assert.assertEquals(Integer.valueOf(i), attachable.getAttachment(keys.get(i)));
+        }
+        for (int i = 0; i < keys.size(); i += 2) {
+            Assert.assertEquals(Integer.valueOf(i), attachable.removeAttachment(keys.get(i)));
+        }
+        for (int i = 0; i < keys.size(); ++i) {
+            Assert.assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), attachable.getAttachment(keys.get(i)));
+        }
+        Assert.assertNull(new TestAttachable().getAttachment(keys.get(keys.size() - 1)));
+    }
+
+    private static final class TestAttachable extends AbstractAttachable {
+    }
+}
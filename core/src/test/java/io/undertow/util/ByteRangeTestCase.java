@@ -0,0 +1,51 @@
+package io.undertow.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteRangeTestCase {
+
+    @Test
+    public void testParseRanges() {
+        ByteRange range = ByteRange.parse("bytes=0-9", 100);
+        Assert.assertEquals(1, range.getRangeCount());
+        Assert.assertEquals(0, range.getStart(0));
+        Assert.assertEquals(9, range.getEnd(0));
+        Assert.assertEquals("bytes 0-9/100", range.getContentRange(0));
+
+        range = ByteRange.parse("bytes=90-, -5, 10-1000", 100);
+        Assert.assertEquals(3, range.getRangeCount());
+        Assert.assertEquals(90, range.getStart(0));
+        Assert.assertEquals(99, range.getEnd(0));
+        Assert.assertEquals(95, range.getStart(1));
+        Assert.assertEquals(99, range.getEnd(1));
+        Assert.assertEquals(10, range.getStart(2));
+        Assert.assertEquals(99, range.getEnd(2));
+
+        //a suffix that is longer than the representation is the whole representation
+        range = ByteRange.parse("bytes=-1000", 100);
+        Assert.assertEquals(0, range.getStart(0));
+        Assert.assertEquals(100, range.getLength(0));
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() {
+        Assert.assertEquals(0, ByteRange.parse("bytes=100-", 100).getRangeCount());
+        Assert.assertEquals(0, ByteRange.parse("bytes=-0", 100).getRangeCount());
+        Assert.assertEquals(1, ByteRange.parse("bytes=100-200, 0-0", 100).getRangeCount());
+    }
+
+    @Test
+    public void testInvalidRangesAreIgnored() {
+        Assert.assertNull(ByteRange.parse("items=0-9", 100));
+        Assert.assertNull(ByteRange.parse("bytes=9-0", 100));
+        Assert.assertNull(ByteRange.parse("bytes=a-9", 100));
+        Assert.assertNull(ByteRange.parse("bytes=5", 100));
+        Assert.assertNull(ByteRange.parse("bytes=", 100));
+        final StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= 16; ++i) {
+            many.append(',').append(i).append('-').append(i);
+        }
+        Assert.assertNull(ByteRange.parse(many.toString(), 100));
+    }
+}
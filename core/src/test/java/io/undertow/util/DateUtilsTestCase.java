@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DateUtilsTestCase {
+
+    private static final long DATE = 784111777000L;
+
+    @Test
+    public void testFormatting() {
+        final SimpleDateFormat rfc1123 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        rfc1123.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final SimpleDateFormat cookie = new SimpleDateFormat("EEE, dd-MMM-yyyy HH:mm:ss z", Locale.US);
+        cookie.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Assert.assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", DateUtils.toDateString(new Date(DATE)));
+        Assert.assertEquals("Sun, 06-Nov-1994 08:49:37 GMT", DateUtils.toOldCookieDateString(new Date(DATE)));
+        final Random random = new Random(1);
+        for (int i = 0; i < 10000; ++i) {
+            final Date date = new Date((random.nextLong() & Long.MAX_VALUE) % 253402300799000L);
+            Assert.assertEquals(rfc1123.format(date), DateUtils.toDateString(date));
+            Assert.assertEquals(cookie.format(date), DateUtils.toOldCookieDateString(date));
+            Assert.assertEquals(date.getTime() / 1000 * 1000, DateUtils.parseDate(DateUtils.toDateString(date)).getTime());
+        }
+    }
+
+    @Test
+    public void testParsing() {
+        Assert.assertEquals(DATE, DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT").getTime());
+        Assert.assertEquals(DATE, DateUtils.parseDate("Sunday, 06-Nov-94 08:49:37 GMT").getTime());
+        Assert.assertEquals(DATE, DateUtils.parseDate("Sun Nov  6 08:49:37 1994").getTime());
+        Assert.assertEquals(DATE, DateUtils.parseDate("Sun, 06-Nov-1994 08:49:37 GMT").getTime());
+        Assert.assertEquals(DATE, DateUtils.parseDateMillis("sun, 6 nov 1994 08:49:37 gmt"));
+        Assert.assertEquals(1104537600000L, DateUtils.parseDateMillis("Saturday, 01-Jan-05 00:00:00 GMT"));
+
+        Assert.assertNull(DateUtils.parseDate(""));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT extra"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Foo 1994 08:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 25:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun Nov  6 08:49:37 94"));
+        Assert.assertNull(DateUtils.parseDate("not a date"));
+    }
+
+    @Test
+    public void testCurrentDate() {
+        final long before = System.currentTimeMillis() / 1000 * 1000;
+        final String current = DateUtils.getCurrentDateTime();
+        final long after = System.currentTimeMillis();
+        final long parsed = DateUtils.parseDateMillis(current);
+        Assert.assertTrue(parsed >= before && parsed <= after);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(29);
+        DateUtils.putCurrentDateTime(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        final long bytesParsed = DateUtils.parseDateMillis(new String(buffer.array()));
+        Assert.assertTrue(bytesParsed >= before && bytesParsed <= System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeaderMapTestCase {
+
+    @Test
+    public void testLazyValues() {
+        final byte[] data = "text/htmlgzipdeflate".getBytes();
+        final HeaderMap map = new HeaderMap();
+        map.add(Headers.ACCEPT, data, 0, 9);
+        map.add(Headers.ACCEPT_ENCODING, data, 9, 4);
+        map.add(Headers.ACCEPT_ENCODING, data, 13, 7);
+        map.add(Headers.ACCEPT_ENCODING, "identity");
+
+        Assert.assertEquals("text/html", map.getFirst(Headers.ACCEPT));
+        Assert.assertEquals("gzip", map.getFirst(Headers.ACCEPT_ENCODING));
+        Assert.assertEquals("identity", map.getLast(Headers.ACCEPT_ENCODING));
+        Assert.assertEquals(Arrays.asList("gzip", "deflate", "identity"), map.get(Headers.ACCEPT_ENCODING));
+        Assert.assertEquals(Arrays.asList("text/html"), map.remove(Headers.ACCEPT));
+        Assert.assertNull(map.getFirst(Headers.ACCEPT));
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        final HeaderMap map = new HeaderMap();
+        for (int i = 0; i < 200; ++i) {
+            map.add(new HttpString("Header-" + i), "value-" + i);
+            map.add(new HttpString("header-" + i), "second-" + i);
+        }
+        Assert.assertEquals(200, map.size());
+        for (int i = 0; i < 200; ++i) {
+            Assert.assertEquals("value-" + i, map.getFirst(new HttpString("HEADER-" + i)));
+            Assert.assertEquals(Arrays.asList("value-" + i, "second-" + i), map.get(new HttpString("Header-" + i)));
+        }
+        for (int i = 0; i < 200; i += 2) {
+            Assert.assertNotNull(map.remove(new HttpString("Header-" + i)));
+        }
+        Assert.assertEquals(100, map.size());
+        for (int i = 0; i < 200; ++i) {
+            final String value = map.getLast(new HttpString("Header-" + i));
+            if (i % 2 == 0) {
+                Assert.assertNull(value);
+            } else {
+                Assert.assertEquals("second-" + i, value);
+            }
+        }
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        Assert.assertEquals(-1, map.firstHeader());
+    }
+
+    @Test
+    public void testCursorIteration() {
+        final HeaderMap map = new HeaderMap();
+        map.put(Headers.CONTENT_TYPE, "text/plain");
+        map.add(Headers.SET_COOKIE, "a=b");
+        map.add(Headers.SET_COOKIE, "c=d");
+        map.put(Headers.CONTENT_LENGTH, 10);
+        final Map<HttpString, List<String>> found = new HashMap<>();
+        for (int i = map.firstHeader(); i != -1; i = map.nextHeader(i)) {
+            final List<String> values = new ArrayList<>();
+            for (int j = 0; j < map.getValueCount(i); ++j) {
+                values.add(map.getValue(i, j));
+            }
+            found.put(map.getHeaderName(i), values);
+        }
+        Assert.assertEquals(3, found.size());
+        Assert.assertEquals(Arrays.asList("text/plain"), found.get(Headers.CONTENT_TYPE));
+        Assert.assertEquals(Arrays.asList("a=b", "c=d"), found.get(Headers.SET_COOKIE));
+        Assert.assertEquals(Arrays.asList("10"), found.get(Headers.CONTENT_LENGTH));
+        Assert.assertEquals(found.keySet(), map.getHeaderNames());
+    }
+
+}
@@ -18,6 +18,9 @@
 
 package io.undertow.util;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -29,5 +32,20 @@ public class StatusCodesTestCase {
     @Test
     public void testCodeLookup() {
         Assert.assertEquals("OK", StatusCodes.getReason(200));
+        Assert.assertEquals("Too Many Requests", StatusCodes.getReason(429));
+        Assert.assertEquals("Moved Permanently", StatusCodes.getReason(301));
+        Assert.assertEquals("Unknown", StatusCodes.getReason(499));
+        Assert.assertEquals("Unknown", StatusCodes.getReason(-1));
+        Assert.assertEquals("Unknown", StatusCodes.getReason(1000));
+    }
+
+    @Test
+    public void testEveryCodeHasItsReason() throws IllegalAccessException, NoSuchFieldException {
+        for (Field field : StatusCodes.class.getFields()) {
+            if (field.getType() == int.class && Modifier.isStatic(field.getModifiers())) {
+                final String reason = (String) StatusCodes.class.getField(field.getName() + "_STRING").get(null);
+                Assert.assertEquals(field.getName(), reason, StatusCodes.getReason(field.getInt(null)));
+            }
+        }
     }
 }
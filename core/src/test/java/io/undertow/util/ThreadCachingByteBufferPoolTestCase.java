@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.Pooled;
+
+public class ThreadCachingByteBufferPoolTestCase {
+
+    @Test
+    public void testBuffersAreDistinctAndReused() {
+        final ThreadCachingByteBufferPool pool = new ThreadCachingByteBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 16, 16 * 4, 2);
+        final List<Pooled<ByteBuffer>> pooled = new ArrayList<>();
+        final Map<ByteBuffer, Boolean> seen = new IdentityHashMap<>();
+        for (int i = 0; i < 10; ++i) {
+            final Pooled<ByteBuffer> buffer = pool.allocate();
+            Assert.assertEquals(16, buffer.getResource().capacity());
+            Assert.assertNull(seen.put(buffer.getResource(), Boolean.TRUE));
+            buffer.getResource().put((byte) i);
+            pooled.add(buffer);
+        }
+        Assert.assertEquals(3, pool.getRegions());
+        Assert.assertEquals(12, pool.getHighWaterMark());
+
+        for (Pooled<ByteBuffer> buffer : pooled) {
+            buffer.free();
+        }
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(0, pool.allocate().getResource().position());
+        }
+        Assert.assertEquals(3, pool.getRegions());
+        Assert.assertEquals(20, pool.getAllocations());
+    }
+
+    @Test
+    public void testFreedBufferCannotBeUsed() {
+        final ThreadCachingByteBufferPool pool = new ThreadCachingByteBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 16, 64);
+        final Pooled<ByteBuffer> buffer = pool.allocate();
+        final ByteBuffer resource = buffer.getResource();
+        buffer.free();
+        buffer.free();
+        try {
+            buffer.getResource();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        //the double free must not have put the buffer in the pool twice
+        Assert.assertSame(resource, pool.allocate().getResource());
+        Assert.assertNotSame(resource, pool.allocate().getResource());
+    }
+
+    @Test
+    public void testCrossThreadFree() throws InterruptedException {
+        final ThreadCachingByteBufferPool pool = new ThreadCachingByteBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 16, 16 * 8, 0);
+        final List<Pooled<ByteBuffer>> pooled = new ArrayList<>();
+        final Map<ByteBuffer, Boolean> seen = new IdentityHashMap<>();
+        for (int i = 0; i < 8; ++i) {
+            final Pooled<ByteBuffer> buffer = pool.allocate();
+            seen.put(buffer.getResource(), Boolean.TRUE);
+            pooled.add(buffer);
+        }
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (Pooled<ByteBuffer> buffer : pooled) {
+                    buffer.free();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        for (int i = 0; i < 8; ++i) {
+            Assert.assertTrue(seen.containsKey(pool.allocate().getResource()));
+        }
+        Assert.assertEquals(1, pool.getRegions());
+        Assert.assertEquals(16, pool.getMisses());
+    }
+
+    @Test
+    public void testDeadThreadCacheIsReclaimed() throws InterruptedException {
+        final ThreadCachingByteBufferPool pool = new ThreadCachingByteBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 16, 16 * 8, 4);
+        final Map<ByteBuffer, Boolean> seen = new IdentityHashMap<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<Pooled<ByteBuffer>> pooled = new ArrayList<>();
+                for (int i = 0; i < 8; ++i) {
+                    final Pooled<ByteBuffer> buffer = pool.allocate();
+                    seen.put(buffer.getResource(), Boolean.TRUE);
+                    pooled.add(buffer);
+                }
+                //four of these end up in the cache of this thread
+                for (Pooled<ByteBuffer> buffer : pooled) {
+                    buffer.free();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertEquals(1, pool.getRegions());
+
+        //all eight buffers must be available to this thread, including the ones cached by the dead thread
+        for (int i = 0; i < 8; ++i) {
+            Assert.assertTrue(seen.containsKey(pool.allocate().getResource()));
+        }
+        Assert.assertEquals(1, pool.getRegions());
+        Assert.assertEquals(16, pool.getAllocations());
+    }
+}
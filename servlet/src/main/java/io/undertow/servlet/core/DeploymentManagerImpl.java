@@ -577,16 +577,13 @@ public class DeploymentManagerImpl implements DeploymentManager {
                     throw new RuntimeException(e);
                 }
             }
-            if (deployment.getDeploymentInfo().getExecutorFactory() != null) {
-                if (deployment.getDeploymentInfo().getAsyncExecutorFactory() != null) {
-                    try {
-                        asyncExecutor = deployment.getDeploymentInfo().getAsyncExecutorFactory().createInstance();
-                        root = new AttachmentHandler<>(AsyncContextImpl.ASYNC_EXECUTOR, root, asyncExecutor.getInstance());
-                    } catch (InstantiationException e) {
-                        throw new RuntimeException(e);
-                    }
+            if (deployment.getDeploymentInfo().getAsyncExecutorFactory() != null) {
+                try {
+                    asyncExecutor = deployment.getDeploymentInfo().getAsyncExecutorFactory().createInstance();
+                    root = new AttachmentHandler<>(AsyncContextImpl.ASYNC_EXECUTOR, root, asyncExecutor.getInstance());
+                } catch (InstantiationException e) {
+                    throw new RuntimeException(e);
                 }
-
             }
             state = State.STARTED;
             return root;
@@ -271,7 +271,7 @@ public class AsyncContextImpl implements AsyncContext {
             executor = exchange.getDispatchExecutor();
         }
         if (executor == null) {
-            executor = exchange.getConnection().getWorker();
+            executor = exchange.getConnection().getDispatchExecutor();
         }
         return executor;
     }